@@ -0,0 +1,76 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.benchmarks;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.dithering.DitheringAlgorithm;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dithers an A4 photo with every dithering algorithm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class DitheringBenchmark
+{
+
+  @Param({"FLOYD_STEINBERG", "AVERAGE", "RANDOM", "ORDERED", "GRID", "HALFTONE", "BRIGHTENED_HALFTONE", "JARVIS_JUDICE_NINKE", "STUCKI", "ATKINSON"})
+  public BlackWhiteRaster.DitherAlgorithm algorithm;
+
+  @Param({"500", "1000"})
+  public double dpi;
+
+  @Param({"210"})
+  public double widthMm;
+
+  @Param({"297"})
+  public double heightMm;
+
+  private GreyRaster photo;
+  private DitheringAlgorithm dither;
+
+  @Setup
+  public void setup()
+  {
+    photo = SyntheticJobs.photo(widthMm, heightMm, dpi);
+    dither = BlackWhiteRaster.getDitheringAlgorithm(algorithm);
+  }
+
+  @Benchmark
+  public BlackWhiteRaster dither() throws InterruptedException
+  {
+    return dither.dither(photo);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.benchmarks;
+
+import de.thomas_oster.liblasercut.LaserCutter;
+import de.thomas_oster.liblasercut.LaserJob;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Complete saveJob() of every driver that writes its output to a stream
+ * (Dummy and SampleDriver only print to the console and are left out).
+ *
+ * Drivers modify the job while saving it, so a new job is generated
+ * (outside of the measurement) for every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class DriverBenchmark
+{
+
+  @Param({"EpilogZing", "EpilogHelix", "LaosCutter", "GoldCutHPGL", "Lasersaur",
+    "IModelaMill", "MakeBlockXYPlotter", "GenericGcodeDriver", "Grbl", "SmoothieBoard",
+    "Marlin", "FullSpectrumCutter", "LaserToolsTechnicsCutter", "K40NanoDriver"})
+  public String driver;
+
+  @Param({"500"})
+  public double dpi;
+
+  @Param({"10000"})
+  public int paths;
+
+  /**
+   * size of the engraved photos in mm (limited to half the bed size)
+   */
+  @Param({"100"})
+  public double photoMm;
+
+  private LaserCutter cutter;
+  private LaserJob job;
+
+  @Setup(Level.Invocation)
+  public void setup() throws Exception
+  {
+    cutter = (LaserCutter) Class.forName("de.thomas_oster.liblasercut.drivers." + driver).getDeclaredConstructor().newInstance();
+    job = SyntheticJobs.job(cutter, dpi, paths, photoMm);
+  }
+
+  @Benchmark
+  public void saveJob() throws Exception
+  {
+    cutter.saveJob(OutputStream.nullOutputStream(), job);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.benchmarks;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.ByteArrayList;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.dithering.FloydSteinberg;
+import de.thomas_oster.liblasercut.drivers.EpilogZing;
+import de.thomas_oster.liblasercut.drivers.LaserToolsTechnicsCutter;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Line encoders of the raster drivers, applied to every line of an A4 photo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class EncodeBenchmark
+{
+
+  @Param({"500", "1000"})
+  public double dpi;
+
+  @Param({"210"})
+  public double widthMm;
+
+  @Param({"297"})
+  public double heightMm;
+
+  private final List<ByteArrayList> bitmapLines = new ArrayList<>();
+  private final List<ByteArrayList> greyLines = new ArrayList<>();
+  private final EpilogZing epilog = new EpilogZing();
+
+  @Setup
+  public void setup() throws InterruptedException
+  {
+    GreyRaster photo = SyntheticJobs.photo(widthMm, heightMm, dpi);
+    BlackWhiteRaster bitmap = new FloydSteinberg().dither(photo);
+    RasterPart rp = new RasterPart(bitmap, new PowerSpeedFocusProperty(), new Point(0, 0), dpi);
+    for (int y = 0; y < rp.getRasterHeight(); y++)
+    {
+      bitmapLines.add((ByteArrayList) rp.getRasterLine(y));
+      ByteArrayList grey = new ByteArrayList(photo.getWidth());
+      for (int x = 0; x < photo.getWidth(); x++)
+      {
+        grey.add((byte) photo.getGreyScale(x, y));
+      }
+      greyLines.add(grey);
+    }
+  }
+
+  @Benchmark
+  public int epilogEncodeBitmap()
+  {
+    return epilogEncode(bitmapLines);
+  }
+
+  @Benchmark
+  public int epilogEncodeGreyscale()
+  {
+    return epilogEncode(greyLines);
+  }
+
+  private int epilogEncode(List<ByteArrayList> lines)
+  {
+    int size = 0;
+    ByteArrayList encoded = new ByteArrayList(1024);
+    for (ByteArrayList line : lines)
+    {
+      encoded.clear();
+      epilog.encode(line, encoded);
+      size += encoded.size();
+    }
+    return size;
+  }
+
+  @Benchmark
+  public int lttCompressBitmap()
+  {
+    int size = 0;
+    for (ByteArrayList line : bitmapLines)
+    {
+      size += LaserToolsTechnicsCutter.compressData(line).size();
+    }
+    return size;
+  }
+}
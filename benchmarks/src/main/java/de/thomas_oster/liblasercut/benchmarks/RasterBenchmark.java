@@ -0,0 +1,125 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.benchmarks;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.Raster3dPart;
+import de.thomas_oster.liblasercut.RasterBuilder;
+import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.RasterizableJobPart;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.dithering.FloydSteinberg;
+import de.thomas_oster.liblasercut.drivers.Dummy;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Raster traversal: RasterBuilder iteration and the raster-to-vector
+ * conversion used by the G-Code style drivers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class RasterBenchmark
+{
+
+  /**
+   * Gives access to the protected conversion method.
+   */
+  public static class ConvertingCutter extends Dummy
+  {
+    @Override
+    public double getBedWidth()
+    {
+      return 10000;
+    }
+
+    public VectorPart convert(RasterizableJobPart rp, LaserJob job)
+    {
+      return convertRasterizableToVectorPart(rp, job, true, false, false);
+    }
+  }
+
+  @Param({"500", "1000"})
+  public double dpi;
+
+  @Param({"210"})
+  public double widthMm;
+
+  @Param({"297"})
+  public double heightMm;
+
+  private BlackWhiteRaster bitmap;
+  private GreyRaster photo;
+  private final ConvertingCutter cutter = new ConvertingCutter();
+  private final LaserJob job = new LaserJob("benchmark", "benchmark", "benchmark");
+
+  @Setup
+  public void setup() throws InterruptedException
+  {
+    photo = SyntheticJobs.photo(widthMm, heightMm, dpi);
+    bitmap = new FloydSteinberg().dither(photo);
+  }
+
+  @Benchmark
+  public double rasterBuilder()
+  {
+    RasterBuilder builder = new RasterBuilder(bitmap.getRaster(), (properties, pixel) -> properties.setProperty("pixel", pixel), 0, 0, 0);
+    double sum = 0;
+    for (VectorCommand cmd : builder)
+    {
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        sum += cmd.getX();
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public VectorPart convertRasterPart()
+  {
+    RasterPart rp = new RasterPart(bitmap, cutter.getLaserPropertyForRasterPart(), new Point(0, 0), dpi);
+    return cutter.convert(rp, job);
+  }
+
+  @Benchmark
+  public VectorPart convertRaster3dPart()
+  {
+    Raster3dPart rp = new Raster3dPart(photo, cutter.getLaserPropertyForRaster3dPart(), new Point(0, 0), dpi);
+    return cutter.convert(rp, job);
+  }
+}
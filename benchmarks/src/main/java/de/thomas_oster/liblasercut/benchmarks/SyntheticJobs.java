@@ -0,0 +1,213 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.benchmarks;
+
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.LaserCutter;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.Raster3dPart;
+import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.dithering.FloydSteinberg;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.platform.Util;
+import java.util.List;
+
+/**
+ * Generators for reproducible synthetic jobs used by the benchmarks.
+ */
+public class SyntheticJobs
+{
+
+  /**
+   * A VectorPart with the given number of commands: short polylines with a
+   * property change every 100 polylines, spread over a 500x300mm bed at 500 DPI.
+   */
+  public static VectorPart vectorPart(int commands)
+  {
+    java.util.Random random = new java.util.Random(42);
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    VectorPart vp = new VectorPart(prop, 500);
+    int count = 1;
+    int polylines = 0;
+    while (count < commands)
+    {
+      if (++polylines % 100 == 0)
+      {
+        PowerSpeedFocusProperty p = new PowerSpeedFocusProperty();
+        p.setPower(random.nextInt(100));
+        vp.setProperty(p);
+        count++;
+      }
+      double x = random.nextDouble() * 9800;
+      double y = random.nextDouble() * 5900;
+      vp.moveto(x, y);
+      count++;
+      for (int i = 0; i < 9 && count < commands; i++)
+      {
+        vp.lineto(x + random.nextDouble() * 50, y + random.nextDouble() * 50);
+        count++;
+      }
+    }
+    return vp;
+  }
+
+  /**
+   * A photo-like 8 bit greyscale image: smooth gradients with some noise
+   * and blank (white) margins, so that line skipping is exercised, too.
+   */
+  public static GreyRaster photo(int width, int height)
+  {
+    java.util.Random random = new java.util.Random(42);
+    GreyRaster raster = new GreyRaster(width, height);
+    int margin = Math.min(width, height) / 20;
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        int grey = 255;
+        if (x >= margin && x < width - margin && y >= margin && y < height - margin)
+        {
+          double v = 0.5 + 0.25 * Math.sin(x * 12.0 / width) + 0.25 * Math.cos(y * 7.0 / height);
+          grey = (int) Math.max(0, Math.min(255, v * 255 + random.nextInt(32) - 16));
+        }
+        raster.setGreyScale(x, y, grey);
+      }
+    }
+    return raster;
+  }
+
+  /**
+   * Photo of the given size in mm at the given resolution.
+   */
+  public static GreyRaster photo(double widthMm, double heightMm, double dpi)
+  {
+    return photo((int) Util.mm2px(widthMm, dpi), (int) Util.mm2px(heightMm, dpi));
+  }
+
+  /**
+   * A nesting-like sheet of closed paths: a grid of rectangular parts, each
+   * with a circular hole, filling an area of the given size in px.
+   * @param paths number of paths (each part consists of two paths)
+   */
+  public static VectorPart vectorSheet(LaserProperty prop, int paths, double dpi, double widthPx, double heightPx)
+  {
+    VectorPart vp = new VectorPart(prop, dpi);
+    int parts = Math.max(1, paths / 2);
+    int columns = (int) Math.ceil(Math.sqrt(parts * widthPx / heightPx));
+    int rows = (parts + columns - 1) / columns;
+    double cellW = widthPx / columns;
+    double cellH = heightPx / rows;
+    // parts are emitted in a shuffled order so that optimizers have work to do
+    int[] order = new int[parts];
+    for (int i = 0; i < parts; i++)
+    {
+      order[i] = i;
+    }
+    java.util.Random random = new java.util.Random(42);
+    for (int i = parts - 1; i > 0; i--)
+    {
+      int j = random.nextInt(i + 1);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+    for (int part : order)
+    {
+      double x0 = (part % columns) * cellW;
+      double y0 = (part / columns) * cellH;
+      double x1 = x0 + cellW * 0.9;
+      double y1 = y0 + cellH * 0.9;
+      vp.moveto(x0, y0);
+      vp.lineto(x1, y0);
+      vp.lineto(x1, y1);
+      vp.lineto(x0, y1);
+      vp.lineto(x0, y0);
+      double cx = (x0 + x1) / 2;
+      double cy = (y0 + y1) / 2;
+      double r = Math.min(cellW, cellH) * 0.25;
+      vp.moveto(cx + r, cy);
+      for (int k = 1; k <= 16; k++)
+      {
+        double a = 2 * Math.PI * k / 16;
+        vp.lineto(cx + r * Math.cos(a), cy + r * Math.sin(a));
+      }
+    }
+    return vp;
+  }
+
+  /**
+   * Sets all numeric properties to their maximum value (like the driver tests)
+   */
+  public static void setPropertyToExampleValues(LaserProperty prop)
+  {
+    for (String key : prop.getPropertyKeys())
+    {
+      if (prop.getProperty(key) instanceof Boolean || prop.getProperty(key) instanceof String)
+      {
+        continue;
+      }
+      if (prop.getMaximumValue(key) != null && prop.getMinimumValue(key) != null)
+      {
+        prop.setProperty(key, prop.getMaximumValue(key));
+      }
+    }
+  }
+
+  /**
+   * The supported resolution of the given cutter that is closest to dpi.
+   */
+  public static double closestResolution(LaserCutter lc, double dpi)
+  {
+    List<Double> resolutions = lc.getResolutions();
+    double best = resolutions.get(0);
+    for (double r : resolutions)
+    {
+      if (Math.abs(r - dpi) < Math.abs(best - dpi))
+      {
+        best = r;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * A job with a vector sheet, a dithered photo and a 3d-engraved photo,
+   * each of the given size (in mm) but at most the bed size of the cutter.
+   */
+  public static LaserJob job(LaserCutter lc, double dpi, int paths, double photoMm) throws InterruptedException
+  {
+    double resolution = closestResolution(lc, dpi);
+    double w = Math.min(photoMm, lc.getBedWidth() / 2 - 1);
+    double h = Math.min(photoMm, lc.getBedHeight() / 2 - 1);
+    LaserJob job = new LaserJob("benchmark", "benchmark", "benchmark");
+    LaserProperty prop = lc.getLaserPropertyForVectorPart();
+    setPropertyToExampleValues(prop);
+    job.addPart(vectorSheet(prop, paths, resolution, Util.mm2px(lc.getBedWidth() - 1, resolution), Util.mm2px(lc.getBedHeight() - 1, resolution)));
+    GreyRaster image = photo(w, h, resolution);
+    prop = lc.getLaserPropertyForRasterPart();
+    setPropertyToExampleValues(prop);
+    job.addPart(new RasterPart(new FloydSteinberg().dither(image), prop, new Point(0, 0), resolution));
+    // like in AllDriversTest, the raster property is also used for the 3d part
+    job.addPart(new Raster3dPart(image, prop, new Point(Util.mm2px(w, resolution), Util.mm2px(h, resolution)), resolution));
+    return job;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.benchmarks;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Orders a nesting sheet with every OrderStrategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class VectorOptimizerBenchmark
+{
+
+  @Param({"FILE", "NEAREST", "INNER_FIRST", "SMALLEST_FIRST", "DELETE_DUPLICATE_PATHS", "NESTED_INNER_FIRST"})
+  public VectorOptimizer.OrderStrategy strategy;
+
+  @Param({"10000", "100000"})
+  public int paths;
+
+  private VectorPart sheet;
+  private VectorOptimizer optimizer;
+
+  @Setup
+  public void setup()
+  {
+    // 500 DPI, 1000x600 mm bed
+    sheet = SyntheticJobs.vectorSheet(new PowerSpeedFocusProperty(), paths, 500, 19685, 11811);
+    optimizer = VectorOptimizer.create(strategy);
+  }
+
+  @Benchmark
+  public VectorPart optimize()
+  {
+    return optimizer.optimize(sheet);
+  }
+}
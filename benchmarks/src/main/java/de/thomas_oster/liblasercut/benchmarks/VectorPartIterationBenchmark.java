@@ -0,0 +1,114 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.benchmarks;
+
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.VectorPart;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares iterating a large VectorPart through the copying
+ * getCommandList() with the allocation-free cursor and visitor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class VectorPartIterationBenchmark
+{
+
+  @Param({"5000000"})
+  public int commands;
+
+  private VectorPart part;
+
+  @Setup
+  public void setup()
+  {
+    part = SyntheticJobs.vectorPart(commands);
+  }
+
+  @Benchmark
+  public double commandList()
+  {
+    double sum = 0;
+    for (VectorCommand cmd : part.getCommandList())
+    {
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        sum += cmd.getX() + cmd.getY();
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double cursor()
+  {
+    double sum = 0;
+    for (VectorPart.Cursor cmd = part.cursor(); cmd.next();)
+    {
+      if (cmd.getType() != VectorCommand.CmdType.SETPROPERTY)
+      {
+        sum += cmd.getX() + cmd.getY();
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double visitor()
+  {
+    double[] sum = new double[1];
+    part.accept(new VectorPart.CommandVisitor<RuntimeException>()
+    {
+      @Override
+      public void setProperty(LaserProperty property)
+      {
+      }
+
+      @Override
+      public void moveto(double x, double y)
+      {
+        sum[0] += x + y;
+      }
+
+      @Override
+      public void lineto(double x, double y)
+      {
+        sum[0] += x + y;
+      }
+    });
+    return sum[0];
+  }
+}
@@ -40,7 +40,10 @@ public class BlackWhiteRaster extends TimeIntensiveOperation implements Greyscal
     ORDERED,
     GRID,
     HALFTONE,
-    BRIGHTENED_HALFTONE
+    BRIGHTENED_HALFTONE,
+    JARVIS_JUDICE_NINKE,
+    STUCKI,
+    ATKINSON
   }
 
   public static DitheringAlgorithm getDitheringAlgorithm(DitherAlgorithm alg)
@@ -61,6 +64,12 @@ public class BlackWhiteRaster extends TimeIntensiveOperation implements Greyscal
         return new Halftone();
       case BRIGHTENED_HALFTONE:
         return new BrightenedHalftone();
+      case JARVIS_JUDICE_NINKE:
+        return new JarvisJudiceNinke();
+      case STUCKI:
+        return new Stucki();
+      case ATKINSON:
+        return new Atkinson();
       default:
         throw new IllegalArgumentException("Desired Dithering Algorithm (" + alg + ") does not exist");
     }
@@ -244,4 +253,81 @@ public class BlackWhiteRaster extends TimeIntensiveOperation implements Greyscal
   {
     setBlack(x, y, grey < 127);
   }
+
+  @Override
+  public int[] readRow(int y, int[] row)
+  {
+    if (raster.getBitDepth() != 1)
+    {
+      return GreyscaleRaster.super.readRow(y, row);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width)
+    {
+      row = new int[width];
+    }
+    byte[] data = raster.hasArray() ? raster.getImageData() : raster.getRasterLine(y, null);
+    int offset = raster.hasArray() ? y * raster.getStride() : 0;
+    for (int x = 0; x < width; x++)
+    {
+      // 1 bit is black
+      row[x] = ((data[offset + (x >> 3)] >> (7 - (x & 7))) & 1) != 0 ? 0 : 255;
+    }
+    return row;
+  }
+
+  @Override
+  public byte[] readRow(int y, byte[] row)
+  {
+    if (raster.getBitDepth() != 1)
+    {
+      return GreyscaleRaster.super.readRow(y, row);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width)
+    {
+      row = new byte[width];
+    }
+    byte[] data = raster.hasArray() ? raster.getImageData() : raster.getRasterLine(y, null);
+    int offset = raster.hasArray() ? y * raster.getStride() : 0;
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = ((data[offset + (x >> 3)] >> (7 - (x & 7))) & 1) != 0 ? 0 : (byte) 255;
+    }
+    return row;
+  }
+
+  @Override
+  public void writeRow(int y, int[] row)
+  {
+    if (raster.getBitDepth() != 1)
+    {
+      GreyscaleRaster.super.writeRow(y, row);
+      return;
+    }
+    int width = getWidth();
+    byte[] data = raster.hasArray() ? raster.getImageData() : raster.getRasterLine(y, null);
+    int offset = raster.hasArray() ? y * raster.getStride() : 0;
+    int acc = 0;
+    for (int x = 0; x < width; x++)
+    {
+      acc = (acc << 1) | (row[x] < 127 ? 1 : 0);
+      if ((x & 7) == 7)
+      {
+        data[offset + (x >> 3)] = (byte) acc;
+        acc = 0;
+      }
+    }
+    int used = width & 7;
+    if (used != 0)
+    {
+      // keep the padding bits of the last byte
+      int i = offset + (width >> 3);
+      data[i] = (byte) ((data[i] & ((1 << (8 - used)) - 1)) | (acc << (8 - used)));
+    }
+    if (!raster.hasArray())
+    {
+      raster.setRasterLine(y, data);
+    }
+  }
 }
\ No newline at end of file
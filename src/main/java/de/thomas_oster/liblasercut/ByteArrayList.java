@@ -22,7 +22,6 @@
 package de.thomas_oster.liblasercut;
 
 import java.util.AbstractList;
-import java.util.Collections;
 
 /**
  * A specialized class to support the usage of List<Byte> within this library.
@@ -65,6 +64,13 @@ public class ByteArrayList extends AbstractList<Byte> {
     return data[start + index];
   }
 
+  /**
+   * Same as get(), without boxing
+   */
+  public byte getByte(int index) {
+    return data[start + index];
+  }
+
   @Override
   public int size() {
     return size;
@@ -177,22 +183,7 @@ public class ByteArrayList extends AbstractList<Byte> {
    * The bit order is as defined in leftShiftBits.
    */
   public void reverseBits() {
-    // first, flip the bit order in-place
-      for (int i = 0; i < size(); i++)
-      {
-        byte b = get(i);
-        int bFlipped = 0;
-        for (int j = 0; j < 8; j++)
-        {
-          if ((b & (1 << j)) != 0)
-          {
-            bFlipped |= 1 << (7 - j);
-          }
-        }
-        set(i, (byte) bFlipped);
-      }
-      // then, flip the list order
-      Collections.reverse(this);
+    RasterElement.reverseBits(data, start, start + size);
   }
   /**
    * invert all bits.
@@ -60,6 +60,28 @@ public class GreyRaster implements GreyscaleRaster, RasterElement.Provider
     this.raster.setPixel(x,y, grey);
   }
 
+  @Override
+  public int[] readRow(int y, int[] row)
+  {
+    return this.raster.readRow(y, row);
+  }
+
+  @Override
+  public byte[] readRow(int y, byte[] row)
+  {
+    if (this.raster.getBitDepth() == 8 && this.raster.getSamplesPerPixel() == 1)
+    {
+      return this.raster.getRasterLine(y, row);
+    }
+    return GreyscaleRaster.super.readRow(y, row);
+  }
+
+  @Override
+  public void writeRow(int y, int[] row)
+  {
+    this.raster.writeRow(y, row);
+  }
+
   @Override
   public int getHeight()
   {
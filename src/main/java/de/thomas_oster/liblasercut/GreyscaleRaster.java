@@ -47,4 +47,56 @@ public interface GreyscaleRaster
   void setGreyScale(int x, int y, int grey);
 
   int getHeight();
+
+  /**
+   * Reads the greyscale values of a whole row, see getGreyScale().
+   * Implementations should override this if they can do it faster than
+   * pixel by pixel.
+   *
+   * @param row array to reuse, may be null
+   * @return row, or a new array if row was null or shorter than getWidth()
+   */
+  default int[] readRow(int y, int[] row)
+  {
+    int width = getWidth();
+    if (row == null || row.length < width)
+    {
+      row = new int[width];
+    }
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = getGreyScale(x, y);
+    }
+    return row;
+  }
+
+  /**
+   * Same as readRow(int, int[]), but stores the values 0..255 as (unsigned) bytes.
+   */
+  default byte[] readRow(int y, byte[] row)
+  {
+    int width = getWidth();
+    if (row == null || row.length < width)
+    {
+      row = new byte[width];
+    }
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = (byte) getGreyScale(x, y);
+    }
+    return row;
+  }
+
+  /**
+   * Sets the greyscale values of a whole row, see setGreyScale().
+   *
+   * @param row at least getWidth() values
+   */
+  default void writeRow(int y, int[] row)
+  {
+    for (int x = 0, width = getWidth(); x < width; x++)
+    {
+      setGreyScale(x, y, row[x]);
+    }
+  }
 }
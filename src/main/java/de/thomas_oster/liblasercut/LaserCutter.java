@@ -24,6 +24,7 @@ package de.thomas_oster.liblasercut;
 
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.PipelinedOutputStream;
 import java.io.OutputStream;
 
 import java.util.LinkedList;
@@ -83,6 +84,18 @@ public abstract class LaserCutter implements Cloneable, Customizable {
         throw new UnsupportedOperationException("Your driver does not implement saveJob(LaserJob job)");
     }
 
+    /**
+     * Wraps the connection to the cutter for streaming job encoding:
+     * the parts are encoded straight into the returned stream, which hands
+     * them to a writer thread through a bounded queue, so transmission
+     * starts with the first part and memory use does not grow with the job.
+     * Closing the returned stream flushes it, but leaves out open.
+     * @param out the stream to the cutter
+     */
+    protected OutputStream openStreamingSink(OutputStream out) {
+        return new PipelinedOutputStream(out);
+    }
+
     /**
      * If you lasercutter supports autofocus, override this method,
      * to let programs like VisiCut know, that they don't need to focus.
@@ -257,7 +270,7 @@ public abstract class LaserCutter implements Cloneable, Customizable {
       {
         double speed = vectorLineSpeed;
         VectorPart vp = (VectorPart) jp;
-        for (VectorCommand cmd : vp.getCommandList())
+        for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
         {
           switch (cmd.getType())
           {
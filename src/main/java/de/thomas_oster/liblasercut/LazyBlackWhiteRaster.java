@@ -0,0 +1,245 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import de.thomas_oster.liblasercut.dithering.DitheringAlgorithm;
+import de.thomas_oster.liblasercut.dithering.DitheringAlgorithm.RowDitherer;
+import java.util.Arrays;
+
+/**
+ * A black and white image which is dithered row by row when the rows are
+ * requested, instead of all at once like BlackWhiteRaster. Only the most
+ * recently used rows are kept, so a RasterPart can be encoded by a driver
+ * while the rest of the image is not dithered yet, and the full bitmap is
+ * never held in memory.
+ *
+ * Rows of algorithms deciding every pixel on its own are dithered in any
+ * order. Error diffusion has to run from the top, so a snapshot of the
+ * ditherer is kept every cacheRows rows: going back to a row which is not
+ * cached any more (e.g. engraving bottom-up) re-dithers from the snapshot
+ * before it instead of from the first row.
+ *
+ * The source must not be changed while this raster is in use.
+ */
+public class LazyBlackWhiteRaster implements GreyscaleRaster, RasterElement.Provider
+{
+
+  public static final int DEFAULT_CACHE_ROWS = 256;
+
+  private final GreyscaleRaster src;
+  private final DitheringAlgorithm algorithm;
+  private final int width;
+  private final int height;
+  private final int stride;
+  private final int cacheRows;
+  /**
+   * row y is cached in cache[y % cacheRows] if cachedY[y % cacheRows] == y
+   */
+  private final byte[][] cache;
+  private final int[] cachedY;
+  /**
+   * for sequential ditherers: state before the rows k * cacheRows, or null
+   */
+  private final RowDitherer[] snapshots;
+  private RowDitherer ditherer;
+  /**
+   * next row the (sequential) ditherer produces
+   */
+  private int next = 0;
+  private volatile RasterElement materialized = null;
+
+  public LazyBlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm algorithm) throws InterruptedException
+  {
+    this(src, algorithm, DEFAULT_CACHE_ROWS);
+  }
+
+  /**
+   * @param cacheRows number of dithered rows kept in memory
+   * @throws InterruptedException if interrupted while preparing the algorithm,
+   * e.g. computing the average brightness
+   */
+  public LazyBlackWhiteRaster(GreyscaleRaster src, DitheringAlgorithm algorithm, int cacheRows) throws InterruptedException
+  {
+    if (cacheRows < 1)
+    {
+      throw new IllegalArgumentException("cacheRows must be at least 1");
+    }
+    this.src = src;
+    this.algorithm = algorithm;
+    this.width = src.getWidth();
+    this.height = src.getHeight();
+    this.stride = (width + 7) / 8;
+    this.cacheRows = Math.min(cacheRows, Math.max(1, height));
+    this.cache = new byte[this.cacheRows][stride];
+    this.cachedY = new int[this.cacheRows];
+    Arrays.fill(cachedY, -1);
+    this.ditherer = algorithm.rowDitherer(src);
+    this.snapshots = ditherer.isSequential() ? new RowDitherer[(height + this.cacheRows - 1) / this.cacheRows] : null;
+  }
+
+  public DitheringAlgorithm getDitheringAlgorithm()
+  {
+    return algorithm;
+  }
+
+  /**
+   * @return the cached row y, dithering it first if needed
+   */
+  private byte[] row(int y)
+  {
+    if (y < 0 || y >= height)
+    {
+      throw new IndexOutOfBoundsException("y=" + y + " is outside of the image (height " + height + ")");
+    }
+    int slot = y % cacheRows;
+    if (cachedY[slot] == y)
+    {
+      return cache[slot];
+    }
+    if (snapshots == null)
+    {
+      ditherer.ditherRow(y, cache[slot]);
+      cachedY[slot] = y;
+      return cache[slot];
+    }
+    if (y < next)
+    {
+      // resume from the last snapshot before y, it exists as all rows up to next were dithered
+      int k = y / cacheRows;
+      ditherer = snapshots[k].copy();
+      next = k * cacheRows;
+    }
+    for (; next <= y; next++)
+    {
+      int s = next % cacheRows;
+      if (s == 0 && snapshots[next / cacheRows] == null)
+      {
+        snapshots[next / cacheRows] = ditherer.copy();
+      }
+      ditherer.ditherRow(next, cache[s]);
+      cachedY[s] = next;
+    }
+    return cache[slot];
+  }
+
+  /**
+   * @return row y, 1 bit per pixel (1 = black, most significant bit first),
+   * like BlackWhiteRaster.getRasterLine()
+   */
+  public synchronized byte[] getRasterLine(int y, byte[] bytes)
+  {
+    if (bytes == null || bytes.length < stride)
+    {
+      bytes = new byte[stride];
+    }
+    System.arraycopy(row(y), 0, bytes, 0, stride);
+    return bytes;
+  }
+
+  public synchronized boolean isBlack(int x, int y)
+  {
+    return ((row(y)[x >> 3] >> (7 - (x & 7))) & 1) != 0;
+  }
+
+  @Override
+  public int getGreyScale(int x, int y)
+  {
+    return isBlack(x, y) ? 0 : 255;
+  }
+
+  /**
+   * Not supported, the image is computed from the source.
+   */
+  @Override
+  public void setGreyScale(int x, int y, int grey)
+  {
+    throw new UnsupportedOperationException("LazyBlackWhiteRaster is read-only");
+  }
+
+  @Override
+  public synchronized int[] readRow(int y, int[] row)
+  {
+    if (row == null || row.length < width)
+    {
+      row = new int[width];
+    }
+    byte[] data = row(y);
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = ((data[x >> 3] >> (7 - (x & 7))) & 1) != 0 ? 0 : 255;
+    }
+    return row;
+  }
+
+  @Override
+  public synchronized byte[] readRow(int y, byte[] row)
+  {
+    if (row == null || row.length < width)
+    {
+      row = new byte[width];
+    }
+    byte[] data = row(y);
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = ((data[x >> 3] >> (7 - (x & 7))) & 1) != 0 ? 0 : (byte) 255;
+    }
+    return row;
+  }
+
+  /**
+   * The whole dithered image, for code which needs random access to all
+   * pixels (e.g. RasterBuilder). It is computed on the first call and kept,
+   * which gives up the memory advantage of this class.
+   */
+  @Override
+  public RasterElement getRaster()
+  {
+    RasterElement r = materialized;
+    if (r == null)
+    {
+      synchronized (this)
+      {
+        r = materialized;
+        if (r == null)
+        {
+          r = new RasterElement(width, height, 1, 1);
+          byte[] line = new byte[stride];
+          for (int y = 0; y < height; y++)
+          {
+            r.setRasterLine(y, getRasterLine(y, line));
+          }
+          materialized = r;
+        }
+      }
+    }
+    return r;
+  }
+
+  @Override
+  public int getWidth()
+  {
+    return width;
+  }
+
+  @Override
+  public int getHeight()
+  {
+    return height;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Image data of a RasterElement in a memory-mapped temporary file, for
+ * rasters too large for the heap (or for a single byte array).
+ *
+ * The file is split into mappings of at most 1 GB, each holding whole rows,
+ * so that every row is contiguous. The file is deleted when it is closed
+ * right after mapping; the mappings stay valid until they are garbage
+ * collected.
+ */
+final class MappedRasterData
+{
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  private final int stride;
+  private final int rowsPerSegment;
+  private final ByteBuffer[] segments;
+
+  MappedRasterData(int stride, int height)
+  {
+    this.stride = stride;
+    this.rowsPerSegment = (int) Math.max(1, Math.min(height, SEGMENT_SIZE / Math.max(1, stride)));
+    this.segments = new ByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+    try
+    {
+      Path file = Files.createTempFile("liblasercut-raster", ".bin");
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE))
+      {
+        for (int i = 0; i < segments.length; i++)
+        {
+          int rows = Math.min(rowsPerSegment, height - i * rowsPerSegment);
+          // mapping beyond the end grows the file, the new part reads as 0
+          segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * rowsPerSegment * stride, (long) rows * stride);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException("Could not map raster data", e);
+    }
+  }
+
+  private ByteBuffer segment(int y)
+  {
+    return segments[y / rowsPerSegment];
+  }
+
+  private int offset(int y, int i)
+  {
+    return (y % rowsPerSegment) * stride + i;
+  }
+
+  byte get(int y, int i)
+  {
+    return segment(y).get(offset(y, i));
+  }
+
+  void put(int y, int i, byte b)
+  {
+    segment(y).put(offset(y, i), b);
+  }
+
+  /**
+   * @return bytes i .. i+7 of row y, the first one in the highest bits
+   */
+  long getLong(int y, int i)
+  {
+    return segment(y).getLong(offset(y, i));
+  }
+
+  void get(int y, int i, byte[] dst, int off, int len)
+  {
+    segment(y).duplicate().position(offset(y, i)).get(dst, off, len);
+  }
+
+  void put(int y, int i, byte[] src, int off, int len)
+  {
+    segment(y).duplicate().position(offset(y, i)).put(src, off, len);
+  }
+}
@@ -61,10 +61,12 @@ public class Raster3dPart extends RasterizableJobPart
     } else {
       result.clear();
     }
-    for (int x = 0; x < image.getWidth(); x++)
+    int width = image.getWidth();
+    byte[] row = image.readRow(line, (byte[]) null);
+    for (int x = 0; x < width; x++)
     {
       //TOTEST: Black white (byte converssion)
-      result.add((byte) image.getGreyScale(x, line));
+      result.add(row[x]);
     }
   }
 
@@ -97,10 +99,12 @@ public class Raster3dPart extends RasterizableJobPart
     } else {
 	result.clear();
     }
-    for (int x = 0; x < image.getWidth(); x++)
+    int width = image.getWidth();
+    byte[] row = image.readRow(line, (byte[]) null);
+    for (int x = 0; x < width; x++)
     {
       //TOTEST: Black white (byte converssion)
-      result.add((byte) (255 - image.getGreyScale(x, line)));
+      result.add((byte) (255 - (row[x] & 0xFF)));
     }
   }
 
@@ -574,12 +574,9 @@ public class RasterBuilder implements Iterable<VectorCommand>, Iterator<VectorCo
    */
   protected int leftMostNotEqual(int y, int v)
   {
-    for (int x = 0; x < image.getWidth(); x++)
-    {
-      int px = image.getPixel(x,y);
-      if (px != v) return x;
-    }
-    return -1;
+    if (image.getPixel(0, y) != v) return 0;
+    int x = image.runEnd(0, y);
+    return x < image.getWidth() ? x : -1;
   }
 
     /**
@@ -609,12 +606,10 @@ public class RasterBuilder implements Iterable<VectorCommand>, Iterator<VectorCo
    */
   protected int rightMostNotEqual(int y, int v)
   {
-    for (int x = image.getWidth()-1; x >= 0; x--)
-    {
-      int px = image.getPixel(x,y);
-      if (px != v) return x;
-    }
-    return image.getWidth();
+    int last = image.getWidth()-1;
+    if (image.getPixel(last, y) != v) return last;
+    int x = image.runStart(last, y);
+    return x > 0 ? x-1 : image.getWidth();
   }
 
   /**
@@ -651,13 +646,8 @@ public class RasterBuilder implements Iterable<VectorCommand>, Iterator<VectorCo
     if (image.getWidth() < x) return image.getWidth();
     
     
-    int v = image.getPixel(x,y);
-    for (int ix = x; ix >= 0; ix--)
-    {
-      int px = image.getPixel(ix,y);
-      if (px != v) return ix;
-    }
-    return 0;
+    int start = image.runStart(x, y);
+    return start > 0 ? start-1 : 0;
   }
 
     /**
@@ -702,13 +692,8 @@ public class RasterBuilder implements Iterable<VectorCommand>, Iterator<VectorCo
     if (x == image.getWidth()-1) return image.getWidth();
     if (image.getWidth() <= x) return def;
     
-    int v = image.getPixel(x,y);
-    for (int ix = x; ix < image.getWidth(); ix++)
-    {
-      int px = image.getPixel(ix,y);
-      if (px != v) return ix;
-    }
-    return image.getWidth()-1;
+    int end = image.runEnd(x, y);
+    return end < image.getWidth() ? end : image.getWidth()-1;
   }
   
   
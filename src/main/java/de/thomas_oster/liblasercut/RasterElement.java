@@ -19,6 +19,9 @@
 
 package de.thomas_oster.liblasercut;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 /**
@@ -28,7 +31,28 @@ import java.util.Arrays;
 public class RasterElement
 {
 
+  /**
+   * reads 8 bytes of imageData at once, first byte in the highest bits
+   */
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  /**
+   * Rasters with more bytes are stored in a memory-mapped temporary file
+   * instead of the heap. Can be set with the system property
+   * liblasercut.raster.mappedThreshold (in bytes).
+   */
+  private static volatile long mappedThreshold = Long.getLong("liblasercut.raster.mappedThreshold", 512L << 20);
+
+  /**
+   * largest byte array the VM reliably allocates
+   */
+  private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * the image data, or null if it is stored in mapped
+   */
   private final byte[] imageData;
+  private final MappedRasterData mapped;
   private final int stride;
   private final int width;
   private final int height;
@@ -52,28 +76,102 @@ public class RasterElement
     this.bitDepth = bitDepth;
     this.samplesPerPixel = samplesPerPixel;
     this.stride = (int)Math.ceil(bitDepth * samplesPerPixel * ((float)width) / 8.0);
-    this.imageData  = new byte[stride * height];
+    long size = (long) stride * height;
+    if (size > Math.min(mappedThreshold, MAX_ARRAY_SIZE)) {
+      this.imageData = null;
+      this.mapped = new MappedRasterData(stride, height);
+    } else {
+      this.imageData = new byte[(int) size];
+      this.mapped = null;
+    }
+  }
+
+  /**
+   * Sets the size in bytes above which new rasters are stored in a
+   * memory-mapped temporary file instead of the heap.
+   */
+  public static void setMappedThreshold(long bytes)
+  {
+    mappedThreshold = bytes;
+  }
+
+  public static long getMappedThreshold()
+  {
+    return mappedThreshold;
+  }
+
+  /**
+   * @return true if the image data is a byte array, see getImageData()
+   */
+  public boolean hasArray()
+  {
+    return imageData != null;
+  }
+
+  /**
+   * @return byte i of row y, unsigned
+   */
+  private int load(int y, int i)
+  {
+    return (imageData != null ? imageData[y * stride + i] : mapped.get(y, i)) & 0xFF;
+  }
+
+  /**
+   * @return bytes i .. i+7 of row y, the first one in the highest bits
+   */
+  private long loadLong(int y, int i)
+  {
+    return imageData != null ? (long) LONGS.get(imageData, y * stride + i) : mapped.getLong(y, i);
+  }
+
+  private void store(int y, int i, int b)
+  {
+    if (imageData != null) {
+      imageData[y * stride + i] = (byte) b;
+    } else {
+      mapped.put(y, i, (byte) b);
+    }
   }
-  
   
   public int getPixel(int x, int y) {
+    if (samplesPerPixel == 1) {
+      if (bitDepth == 1) {
+        return (load(y, x >> 3) >> (7 - (x & 7))) & 1;
+      }
+      if (bitDepth == 8) {
+        return load(y, x);
+      }
+    }
     return getPixel(x,y,0,false);
   }
   public int setPixel(int x, int y, int v) {
+    if (samplesPerPixel == 1) {
+      if (bitDepth == 1) {
+        int i = x >> 3;
+        int shift = 7 - (x & 7);
+        int b = load(y, i);
+        store(y, i, (b & ~(1 << shift)) | ((v & 1) << shift));
+        return (b >> shift) & 1;
+      }
+      if (bitDepth == 8) {
+        int old = load(y, x);
+        store(y, x, v);
+        return old;
+      }
+    }
     return getPixel(x,y,v,true);
   }
   
   private int getPixel(int x, int y, int replace, boolean set) {
-    int offset = stride * y;
     int pixelLengthInBits = samplesPerPixel * bitDepth;
-    int startPosInBits = (offset * 8) + x * pixelLengthInBits;
+    int startPosInBits = x * pixelLengthInBits;
     int endPosInBits = startPosInBits + pixelLengthInBits - 1;
     int startPosInBytes = startPosInBits / 8;
     int endPosInBytes = endPosInBits / 8;
     long value = 0;
     for (int i = startPosInBytes; i <= endPosInBytes; i++) {
       value <<= 8;
-      value |= (imageData[i] & 0xFF);
+      value |= load(y, i);
     }
     int unusedBitsRightOfSample = (8 - (endPosInBits + 1) % 8) % 8;
     long maskSampleBits = (1L << pixelLengthInBits) - 1;
@@ -83,7 +181,7 @@ public class RasterElement
     value &= ~(maskSampleBits << unusedBitsRightOfSample);
     value |= (replace & maskSampleBits) << unusedBitsRightOfSample;
     for (int i = endPosInBytes; i >= startPosInBytes; i--) {
-      imageData[i] = (byte)(value & 0xff);
+      store(y, i, (int)(value & 0xff));
       value >>= 8;
     }
     return (int)pixel;
@@ -91,21 +189,84 @@ public class RasterElement
  
  public byte[] getRasterLine(int y, byte[] bytes) {
     if ((bytes == null) || (bytes.length < stride)) {
-        return Arrays.copyOfRange(imageData, y * stride, (y+1) * stride);
+        bytes = new byte[stride];
+    }
+    if (imageData != null) {
+      System.arraycopy(imageData, y * stride, bytes, 0, stride);
+    } else {
+      mapped.get(y, 0, bytes, 0, stride);
     }
-    System.arraycopy(imageData, y * stride, bytes, 0, stride);
     return bytes;
  }
+
+ /**
+  * Replaces a row with the first stride bytes of bytes, the counterpart
+  * of getRasterLine().
+  */
+ public void setRasterLine(int y, byte[] bytes) {
+    if (imageData != null) {
+      System.arraycopy(bytes, 0, imageData, y * stride, stride);
+    } else {
+      mapped.put(y, 0, bytes, 0, stride);
+    }
+ }
  
+ /**
+  * Reads the pixel values of one row, see getPixel().
+  *
+  * @param row array to reuse, may be null
+  * @return row, or a new array if row was null or shorter than the width
+  */
+ public int[] readRow(int y, int[] row) {
+    if (row == null || row.length < width) {
+      row = new int[width];
+    }
+    if (bitDepth == 8 && samplesPerPixel == 1 && imageData != null) {
+      for (int x = 0, i = y * stride; x < width; x++, i++) {
+        row[x] = imageData[i] & 0xFF;
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        row[x] = getPixel(x, y);
+      }
+    }
+    return row;
+ }
+
+ /**
+  * Sets the pixel values of one row, see setPixel().
+  *
+  * @param row at least width values
+  */
+ public void writeRow(int y, int[] row) {
+    if (bitDepth == 8 && samplesPerPixel == 1 && imageData != null) {
+      for (int x = 0, i = y * stride; x < width; x++, i++) {
+        imageData[i] = (byte) row[x];
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        setPixel(x, y, row[x]);
+      }
+    }
+ }
+
  public byte getByte(int x, int line) {
-    return imageData[(line * stride) + x];
+    return (byte) load(line, x);
   }
  
   public boolean isLineBlank(int y)
   {
-    for (int i = y * stride, ie = (y + 1) * stride; i < ie; i++)
+    int i = 0;
+    for (; i + 8 <= stride; i += 8)
+    {
+      if (loadLong(y, i) != 0)
+      {
+        return false;
+      }
+    }
+    for (; i < stride; i++)
     {
-      if (imageData[i] != 0)
+      if (load(y, i) != 0)
       {
         return false;
       }
@@ -113,7 +274,412 @@ public class RasterElement
     return true;
   }
 
+  /**
+   * Finds the first pixel in a row with a value other than 0.
+   * Scans 8 bytes at a time.
+   *
+   * @return x coordinate, or -1 if all pixels are 0
+   */
+  public int firstNonZeroPixel(int y)
+  {
+    int pixelBits = bitDepth * samplesPerPixel;
+    int i = 0;
+    int bit = -1;
+    for (; i + 8 <= stride; i += 8)
+    {
+      long word = loadLong(y, i);
+      if (word != 0)
+      {
+        bit = i * 8 + Long.numberOfLeadingZeros(word);
+        break;
+      }
+    }
+    for (; bit < 0 && i < stride; i++)
+    {
+      int b = load(y, i);
+      if (b != 0)
+      {
+        bit = i * 8 + Integer.numberOfLeadingZeros(b) - 24;
+      }
+    }
+    // set padding bits at the end of the row do not count
+    return bit < 0 || bit >= width * pixelBits ? -1 : bit / pixelBits;
+  }
+
+  /**
+   * Finds the last pixel in a row with a value other than 0.
+   * Scans 8 bytes at a time.
+   *
+   * @return x coordinate, or -1 if all pixels are 0
+   */
+  public int lastNonZeroPixel(int y)
+  {
+    int pixelBits = bitDepth * samplesPerPixel;
+    int rowBits = width * pixelBits;
+    int fullBytes = rowBits / 8;
+    int remainingBits = rowBits % 8;
+    if (remainingBits != 0)
+    {
+      // ignore the padding bits of the last byte
+      int last = load(y, fullBytes) & (0xFF << (8 - remainingBits)) & 0xFF;
+      if (last != 0)
+      {
+        return (fullBytes * 8 + 7 - Integer.numberOfTrailingZeros(last)) / pixelBits;
+      }
+    }
+    int i = fullBytes;
+    for (; i - 8 >= 0; i -= 8)
+    {
+      long word = loadLong(y, i - 8);
+      if (word != 0)
+      {
+        return ((i - 8) * 8 + 63 - Long.numberOfTrailingZeros(word)) / pixelBits;
+      }
+    }
+    for (i--; i >= 0; i--)
+    {
+      int b = load(y, i);
+      if (b != 0)
+      {
+        return (i * 8 + 7 - Integer.numberOfTrailingZeros(b)) / pixelBits;
+      }
+    }
+    return -1;
+  }
   
+  /**
+   * Finds the end of the run of equal pixels containing x.
+   * 1 bit rows are scanned 64 pixels at a time.
+   *
+   * @return the first x' &gt; x with getPixel(x', y) != getPixel(x, y),
+   * or width if the run reaches the end of the row
+   */
+  public int runEnd(int x, int y)
+  {
+    if (samplesPerPixel == 1 && bitDepth == 1)
+    {
+      // flip the row so that the run consists of 0 bits
+      long flip = getPixel(x, y) == 0 ? 0 : -1L;
+      int i = (x + 1) >> 3;
+      int skip = (x + 1) & 7;
+      for (; i + 8 <= stride; i += 8, skip = 0)
+      {
+        long word = (loadLong(y, i) ^ flip) & (-1L >>> skip);
+        if (word != 0)
+        {
+          // padding bits differ from a run of 1s
+          return Math.min(width, i * 8 + Long.numberOfLeadingZeros(word));
+        }
+      }
+      for (; i < stride; i++, skip = 0)
+      {
+        int b = (load(y, i) ^ (int) flip) & (0xFF >>> skip);
+        if (b != 0)
+        {
+          return Math.min(width, i * 8 + Integer.numberOfLeadingZeros(b) - 24);
+        }
+      }
+      return width;
+    }
+    if (samplesPerPixel == 1 && bitDepth == 8 && imageData != null)
+    {
+      int start = y * stride;
+      byte v = imageData[start + x];
+      for (int i = start + x + 1; i < start + width; i++)
+      {
+        if (imageData[i] != v)
+        {
+          return i - start;
+        }
+      }
+      return width;
+    }
+    int v = getPixel(x, y);
+    for (int ix = x + 1; ix < width; ix++)
+    {
+      if (getPixel(ix, y) != v)
+      {
+        return ix;
+      }
+    }
+    return width;
+  }
+
+  /**
+   * Finds the start of the run of equal pixels containing x.
+   * 1 bit rows are scanned 64 pixels at a time.
+   *
+   * @return the smallest x' &lt;= x with all pixels in [x', x] equal
+   */
+  public int runStart(int x, int y)
+  {
+    if (samplesPerPixel == 1 && bitDepth == 1)
+    {
+      long flip = getPixel(x, y) == 0 ? 0 : -1L;
+      if (x == 0)
+      {
+        return 0;
+      }
+      // exclusive end of the bytes holding pixels 0 .. x-1
+      int i = ((x - 1) >> 3) + 1;
+      int keep = 7 - ((x - 1) & 7);
+      for (; i - 8 >= 0; i -= 8, keep = 0)
+      {
+        long word = (loadLong(y, i - 8) ^ flip) & (-1L << keep);
+        if (word != 0)
+        {
+          return (i - 8) * 8 + 64 - Long.numberOfTrailingZeros(word);
+        }
+      }
+      for (i--; i >= 0; i--, keep = 0)
+      {
+        int b = (load(y, i) ^ (int) flip) & (0xFF << keep) & 0xFF;
+        if (b != 0)
+        {
+          return i * 8 + 8 - Integer.numberOfTrailingZeros(b);
+        }
+      }
+      return 0;
+    }
+    if (samplesPerPixel == 1 && bitDepth == 8 && imageData != null)
+    {
+      int start = y * stride;
+      byte v = imageData[start + x];
+      for (int i = start + x - 1; i >= start; i--)
+      {
+        if (imageData[i] != v)
+        {
+          return i - start + 1;
+        }
+      }
+      return 0;
+    }
+    int v = getPixel(x, y);
+    for (int ix = x - 1; ix >= 0; ix--)
+    {
+      if (getPixel(ix, y) != v)
+      {
+        return ix + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Sets the pixels fromX (inclusive) to toX (exclusive) of a row to value.
+   * 1 bit rows are filled byte-wise with masked edges.
+   */
+  public void fill(int y, int fromX, int toX, int value)
+  {
+    if (fromX >= toX)
+    {
+      return;
+    }
+    if (samplesPerPixel == 1 && bitDepth == 1)
+    {
+      int first = fromX >> 3;
+      int last = (toX - 1) >> 3;
+      int headMask = 0xFF >>> (fromX & 7);
+      int tailMask = (0xFF << (7 - ((toX - 1) & 7))) & 0xFF;
+      int bits = (value & 1) == 0 ? 0 : 0xFF;
+      if (first == last)
+      {
+        putMasked(y, first, headMask & tailMask, bits);
+      }
+      else
+      {
+        putMasked(y, first, headMask, bits);
+        fillBytes(y, first + 1, last, bits);
+        putMasked(y, last, tailMask, bits);
+      }
+    }
+    else if (samplesPerPixel == 1 && bitDepth == 8)
+    {
+      fillBytes(y, fromX, toX, value);
+    }
+    else
+    {
+      for (int x = fromX; x < toX; x++)
+      {
+        setPixel(x, y, value);
+      }
+    }
+  }
+
+  private void fillBytes(int y, int from, int to, int b)
+  {
+    if (imageData != null)
+    {
+      Arrays.fill(imageData, y * stride + from, y * stride + to, (byte) b);
+    }
+    else
+    {
+      for (int i = from; i < to; i++)
+      {
+        mapped.put(y, i, (byte) b);
+      }
+    }
+  }
+
+  /**
+   * Copies the pixels fromX (inclusive) to toX (exclusive) of row y into
+   * row dstY of dst, starting at dstX. Both rasters need the same pixel
+   * format. Overlapping ranges within the same row are handled.
+   * 1 bit rows are copied 8 pixels at a time, regardless of alignment.
+   */
+  public void copyPixels(int y, int fromX, int toX, RasterElement dst, int dstY, int dstX)
+  {
+    int pixelBits = bitDepth * samplesPerPixel;
+    if (pixelBits != dst.bitDepth * dst.samplesPerPixel)
+    {
+      throw new IllegalArgumentException("Pixel formats differ: " + pixelBits + " and " + dst.bitDepth * dst.samplesPerPixel + " bits");
+    }
+    if (fromX >= toX)
+    {
+      return;
+    }
+    if (pixelBits % 8 == 0)
+    {
+      int bytes = pixelBits / 8;
+      int length = (toX - fromX) * bytes;
+      if (imageData != null && dst.imageData != null)
+      {
+        System.arraycopy(imageData, y * stride + fromX * bytes, dst.imageData, dstY * dst.stride + dstX * bytes, length);
+      }
+      else
+      {
+        byte[] buffer = getRasterLine(y, null);
+        if (dst.imageData != null)
+        {
+          System.arraycopy(buffer, fromX * bytes, dst.imageData, dstY * dst.stride + dstX * bytes, length);
+        }
+        else
+        {
+          dst.mapped.put(dstY, dstX * bytes, buffer, fromX * bytes, length);
+        }
+      }
+      return;
+    }
+    int srcBit = fromX * pixelBits;
+    int dstBit = dstX * pixelBits;
+    int n = (toX - fromX) * pixelBits;
+    if (dst == this && dstY == y && dstBit > srcBit)
+    {
+      // copy backwards so that no source bits are overwritten before they are read
+      for (int k = (n - 1) / 8 * 8; k >= 0; k -= 8)
+      {
+        dst.putBits(dstY, dstBit + k, Math.min(8, n - k), getBits(y, srcBit + k));
+      }
+    }
+    else
+    {
+      for (int k = 0; k < n; k += 8)
+      {
+        dst.putBits(dstY, dstBit + k, Math.min(8, n - k), getBits(y, srcBit + k));
+      }
+    }
+  }
+
+  /**
+   * Returns a row with the pixel order mirrored, so that the first pixel
+   * holds the value of pixel width-1. Padding stays at the end of the row.
+   *
+   * @param bytes array to reuse, may be null
+   * @return bytes, or a new array if bytes was null or shorter than the stride
+   */
+  public byte[] getReversedRasterLine(int y, byte[] bytes)
+  {
+    bytes = getRasterLine(y, bytes);
+    int pixelBits = bitDepth * samplesPerPixel;
+    if (pixelBits == 1)
+    {
+      reverseBits(bytes, 0, stride);
+      // the padding of the last byte has moved to the front
+      int pad = stride * 8 - width;
+      if (pad != 0)
+      {
+        for (int i = 0; i < stride; i++)
+        {
+          int next = i + 1 < stride ? bytes[i + 1] & 0xFF : 0;
+          bytes[i] = (byte) ((bytes[i] << pad) | (next >>> (8 - pad)));
+        }
+      }
+    }
+    else if (pixelBits % 8 == 0)
+    {
+      int n = pixelBits / 8;
+      for (int l = 0, r = (width - 1) * n; l < r; l += n, r -= n)
+      {
+        for (int k = 0; k < n; k++)
+        {
+          byte b = bytes[l + k];
+          bytes[l + k] = bytes[r + k];
+          bytes[r + k] = b;
+        }
+      }
+    }
+    else
+    {
+      RasterElement line = new RasterElement(width, 1, bitDepth, samplesPerPixel);
+      for (int x = 0; x < width; x++)
+      {
+        line.setPixel(width - 1 - x, 0, getPixel(x, y));
+      }
+      line.getRasterLine(0, bytes);
+    }
+    return bytes;
+  }
+
+  /**
+   * Reverses the bit string bytes[from .. to-1] in place, so that the highest
+   * bit of bytes[from] becomes the lowest bit of bytes[to-1].
+   */
+  public static void reverseBits(byte[] bytes, int from, int to)
+  {
+    for (int l = from, r = to - 1; l <= r; l++, r--)
+    {
+      byte b = bytes[l];
+      bytes[l] = (byte) (Integer.reverse(bytes[r]) >>> 24);
+      bytes[r] = (byte) (Integer.reverse(b) >>> 24);
+    }
+  }
+
+  /**
+   * @return the 8 bits of row y starting at bit position pos, highest bit first
+   */
+  private int getBits(int y, int pos)
+  {
+    int i = pos >> 3;
+    int s = pos & 7;
+    int v = load(y, i) << 8;
+    if (s != 0 && i + 1 < stride)
+    {
+      v |= load(y, i + 1);
+    }
+    return (v >> (8 - s)) & 0xFF;
+  }
+
+  /**
+   * Writes the highest n bits of the 8 bit value bits at bit position pos of row y.
+   */
+  private void putBits(int y, int pos, int n, int bits)
+  {
+    int i = pos >> 3;
+    int s = pos & 7;
+    int mask = ((0xFF << (8 - n)) & 0xFF) << (8 - s);
+    int v = (bits & 0xFF) << (8 - s);
+    putMasked(y, i, mask >> 8, v >> 8);
+    if ((mask & 0xFF) != 0)
+    {
+      putMasked(y, i + 1, mask & 0xFF, v & 0xFF);
+    }
+  }
+
+  private void putMasked(int y, int i, int mask, int bits)
+  {
+    store(y, i, (load(y, i) & ~mask) | (bits & mask));
+  }
+
   boolean isBlack(int x, int y) {
     int value = getPixel(x,y);
     return value == getBlack();
@@ -143,11 +709,28 @@ public class RasterElement
     return height;
   }
 
+  /**
+   * @return the image data, rows of getStride() bytes each
+   * @throws UnsupportedOperationException if the raster is too large for the
+   * heap and stored in a memory-mapped file, see hasArray()
+   */
   public byte[] getImageData()
   {
+    if (imageData == null)
+    {
+      throw new UnsupportedOperationException("Raster data is memory-mapped, use getRasterLine()");
+    }
     return imageData;
   }
 
+  /**
+   * @return number of bytes per row
+   */
+  public int getStride()
+  {
+    return stride;
+  }
+
   public int getBitDepth()
   {
     return bitDepth;
@@ -57,8 +57,7 @@ public class RasterPart extends RasterizableJobPart
   @Override
   public void getRasterLine(int line, List<Byte> result)
   {
-    RasterElement raster = ((RasterElement.Provider)image).getRaster();
-    byte[] byte_array = raster.getRasterLine(line, null);
+    byte[] byte_array = getRasterLine(line, (byte[]) null);
     if (result instanceof ByteArrayList) {
       ((ByteArrayList)result).clear(byte_array.length);
     } else {
@@ -69,8 +68,28 @@ public class RasterPart extends RasterizableJobPart
     }
   }
 
+  /**
+   * Same as getRasterLine(int, List), but copies the packed line into
+   * bytes, which is reused if it is large enough. Pass null for the first
+   * line, then the returned array has exactly the length of a line.
+   * @return bytes or a new array with the line
+   */
+  public byte[] getRasterLine(int line, byte[] bytes)
+  {
+    if (image instanceof LazyBlackWhiteRaster)
+    {
+      return ((LazyBlackWhiteRaster)image).getRasterLine(line, bytes);
+    }
+    RasterElement raster = ((RasterElement.Provider)image).getRaster();
+    return raster.getRasterLine(line, bytes);
+  }
+
   public boolean isBlack(int x, int y)
   {
+    if (image instanceof LazyBlackWhiteRaster)
+    {
+      return ((LazyBlackWhiteRaster)image).isBlack(x, y);
+    }
     RasterElement raster = ((RasterElement.Provider)image).getRaster();
     if (raster.getBitDepth() == 1)
     {
@@ -31,6 +31,7 @@ abstract public class RasterizableJobPart extends JobPart
   protected Point start = null;
   protected boolean cutDirectionleftToRight = true;
   protected double resolution = Double.NaN;
+  private volatile ScanlineIndex scanlineIndex = null;
 
   @Override
   public double getDPI()
@@ -89,10 +90,22 @@ abstract public class RasterizableJobPart extends JobPart
    */
   public boolean lineIsBlank(int y)
   {
-    for (int x=0; x<getRasterWidth(); x++)
-      if (image.getGreyScale(x, y) < 255)
-        return false;
-    return true;
+    return scanlineIndex().isBlank(y);
+  }
+
+  /**
+   * Index answering the scanline queries, built on first use.
+   * The image must not be changed afterwards.
+   */
+  private ScanlineIndex scanlineIndex()
+  {
+    ScanlineIndex index = scanlineIndex;
+    if (index == null || index.getImage() != image)
+    {
+      index = new ScanlineIndex(image);
+      scanlineIndex = index;
+    }
+    return index;
   }
   
   /**
@@ -105,6 +118,14 @@ abstract public class RasterizableJobPart extends JobPart
     cutDirectionleftToRight = !cutDirectionleftToRight;
   }
 
+  /**
+   * @return true if lines are currently cut from left to right
+   */
+  public boolean isCutDirectionLeftToRight()
+  {
+    return cutDirectionleftToRight;
+  }
+
   
   /**
    * Adds any required compensation when cutting.
@@ -151,10 +172,7 @@ abstract public class RasterizableJobPart extends JobPart
    */
   protected int leftMostNonWhitePixel(int y)
   {
-    for (int x=0; x<getRasterWidth(); x++)
-      if (image.getGreyScale(x, y) < 255)
-        return x;
-    return getRasterWidth();
+    return scanlineIndex().leftMostNonWhitePixel(y);
   }
   
   /**
@@ -175,10 +193,7 @@ abstract public class RasterizableJobPart extends JobPart
    */
   protected int rightMostNonWhitePixel(int y)
   {
-    for (int x=getRasterWidth()-1; x >= 0; x--)
-      if (image.getGreyScale(x, y) < 255)
-        return x;
-    return 0;
+    return Math.max(0, scanlineIndex().rightMostNonWhitePixel(y));
   }
   
   /**
@@ -203,12 +218,8 @@ abstract public class RasterizableJobPart extends JobPart
    */
   protected int nextColorChangeHeadingRight(int x, int y)
   {
-    int color = image.getGreyScale(x, y);
-    for (int i=x; i<getRasterWidth(); i++)
-      if (image.getGreyScale(i, y) != color)
-        return i;
-    // rest of line is the same color, so next colour change is past end of line
-    return getRasterWidth();
+    // if the rest of line is the same color, the next colour change is past end of line
+    return scanlineIndex().runEnd(x, y);
   }
   
   /**
@@ -219,12 +230,8 @@ abstract public class RasterizableJobPart extends JobPart
    */
   protected int nextColorChangeHeadingLeft(int x, int y)
   {
-    int color = image.getGreyScale(x, y);
-    for (int i=x; i>=0; i--)
-      if (image.getGreyScale(i, y) != color)
-        return i;
-    // rest of line is the same color, so next colour change is past the beginning of line
-    return -1;
+    // if the rest of line is the same color, the next colour change is past the beginning of line
+    return scanlineIndex().runStartBefore(x, y);
   }
   
   /**
@@ -0,0 +1,234 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed per-row information of a raster image, used by
+ * RasterizableJobPart to answer its scanline queries without rescanning
+ * the row every time.
+ *
+ * The left- and right-most non-white pixel of a row is computed when the row
+ * is first queried and kept for the lifetime of the index, so lazily dithered
+ * images are not processed ahead of the driver. For 1 bit BlackWhiteRasters
+ * the packed data is scanned 8 bytes at a time.
+ *
+ * The colour runs are only kept for the most recently queried row, because
+ * keeping them for all rows of a photo would need about as much memory as the
+ * image itself, while rasterizing only walks through the rows one by one.
+ *
+ * The image must not be changed after the index was built.
+ */
+final class ScanlineIndex
+{
+  private final GreyscaleRaster image;
+  private final int width;
+  /**
+   * packed data of a 1 bit BlackWhiteRaster, otherwise null
+   */
+  private final RasterElement bits;
+  /**
+   * marks rows of first/last which are not computed yet
+   */
+  private static final int UNKNOWN = Integer.MIN_VALUE;
+  /**
+   * left-most non-white pixel, or width if the row is blank.
+   * Computing a row twice does no harm, so first and last are not synchronized.
+   */
+  private final int[] first;
+  /**
+   * right-most non-white pixel, or -1 if the row is blank
+   */
+  private final int[] last;
+  private volatile Runs runs = null;
+
+  /**
+   * colour runs of one row
+   */
+  private static class Runs
+  {
+    final int y;
+    /**
+     * x where each run starts, followed by width
+     */
+    final int[] starts;
+
+    Runs(int y, int[] starts)
+    {
+      this.y = y;
+      this.starts = starts;
+    }
+  }
+
+  ScanlineIndex(GreyscaleRaster image)
+  {
+    this.image = image;
+    this.width = image.getWidth();
+    int height = image.getHeight();
+    first = new int[height];
+    last = new int[height];
+    // non-white pixels are the 1 bits
+    bits = image instanceof BlackWhiteRaster && ((BlackWhiteRaster) image).getBitDepth() == 1
+      ? ((BlackWhiteRaster) image).getRaster() : null;
+    Arrays.fill(first, UNKNOWN);
+    Arrays.fill(last, UNKNOWN);
+  }
+
+  private void computeBounds(int y)
+  {
+    int f;
+    int l;
+    if (bits != null)
+    {
+      f = bits.firstNonZeroPixel(y);
+      l = f < 0 ? -1 : bits.lastNonZeroPixel(y);
+      if (f < 0)
+      {
+        f = width;
+      }
+    }
+    else
+    {
+      int[] row = image.readRow(y, (int[]) null);
+      f = 0;
+      while (f < width && row[f] >= 255)
+      {
+        f++;
+      }
+      l = width - 1;
+      while (l >= f && row[l] >= 255)
+      {
+        l--;
+      }
+      if (l < f)
+      {
+        l = -1;
+      }
+    }
+    last[y] = l;
+    first[y] = f;
+  }
+
+  GreyscaleRaster getImage()
+  {
+    return image;
+  }
+
+  boolean isBlank(int y)
+  {
+    return rightMostNonWhitePixel(y) < 0;
+  }
+
+  /**
+   * @return x of the left-most non-white pixel, or width if the row is blank
+   */
+  int leftMostNonWhitePixel(int y)
+  {
+    int f = first[y];
+    if (f == UNKNOWN)
+    {
+      computeBounds(y);
+      f = first[y];
+    }
+    return f;
+  }
+
+  /**
+   * @return x of the right-most non-white pixel, or -1 if the row is blank
+   */
+  int rightMostNonWhitePixel(int y)
+  {
+    int l = last[y];
+    if (l == UNKNOWN)
+    {
+      computeBounds(y);
+      l = last[y];
+    }
+    return l;
+  }
+
+  /**
+   * @return x of the first pixel right of x with a different colour, or width
+   */
+  int runEnd(int x, int y)
+  {
+    int[] starts = runs(y);
+    return starts[runIndex(starts, x) + 1];
+  }
+
+  /**
+   * @return x of the first pixel left of x with a different colour, or -1
+   */
+  int runStartBefore(int x, int y)
+  {
+    int[] starts = runs(y);
+    return starts[runIndex(starts, x)] - 1;
+  }
+
+  private int runIndex(int[] starts, int x)
+  {
+    if (x < 0 || x >= width)
+    {
+      throw new IndexOutOfBoundsException("x=" + x + " is outside of the image (width " + width + ")");
+    }
+    int i = Arrays.binarySearch(starts, x);
+    return i >= 0 ? i : -i - 2;
+  }
+
+  private int[] runs(int y)
+  {
+    Runs r = runs;
+    if (r == null || r.y != y)
+    {
+      int[] starts = new int[16];
+      int count = 0;
+      if (bits != null)
+      {
+        for (int x = 0; x < width; x = bits.runEnd(x, y))
+        {
+          if (count + 1 >= starts.length)
+          {
+            starts = Arrays.copyOf(starts, 2 * starts.length);
+          }
+          starts[count++] = x;
+        }
+      }
+      else
+      {
+        int[] row = image.readRow(y, (int[]) null);
+        for (int x = 0; x < width; x++)
+        {
+          if (x == 0 || row[x] != row[x - 1])
+          {
+            if (count + 1 >= starts.length)
+            {
+              starts = Arrays.copyOf(starts, 2 * starts.length);
+            }
+            starts[count++] = x;
+          }
+        }
+      }
+      starts[count++] = width;
+      r = new Runs(y, Arrays.copyOf(starts, count));
+      runs = r;
+    }
+    return r.starts;
+  }
+}
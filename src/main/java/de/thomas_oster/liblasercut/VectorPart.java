@@ -18,23 +18,160 @@
  */
 package de.thomas_oster.liblasercut;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * A list of vector commands (moveto, lineto, setProperty).
+ *
+ * The commands are not stored as VectorCommand objects, but in a compact
+ * columnar form: one opcode per command, the coordinates of all MOVETO/LINETO
+ * commands in two primitive arrays and the properties of all SETPROPERTY
+ * commands in a side table. Each command consumes the next entry of the table
+ * corresponding to its type, so no per-command objects are needed.
+ *
+ * Use {@link #cursor()} or {@link #accept(CommandVisitor)} to iterate over the
+ * commands without creating VectorCommand objects.
  *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
 public class VectorPart extends JobPart
 {
 
+  /**
+   * Receives the commands of a VectorPart in order.
+   * @see VectorPart#accept(CommandVisitor)
+   * @param <E> exception type that may be thrown by the visitor
+   */
+  public interface CommandVisitor<E extends Exception>
+  {
+    void setProperty(LaserProperty property) throws E;
+
+    void moveto(double x, double y) throws E;
+
+    void lineto(double x, double y) throws E;
+  }
+
+  /**
+   * Reusable read-only cursor over the commands of a VectorPart.
+   * It has the same accessors as VectorCommand, but always refers to the
+   * command at the current position, so iterating does not allocate memory:
+   * <pre>
+   * for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
+   * {
+   *   switch (cmd.getType()) ...
+   * }
+   * </pre>
+   * Commands appended to the VectorPart during iteration are visited, too.
+   */
+  public final class Cursor
+  {
+    private int index = -1;
+    private int point = -1;
+    private int property = -1;
+    private byte op;
+
+    private Cursor()
+    {
+    }
+
+    /**
+     * Advances to the next command.
+     * @return false if there are no more commands
+     */
+    public boolean next()
+    {
+      if (index + 1 >= commandCount)
+      {
+        index = commandCount;
+        return false;
+      }
+      index++;
+      op = opcodes[index];
+      if (op == OP_SETPROPERTY)
+      {
+        property++;
+      }
+      else
+      {
+        point++;
+      }
+      return true;
+    }
+
+    /**
+     * Moves the cursor back before the first command, so it can be reused.
+     */
+    public void reset()
+    {
+      index = -1;
+      point = -1;
+      property = -1;
+    }
+
+    /**
+     * Index of the current command, 0 ... getCommandCount() - 1
+     */
+    public int getIndex()
+    {
+      return index;
+    }
+
+    public VectorCommand.CmdType getType()
+    {
+      return CMD_TYPES[op];
+    }
+
+    public double getX()
+    {
+      if (op == OP_SETPROPERTY)
+      {
+        throw new UnsupportedOperationException("getX not supported for " + getType());
+      }
+      return xs[point];
+    }
+
+    public double getY()
+    {
+      if (op == OP_SETPROPERTY)
+      {
+        throw new UnsupportedOperationException("getY not supported for " + getType());
+      }
+      return ys[point];
+    }
+
+    public LaserProperty getProperty()
+    {
+      if (op != OP_SETPROPERTY)
+      {
+        throw new UnsupportedOperationException("Only valid for PROPERTY");
+      }
+      return properties[property];
+    }
+  }
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final byte OP_SETPROPERTY = (byte) VectorCommand.CmdType.SETPROPERTY.ordinal();
+  private static final byte OP_MOVETO = (byte) VectorCommand.CmdType.MOVETO.ordinal();
+  private static final byte OP_LINETO = (byte) VectorCommand.CmdType.LINETO.ordinal();
+  private static final VectorCommand.CmdType[] CMD_TYPES = VectorCommand.CmdType.values();
+
   private LaserProperty currentCuttingProperty;
   private double maxX;
   private double maxY;
   private double minX;
   private double minY;
   private final double resolution;
-  private final List<VectorCommand> commands;
+
+  // opcodes (CmdType ordinals) of all commands
+  private byte[] opcodes = new byte[INITIAL_CAPACITY];
+  private int commandCount = 0;
+  // coordinates of MOVETO and LINETO commands, in command order
+  private double[] xs = new double[INITIAL_CAPACITY];
+  private double[] ys = new double[INITIAL_CAPACITY];
+  private int pointCount = 0;
+  // properties of SETPROPERTY commands, in command order
+  private LaserProperty[] properties = new LaserProperty[4];
+  private int propertyCount = 0;
 
   public VectorPart(LaserProperty initialProperty, double resolution)
   {
@@ -43,10 +180,8 @@ public class VectorPart extends JobPart
       throw new IllegalArgumentException("Initial Property must not be null");
     }
     this.resolution = resolution;
-    commands = new LinkedList<>();
     this.currentCuttingProperty = initialProperty;
-    commands.add(new VectorCommand(VectorCommand.CmdType.SETPROPERTY, initialProperty));
-
+    addProperty(initialProperty);
   }
 
   @Override
@@ -63,12 +198,125 @@ public class VectorPart extends JobPart
   public void setProperty(LaserProperty cp)
   {
     this.currentCuttingProperty = cp;
-    commands.add(new VectorCommand(VectorCommand.CmdType.SETPROPERTY, cp));
+    addProperty(cp);
+  }
+
+  /**
+   * Number of commands (including SETPROPERTY) in this part.
+   */
+  public int getCommandCount()
+  {
+    return commandCount;
   }
 
+  /**
+   * Returns a new cursor positioned before the first command.
+   * @see Cursor
+   */
+  public Cursor cursor()
+  {
+    return new Cursor();
+  }
+
+  /**
+   * Returns a copy of all commands as VectorCommand objects.
+   *
+   * This allocates one object per command. Modifying the returned commands
+   * does not change this VectorPart. Prefer {@link #cursor()} for iterating
+   * large parts.
+   */
   public VectorCommand[] getCommandList()
   {
-    return commands.toArray(new VectorCommand[0]);
+    VectorCommand[] result = new VectorCommand[commandCount];
+    int point = 0;
+    int property = 0;
+    for (int i = 0; i < commandCount; i++)
+    {
+      if (opcodes[i] == OP_SETPROPERTY)
+      {
+        result[i] = new VectorCommand(VectorCommand.CmdType.SETPROPERTY, properties[property++]);
+      }
+      else
+      {
+        result[i] = new VectorCommand(CMD_TYPES[opcodes[i]], xs[point], ys[point]);
+        point++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Passes all commands in order to the given visitor.
+   * No objects are allocated for the commands.
+   */
+  public <E extends Exception> void accept(CommandVisitor<E> visitor) throws E
+  {
+    int point = 0;
+    int property = 0;
+    for (int i = 0; i < commandCount; i++)
+    {
+      byte op = opcodes[i];
+      if (op == OP_SETPROPERTY)
+      {
+        visitor.setProperty(properties[property++]);
+      }
+      else if (op == OP_MOVETO)
+      {
+        visitor.moveto(xs[point], ys[point]);
+        point++;
+      }
+      else
+      {
+        visitor.lineto(xs[point], ys[point]);
+        point++;
+      }
+    }
+  }
+
+  /**
+   * Subtracts the given offset from all coordinates and truncates the result
+   * to integers. Used by LaserJob.applyStartPoint().
+   * The bounding box is not changed.
+   */
+  void subtractOffset(double dx, double dy)
+  {
+    for (int i = 0; i < pointCount; i++)
+    {
+      xs[i] = (int) (xs[i] - dx);
+      ys[i] = (int) (ys[i] - dy);
+    }
+  }
+
+  private void addOpcode(byte op)
+  {
+    if (commandCount == opcodes.length)
+    {
+      opcodes = Arrays.copyOf(opcodes, opcodes.length * 2);
+    }
+    opcodes[commandCount++] = op;
+  }
+
+  private void addProperty(LaserProperty p)
+  {
+    if (propertyCount == properties.length)
+    {
+      properties = Arrays.copyOf(properties, properties.length * 2);
+    }
+    properties[propertyCount++] = p;
+    addOpcode(OP_SETPROPERTY);
+  }
+
+  private void addPoint(byte op, double x, double y)
+  {
+    if (pointCount == xs.length)
+    {
+      xs = Arrays.copyOf(xs, xs.length * 2);
+      ys = Arrays.copyOf(ys, ys.length * 2);
+    }
+    xs[pointCount] = x;
+    ys[pointCount] = y;
+    pointCount++;
+    addOpcode(op);
   }
 
   private void checkMin(double x, double y)
@@ -101,7 +349,7 @@ public class VectorPart extends JobPart
    */
   public void moveto(double x, double y)
   {
-    commands.add(new VectorCommand(VectorCommand.CmdType.MOVETO, x, y));
+    addPoint(OP_MOVETO, x, y);
     checkMin(x, y);
     checkMax(x, y);
   }
@@ -113,7 +361,7 @@ public class VectorPart extends JobPart
    */
   public void lineto(double x, double y)
   {
-    commands.add(new VectorCommand(VectorCommand.CmdType.LINETO, x, y));
+    addPoint(OP_LINETO, x, y);
     checkMin(x, y);
     checkMax(x, y);
   }
@@ -29,37 +29,19 @@ public class Average extends  DitheringAlgorithm
 {
 
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  protected Threshold createThreshold(GreyscaleRaster src) throws InterruptedException
   {
-    long lumTotal = 0;
-    int pixelcount = 0;
     int width = src.getWidth();
     int height = src.getHeight();
-
-    for (int y = 0; y < height; y++)
-    {
-      for (int x = 0; x < width; x++)
-      {
-        lumTotal += src.getGreyScale(x, y);
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
-
+    long lumTotal = sumGreyScale(src, 0, 50);
     int thresh = (int) (lumTotal / height / width);
-    for (int y = 0; y < height; y++)
-    {
-      for (int x = 0; x < width; x++)
-      {
-        this.setBlack(src, target, x, y, src.getGreyScale(x, y) < thresh);
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
+    return (x, y, grey) -> grey < thresh;
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    ditherPixelwise(src, target, 50, 100, createThreshold(src));
   }
 
   @Override
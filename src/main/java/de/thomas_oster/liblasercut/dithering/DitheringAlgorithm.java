@@ -21,9 +21,18 @@ package de.thomas_oster.liblasercut.dithering;
 import de.thomas_oster.liblasercut.BlackWhiteRaster;
 import de.thomas_oster.liblasercut.Customizable;
 import de.thomas_oster.liblasercut.GreyscaleRaster;
+import de.thomas_oster.liblasercut.RasterElement;
 import de.thomas_oster.liblasercut.TimeIntensiveOperation;
 import de.thomas_oster.liblasercut.platform.Util;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  *
@@ -44,6 +53,246 @@ public abstract class DitheringAlgorithm extends TimeIntensiveOperation implemen
     }
   }
 
+  /**
+   * Images with fewer pixels are always processed by the calling thread.
+   */
+  static final int PARALLEL_THRESHOLD = 1 << 20;
+  /**
+   * Number of rows processed as one task in parallel mode
+   */
+  private static final int BAND_ROWS = 16;
+
+  /**
+   * Decides the colour of a single pixel, independent of all other pixels.
+   * Must be safe to be called from several threads.
+   */
+  protected interface Threshold
+  {
+    boolean isBlack(int x, int y, int grey);
+  }
+
+  /**
+   * Work on the rows [fromY, toY). Must be safe to be called from several threads
+   * for different rows.
+   */
+  protected interface Band
+  {
+    void process(int fromY, int toY);
+  }
+
+  /**
+   * Runs band.process() for all rows of an image. Large images are split into
+   * bands of rows which are processed in parallel by the common fork-join pool.
+   * Progress is reported from progressFrom to progressTo (percent).
+   *
+   * @throws InterruptedException if the calling thread is interrupted. In
+   * parallel mode the bands which already run are finished first, and the
+   * interrupt flag stays set.
+   */
+  protected void forEachBand(int width, int height, int progressFrom, int progressTo, Band band) throws InterruptedException
+  {
+    if ((long) width * height < PARALLEL_THRESHOLD)
+    {
+      for (int y = 0; y < height; y++)
+      {
+        band.process(y, y + 1);
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+        setProgress(progressFrom + ((progressTo - progressFrom) * y) / height);
+      }
+      return;
+    }
+    AtomicInteger rowsDone = new AtomicInteger();
+    BandTask task = new BandTask(band, height, 0, (height + BAND_ROWS - 1) / BAND_ROWS, rowsDone);
+    ForkJoinPool.commonPool().execute(task);
+    try
+    {
+      while (true)
+      {
+        try
+        {
+          task.get(50, TimeUnit.MILLISECONDS);
+          break;
+        }
+        catch (TimeoutException e)
+        {
+          setProgress(progressFrom + ((progressTo - progressFrom) * rowsDone.get()) / height);
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // bands which already run must not write into the target afterwards
+      task.cancelled = true;
+      task.quietlyJoin();
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error)
+      {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private static class BandTask extends RecursiveAction
+  {
+    private final Band band;
+    private final int height;
+    private final int fromBand;
+    private final int toBand;
+    private final AtomicInteger rowsDone;
+    private volatile boolean cancelled = false;
+    private final BandTask root;
+
+    BandTask(Band band, int height, int fromBand, int toBand, AtomicInteger rowsDone)
+    {
+      this(band, height, fromBand, toBand, rowsDone, null);
+    }
+
+    private BandTask(Band band, int height, int fromBand, int toBand, AtomicInteger rowsDone, BandTask root)
+    {
+      this.band = band;
+      this.height = height;
+      this.fromBand = fromBand;
+      this.toBand = toBand;
+      this.rowsDone = rowsDone;
+      this.root = root == null ? this : root;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (root.cancelled)
+      {
+        return;
+      }
+      if (toBand - fromBand > 1)
+      {
+        int middle = (fromBand + toBand) >>> 1;
+        ForkJoinTask.invokeAll(
+          new BandTask(band, height, fromBand, middle, rowsDone, root),
+          new BandTask(band, height, middle, toBand, rowsDone, root));
+        return;
+      }
+      int fromY = fromBand * BAND_ROWS;
+      int toY = Math.min(height, fromY + BAND_ROWS);
+      band.process(fromY, toY);
+      rowsDone.addAndGet(toY - fromY);
+    }
+  }
+
+  /**
+   * Sets every pixel according to the threshold, writing whole bytes into
+   * 1 bit targets. See forEachBand() for parallelism and progress.
+   */
+  protected void ditherPixelwise(GreyscaleRaster src, BlackWhiteRaster target, int progressFrom, int progressTo, Threshold threshold) throws InterruptedException
+  {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    byte[] bits = packedData(target, width, height);
+    int stride = (width + 7) / 8;
+    forEachBand(width, height, progressFrom, progressTo, (fromY, toY) -> {
+      int[] row = new int[width];
+      for (int y = fromY; y < toY; y++)
+      {
+        src.readRow(y, row);
+        if (bits != null)
+        {
+          packRow(y, width, row, threshold, bits, y * stride);
+          continue;
+        }
+        for (int x = 0; x < width; x++)
+        {
+          setBlack(src, target, x, y, threshold.isBlack(x, y, row[x]));
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes the thresholded row into bits, starting at offset (1 = black,
+   * most significant bit first).
+   */
+  private static void packRow(int y, int width, int[] row, Threshold threshold, byte[] bits, int offset)
+  {
+    int acc = 0;
+    for (int x = 0; x < width; x++)
+    {
+      acc = (acc << 1) | (threshold.isBlack(x, y, row[x]) ? 1 : 0);
+      if ((x & 7) == 7)
+      {
+        bits[offset + (x >> 3)] = (byte) acc;
+        acc = 0;
+      }
+    }
+    storeLastByte(bits, offset, width, acc);
+  }
+
+  /**
+   * Sum of the grey values of all pixels. See forEachBand() for parallelism and progress.
+   */
+  protected long sumGreyScale(GreyscaleRaster src, int progressFrom, int progressTo) throws InterruptedException
+  {
+    int width = src.getWidth();
+    LongAdder sum = new LongAdder();
+    forEachBand(width, src.getHeight(), progressFrom, progressTo, (fromY, toY) -> {
+      int[] row = new int[width];
+      long bandSum = 0;
+      for (int y = fromY; y < toY; y++)
+      {
+        src.readRow(y, row);
+        for (int x = 0; x < width; x++)
+        {
+          bandSum += row[x];
+        }
+      }
+      sum.add(bandSum);
+    });
+    return sum.sum();
+  }
+
+  /**
+   * The packed data of target, if it is a 1 bit raster of the given size which
+   * can be written directly (1 = black, most significant bit first),
+   * otherwise null. Memory-mapped rasters are written pixel by pixel.
+   */
+  static byte[] packedData(BlackWhiteRaster target, int width, int height)
+  {
+    RasterElement r = target != null ? target.getRaster() : null;
+    if (r != null && r.hasArray() && r.getBitDepth() == 1 && r.getSamplesPerPixel() == 1
+      && r.getWidth() == width && r.getHeight() == height)
+    {
+      return r.getImageData();
+    }
+    return null;
+  }
+
+  /**
+   * Stores the last (incomplete) byte of a packed row, keeping the padding bits.
+   *
+   * @param offset index of the first byte of the row
+   * @param acc the remaining (width % 8) pixels, last pixel in the lowest bit
+   */
+  static void storeLastByte(byte[] bits, int offset, int width, int acc)
+  {
+    int used = width & 7;
+    if (used != 0)
+    {
+      int i = offset + (width >> 3);
+      bits[i] = (byte) ((bits[i] & ((1 << (8 - used)) - 1)) | (acc << (8 - used)));
+    }
+  }
+
   public BlackWhiteRaster dither(GreyscaleRaster input) throws InterruptedException
   {
     BlackWhiteRaster target = new BlackWhiteRaster(input.getWidth(), input.getHeight());
@@ -63,6 +312,66 @@ public abstract class DitheringAlgorithm extends TimeIntensiveOperation implemen
 
   protected abstract void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException;
 
+  /**
+   * Dithers an image one row at a time, see LazyBlackWhiteRaster.
+   * Not thread safe.
+   */
+  public interface RowDitherer
+  {
+    /**
+     * Writes row y, 1 bit per pixel (1 = black, most significant bit first).
+     * Sequential ditherers must be called for the rows 0, 1, 2, ... in order.
+     *
+     * @param packed at least (width + 7) / 8 bytes
+     */
+    void ditherRow(int y, byte[] packed);
+
+    /**
+     * @return true if a row depends on the rows above, so that rows have to
+     * be dithered in order
+     */
+    default boolean isSequential()
+    {
+      return false;
+    }
+
+    /**
+     * @return an independent ditherer continuing with the same row,
+     * to resume from there later
+     */
+    default RowDitherer copy()
+    {
+      return this;
+    }
+  }
+
+  /**
+   * The threshold of algorithms deciding every pixel on its own, or null.
+   * Called once per image, before any pixel is dithered.
+   */
+  protected Threshold createThreshold(GreyscaleRaster src) throws InterruptedException
+  {
+    return null;
+  }
+
+  /**
+   * Creates a ditherer computing the rows of dither(src) one by one.
+   * Algorithms which neither provide a threshold nor override this method
+   * dither the whole image up front.
+   */
+  public RowDitherer rowDitherer(GreyscaleRaster src) throws InterruptedException
+  {
+    int width = src.getWidth();
+    Threshold threshold = createThreshold(src);
+    if (threshold == null)
+    {
+      BlackWhiteRaster full = dither(src);
+      return (y, packed) -> full.getRasterLine(y, packed);
+    }
+    int[] row = new int[width];
+    return (y, packed) -> packRow(y, width, src.readRow(y, row), threshold, packed, 0);
+  }
+
   @Override
   public String[] getPropertyKeys() {
     return new String[0];
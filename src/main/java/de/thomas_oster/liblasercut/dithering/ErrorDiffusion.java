@@ -0,0 +1,397 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Common engine for error diffusion dithering with an arbitrary kernel.
+ *
+ * Each pixel is set black if its value (including the diffused error) is
+ * &lt;= 127. The error is distributed to the neighbours given by the kernel,
+ * every part rounded towards zero like (weight * error / divisor).
+ *
+ * Large images are dithered by several threads at once: every thread
+ * processes whole rows and follows the row above with a lag of a few
+ * columns (wavefront), so the result is exactly the same as if dithered
+ * serially. This requires that getGreyScale/setGreyScale of the source may
+ * be called from several threads for different rows, which is true for all
+ * GreyscaleRaster implementations in this library.
+ */
+public abstract class ErrorDiffusion extends DitheringAlgorithm
+{
+
+  /**
+   * Number of columns after which a row publishes its progress
+   */
+  private static final int CHUNK = 256;
+
+  // kernel: target pixel (x + dx, y + dy) gets weight * error / divisor
+  private final int[] dx;
+  private final int[] dy;
+  private final int[] weight;
+  private final int divisor;
+  /**
+   * log2(divisor) if the divisor is a power of two, else -1
+   */
+  private final int shift;
+  private final int maxDy;
+  /**
+   * how many columns a row must be ahead of the row below
+   */
+  private final int reach;
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * @param divisor sum of all weights (usually)
+   * @param kernel triples (dx, dy, weight). dy must be >= 0, and dx > 0 if dy == 0.
+   */
+  protected ErrorDiffusion(int divisor, int... kernel)
+  {
+    if (kernel.length % 3 != 0)
+    {
+      throw new IllegalArgumentException("Kernel must consist of (dx, dy, weight) triples");
+    }
+    int n = kernel.length / 3;
+    dx = new int[n];
+    dy = new int[n];
+    weight = new int[n];
+    int maxDy = 0;
+    int reach = 0;
+    for (int i = 0; i < n; i++)
+    {
+      dx[i] = kernel[3 * i];
+      dy[i] = kernel[3 * i + 1];
+      weight[i] = kernel[3 * i + 2];
+      if (dy[i] < 0 || (dy[i] == 0 && dx[i] <= 0))
+      {
+        throw new IllegalArgumentException("Error can only be diffused to pixels not processed yet");
+      }
+      maxDy = Math.max(maxDy, dy[i]);
+      if (dy[i] > 0)
+      {
+        reach = Math.max(reach, -dx[i]);
+      }
+    }
+    this.maxDy = maxDy;
+    this.reach = reach;
+    this.divisor = divisor;
+    this.shift = Integer.bitCount(divisor) == 1 ? Integer.numberOfTrailingZeros(divisor) : -1;
+  }
+
+  /**
+   * Maximum number of threads used for large images
+   */
+  void setThreads(int threads)
+  {
+    this.threads = threads;
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    if (width == 0 || height == 0)
+    {
+      return;
+    }
+    int threadCount = (long) width * height >= PARALLEL_THRESHOLD ? Math.max(1, Math.min(threads, height)) : 1;
+    Job job = new Job(src, target, threadCount);
+    if (threadCount == 1)
+    {
+      job.run(0, true);
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+    try
+    {
+      ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(pool);
+      for (int t = 0; t < threadCount; t++)
+      {
+        final int first = t;
+        completion.submit(() -> {
+          job.run(first, false);
+          return null;
+        });
+      }
+      for (int finished = 0; finished < threadCount;)
+      {
+        Future<Void> f = completion.poll(50, TimeUnit.MILLISECONDS);
+        if (f != null)
+        {
+          f.get();
+          finished++;
+        }
+        setProgress((100 * job.rowsDone.get()) / height);
+      }
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error)
+      {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Dithers the rows one by one, keeping only the error of the last rows.
+   */
+  @Override
+  public RowDitherer rowDitherer(GreyscaleRaster src)
+  {
+    return new Rows(new Job(src, null, 1));
+  }
+
+  private class Rows implements RowDitherer
+  {
+    private final Job job;
+    private final int[] value;
+    private final int[] sourceRow;
+
+    Rows(Job job)
+    {
+      this.job = job;
+      this.value = new int[job.width];
+      this.sourceRow = new int[dx.length];
+    }
+
+    @Override
+    public void ditherRow(int y, byte[] packed)
+    {
+      job.ditherRow(y, value, sourceRow, packed, 0);
+    }
+
+    @Override
+    public boolean isSequential()
+    {
+      return true;
+    }
+
+    @Override
+    public RowDitherer copy()
+    {
+      return new Rows(new Job(job));
+    }
+  }
+
+  /**
+   * State of one dithering run
+   */
+  private class Job
+  {
+    private final GreyscaleRaster src;
+    private final BlackWhiteRaster target;
+    private final int width;
+    private final int height;
+    private final int threadCount;
+    /**
+     * error of the last rows, row y is stored at (y % ringRows) * width
+     */
+    private final int[] error;
+    private final int ringRows;
+    /**
+     * number of columns finished in each row, null for a single thread
+     */
+    private final AtomicIntegerArray progress;
+    private final AtomicInteger rowsDone = new AtomicInteger();
+    /**
+     * packed 1 bit target data, or null if setBlack() has to be used
+     */
+    private final byte[] bits;
+    private final int stride;
+
+    Job(GreyscaleRaster src, BlackWhiteRaster target, int threadCount)
+    {
+      this.src = src;
+      this.target = target;
+      this.width = src.getWidth();
+      this.height = src.getHeight();
+      this.threadCount = threadCount;
+      // a thread starts row y only after its row y - threadCount is finished,
+      // and thus all rows before, so rows older than that can be overwritten
+      this.ringRows = threadCount + maxDy + 1;
+      this.error = new int[ringRows * width];
+      this.progress = threadCount > 1 ? new AtomicIntegerArray(height) : null;
+      this.bits = packedData(target, width, height);
+      this.stride = (width + 7) / 8;
+    }
+
+    /**
+     * copy of a single threaded job, continuing with the same row
+     */
+    Job(Job other)
+    {
+      this.src = other.src;
+      this.target = other.target;
+      this.width = other.width;
+      this.height = other.height;
+      this.threadCount = other.threadCount;
+      this.ringRows = other.ringRows;
+      this.error = other.error.clone();
+      this.progress = null;
+      this.bits = other.bits;
+      this.stride = other.stride;
+    }
+
+    /**
+     * dithers the rows first, first + threadCount, ...
+     */
+    void run(int first, boolean reportProgress) throws InterruptedException
+    {
+      int[] value = new int[width];
+      int[] sourceRow = new int[dx.length];
+      for (int y = first; y < height; y += threadCount)
+      {
+        if (!ditherRow(y, value, sourceRow, bits, y * stride))
+        {
+          throw new InterruptedException();
+        }
+        int done = rowsDone.incrementAndGet();
+        if (reportProgress)
+        {
+          setProgress((100 * (done - 1)) / height);
+        }
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+      }
+    }
+
+    /**
+     * Dithers row y into out (starting at offset), or with setBlack() if
+     * out is null.
+     *
+     * @param value, sourceRow buffers of width and kernel size
+     * @return false if interrupted while waiting for the row above
+     */
+    boolean ditherRow(int y, int[] value, int[] sourceRow, byte[] out, int offset)
+    {
+      src.readRow(y, value);
+      for (int k = 0; k < dx.length; k++)
+      {
+        int sy = y - dy[k];
+        sourceRow[k] = sy >= 0 ? (sy % ringRows) * width : -1;
+      }
+      int row = (y % ringRows) * width;
+      int acc = 0;
+      for (int x0 = 0; x0 < width; x0 += CHUNK)
+      {
+        int x1 = Math.min(width, x0 + CHUNK);
+        if (progress != null && y > 0 && !waitFor(y - 1, Math.min(width, x1 + reach)))
+        {
+          return false;
+        }
+        for (int x = x0; x < x1; x++)
+        {
+          int v = value[x];
+          for (int k = 0; k < dx.length; k++)
+          {
+            int sx = x - dx[k];
+            if (sourceRow[k] >= 0 && sx >= 0 && sx < width)
+            {
+              v += diffuse(weight[k] * error[sourceRow[k] + sx]);
+            }
+          }
+          boolean black = v <= 127;
+          error[row + x] = black ? v : v - 255;
+          if (out == null)
+          {
+            setBlack(src, target, x, y, black);
+          }
+          else
+          {
+            acc = (acc << 1) | (black ? 1 : 0);
+            if ((x & 7) == 7)
+            {
+              out[offset + (x >> 3)] = (byte) acc;
+              acc = 0;
+            }
+          }
+        }
+        if (progress != null)
+        {
+          progress.set(y, x1);
+        }
+      }
+      if (out != null)
+      {
+        storeLastByte(out, offset, width, acc);
+      }
+      return true;
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    private boolean waitFor(int y, int columns)
+    {
+      int spins = 0;
+      while (progress.get(y) < columns)
+      {
+        if (Thread.interrupted())
+        {
+          return false;
+        }
+        if (++spins < 1000)
+        {
+          Thread.onSpinWait();
+        }
+        else
+        {
+          Thread.yield();
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * value / divisor, rounded towards zero
+   */
+  private int diffuse(int value)
+  {
+    if (shift >= 0)
+    {
+      return (value + ((value >> 31) & (divisor - 1))) >> shift;
+    }
+    return value / divisor;
+  }
+}
@@ -18,71 +18,18 @@
  */
 package de.thomas_oster.liblasercut.dithering;
 
-import de.thomas_oster.liblasercut.BlackWhiteRaster;
-import de.thomas_oster.liblasercut.GreyscaleRaster;
-
 /**
  *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
-public class FloydSteinberg extends DitheringAlgorithm
+public class FloydSteinberg extends ErrorDiffusion
 {
 
-  @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  public FloydSteinberg()
   {
-    int pixelcount = 0;
-    int width = src.getWidth();
-    int height = src.getHeight();
-    /*
-      We have to copy the input image, because we will
-      alter the pixels during dither process and don't want
-      to destroy the input image
-     */
-    int[][] input = new int[width][2];
-    for (int x = 0; x < width; x++)
-    {
-      input[x][1] = src.getGreyScale(x, 0);
-    }
-    for (int y = 0; y < height; y++)
-    {
-      // copy lower line to upper line
-      // and read in next line from picture
-      for (int x = 0; x < input.length; x++)
-      {
-        input[x][0] = input[x][1];
-        if (y + 1 < height)
-        {
-          input[x][1] = (src.getGreyScale(x, y + 1));
-        }
-      }
-
-      for (int x = 0; x < input.length; x++)
-      {
-        this.setBlack(src, target, x, y, input[x][0] <= 127);
-        int error = input[x][0] - ((input[x][0] <= 127) ? 0 : 255);
-        if (x + 1 < input.length)
-        {
-          input[x + 1][0] = (input[x + 1][0] + 7 * error / 16);
-          if (y + 1 < height)
-          {
-            input[x + 1][1] = (input[x + 1][1] + 1 * error / 16);
-          }
-        }
-        if (y + 1 < height)
-        {
-          input[x][1] = (input[x][1] + 5 * error / 16);
-          if (x > 0)
-          {
-            input[x - 1][1] = (input[x - 1][1] + 3 * error / 16);
-          }
-        }
-      }
-      setProgress((100 * pixelcount++) / (height));
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-    }
+    super(16,
+      1, 0, 7,
+      -1, 1, 3, 0, 1, 5, 1, 1, 1);
   }
 
   @Override
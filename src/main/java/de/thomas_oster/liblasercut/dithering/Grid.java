@@ -71,40 +71,22 @@ public class Grid extends DitheringAlgorithm
   protected int blockdistance = 5;
 
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  protected Threshold createThreshold(GreyscaleRaster src) throws InterruptedException
   {
-    long lumTotal = 0;
-    int pixelcount = 0;
     int width = src.getWidth();
     int height = src.getHeight();
-
-    for (int y = 0; y < height; y++)
-    {
-      for (int x = 0; x < width; x++)
-      {
-        lumTotal += src.getGreyScale(x, y);
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
-
+    long lumTotal = sumGreyScale(src, 0, 50);
     int thresh = (int) (lumTotal / height / width);
-    for (int y = 0; y < height; y++)
-    {
-      for (int x = 0; x < width; x++)
-      {
-        boolean isBlack = (y % (blocksize + blockdistance) <= blocksize
-          && x % (blocksize + blockdistance) <= blocksize
-          && src.getGreyScale(x, y) < thresh);
-          this.setBlack(src, target, x, y, isBlack);
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (2 * height));
-    }
+    int size = blocksize;
+    int period = blocksize + blockdistance;
+    return (x, y, grey) ->
+      y % period <= size && x % period <= size && grey < thresh;
+  }
+
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    ditherPixelwise(src, target, 50, 100, createThreshold(src));
   }
 
   @Override
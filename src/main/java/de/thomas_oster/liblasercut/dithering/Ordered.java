@@ -46,64 +46,17 @@ public class Ordered extends DitheringAlgorithm
     };
   }
   @Override
-  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  protected Threshold createThreshold(GreyscaleRaster src)
   {
-    int width = src.getWidth();
-    int height = src.getHeight();
     int[][] filter = getThresholdMatrix();
     int nPatWid = filter.length;
+    return (x, y, grey) -> grey < filter[x % nPatWid][y % nPatWid];
+  }
 
-
-    int x;
-    int y;
-    int pixelcount = 0;
-
-    for (y = 0; y < (height - nPatWid); y = y + nPatWid)
-    {
-
-      for (x = 0; x < (width - nPatWid); x = x + nPatWid)
-      {
-
-        for (int xdelta = 0; xdelta < nPatWid; xdelta++)
-        {
-          for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
-      }
-      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
-      {
-        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-        {
-
-          if (((x + xdelta) < width) && ((y + ydelta) < height))
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (height));
-    }
-
-    // y is at max; loop through x
-    for (x = 0; x < (width); x = x + nPatWid)
-    {
-      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
-      {
-        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
-        {
-
-          if (((x + xdelta) < width) && ((y + ydelta) < height))
-          {
-            this.setBlack(src, target, x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
-          }
-        }
-      }
-    }
+  @Override
+  protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
+  {
+    ditherPixelwise(src, target, 0, 100, createThreshold(src));
   }
 
   @Override
@@ -20,6 +20,7 @@ package de.thomas_oster.liblasercut.dithering;
 
 import de.thomas_oster.liblasercut.BlackWhiteRaster;
 import de.thomas_oster.liblasercut.GreyscaleRaster;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  *
@@ -28,25 +29,16 @@ import de.thomas_oster.liblasercut.GreyscaleRaster;
 public class Random extends DitheringAlgorithm
 {
 
+  @Override
+  protected Threshold createThreshold(GreyscaleRaster src)
+  {
+    return (x, y, grey) -> grey < ThreadLocalRandom.current().nextInt(256);
+  }
+
   @Override
   protected void doDithering(GreyscaleRaster src, BlackWhiteRaster target) throws InterruptedException
   {
-    int width = src.getWidth();
-    int height = src.getHeight();
-    int pixelcount = 0;
-    java.util.Random r = new java.util.Random();
-
-    for (int y = 0; y < height; y++)
-    {
-      for (int x = 0; x < width; x++)
-      {
-        this.setBlack(src, target, x, y, src.getGreyScale(x, y) < r.nextInt(256));
-      }
-      if (Thread.interrupted()) {
-        throw new InterruptedException();
-      }
-      setProgress((100 * pixelcount++) / (height));
-    }
+    ditherPixelwise(src, target, 0, 100, createThreshold(src));
   }
 
   @Override
@@ -232,7 +232,7 @@ public class Dummy extends LaserCutter {
           if (p instanceof VectorPart)
           {
             System.out.println("VectorPart");
-            for (VectorCommand cmd : ((VectorPart) p).getCommandList())
+            for (VectorPart.Cursor cmd = ((VectorPart) p).cursor(); cmd.next();)
             {
               if (cmd.getType() == VectorCommand.CmdType.SETPROPERTY)
               {
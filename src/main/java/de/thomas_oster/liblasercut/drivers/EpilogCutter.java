@@ -27,13 +27,15 @@ package de.thomas_oster.liblasercut.drivers;
 import de.thomas_oster.liblasercut.*;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.OrderedParallelEncoder;
+import de.thomas_oster.liblasercut.utils.PackBitsEncoder;
+import de.thomas_oster.liblasercut.utils.SpillingOutputStream;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -56,6 +58,8 @@ abstract class EpilogCutter extends LaserCutter
   private boolean autofocus = false;
   /** Not all epilogs support focusing laser commands.  Setting this true will hide it in the UI. */
   private boolean hideSoftwareFocus = false;
+  /** Encode the parts of a job concurrently, see OrderedParallelEncoder */
+  private boolean parallelEncoding = false;
   private transient InputStream in;
   private transient OutputStream out;
 
@@ -107,6 +111,16 @@ abstract class EpilogCutter extends LaserCutter
     this.hideSoftwareFocus = sf;
   }
 
+  public boolean isParallelEncoding()
+  {
+    return this.parallelEncoding;
+  }
+
+  public void setParallelEncoding(boolean parallelEncoding)
+  {
+    this.parallelEncoding = parallelEncoding;
+  }
+
   @Override
   public LaserProperty getLaserPropertyForVectorPart() {
     return new PowerSpeedFocusFrequencyProperty(isHideSoftwareFocus());
@@ -159,10 +173,8 @@ abstract class EpilogCutter extends LaserCutter
 
   }
 
-  private byte[] generatePjlHeader(LaserJob job, double resolution) throws UnsupportedEncodingException
+  private void writePjlHeader(LaserJob job, double resolution, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     /* Print the printer job language header. */
     out.printf("\033%%-12345X@PJL JOB NAME=%s\r\n", job.getTitle());
     out.print("\033E@PJL ENTER LANGUAGE=PCL\r\n");
@@ -194,13 +206,10 @@ abstract class EpilogCutter extends LaserCutter
     out.print("\033*p0X");
     /* Y position = 0 */
     out.print("\033*p0Y");
-    return result.toByteArray();
   }
 
-  private byte[] generatePjlFooter() throws UnsupportedEncodingException
+  private void writePjlFooter(PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
 
     /* Footer for printer job language. */
     /* Reset */
@@ -209,10 +218,9 @@ abstract class EpilogCutter extends LaserCutter
     out.print("\033%-12345X");
     /* End job. */
     out.print("@PJL EOJ \r\n");
-    return result.toByteArray();
   }
 
-  private void sendPjlJob(LaserJob job, byte[] pjlData) throws UnknownHostException, UnsupportedEncodingException, IOException, Exception
+  private void sendPjlJob(LaserJob job, SpillingOutputStream pjlData) throws UnknownHostException, UnsupportedEncodingException, IOException, Exception
   {
     String localhost;
     try
@@ -240,10 +248,11 @@ abstract class EpilogCutter extends LaserCutter
     out.append((char) 0);
     waitForResponse(0);
     /* Send the Job length and name to the queue */
-    out.printf("\003%d dfA%s%s\n", pjlData.length, job.getName(), localhost);
+    out.printf("\003%d dfA%s%s\n", pjlData.size(), job.getName(), localhost);
     waitForResponse(0);
     /* Send the real PJL Job */
-    out.write(pjlData);
+    pjlData.writeTo(out);
+    out.flush();
     waitForResponse(0);
   }
 
@@ -288,7 +297,7 @@ abstract class EpilogCutter extends LaserCutter
     {
       if (p instanceof VectorPart)
       {
-        for (VectorCommand cmd : ((VectorPart) p).getCommandList())
+        for (VectorPart.Cursor cmd = ((VectorPart) p).cursor(); cmd.next();)
         {
           if (cmd.getType() == VectorCommand.CmdType.SETPROPERTY)
           {
@@ -358,17 +367,21 @@ abstract class EpilogCutter extends LaserCutter
   {
     String nb = count > 1 ? "("+number+"/"+count+")" : "";
     pl.taskChanged(this, "generating"+nb);
-    //Generate all the data
-    byte[] pjlData = generatePjlData(job);
-    pl.progressChanged(this, (int) ((double) 40*number/count));
-    //connect to lasercutter
-    pl.taskChanged(this, "connecting"+nb);
-    connect();
-    pl.progressChanged(this, (int) ((double) 60*number/count));
-    //send job
-    pl.taskChanged(this, "sending"+nb);
-    sendPjlJob(job, pjlData);
-    pl.progressChanged(this, (int) ((double) 90*number/count));
+    //Generate all the data. LPD needs the length before the data, so
+    //large jobs are buffered on disk instead of in memory
+    try (SpillingOutputStream pjlData = new SpillingOutputStream())
+    {
+      writePjlData(job, pjlData);
+      pl.progressChanged(this, (int) ((double) 40*number/count));
+      //connect to lasercutter
+      pl.taskChanged(this, "connecting"+nb);
+      connect();
+      pl.progressChanged(this, (int) ((double) 60*number/count));
+      //send job
+      pl.taskChanged(this, "sending"+nb);
+      sendPjlJob(job, pjlData);
+      pl.progressChanged(this, (int) ((double) 90*number/count));
+    }
     //disconnect
     disconnect();
   }
@@ -435,7 +448,9 @@ abstract class EpilogCutter extends LaserCutter
   abstract public List<Double> getResolutions();
 
   /**
-   * Encodes the given line of the given image in TIFF Packbyte encoding
+   * Encodes the given line of the given image in TIFF Packbyte encoding.
+   * The raster code uses PackBitsEncoder, which produces the same output
+   * without boxing every byte.
    */
   public void encode(List<Byte> line, List<Byte> result)
   {
@@ -474,10 +489,8 @@ abstract class EpilogCutter extends LaserCutter
     }
   }
 
-  private byte[] generateRaster3dPCL(Raster3dPart rp) throws UnsupportedEncodingException, IOException
+  private void writeRaster3dPCL(Raster3dPart rp, PrintStream out) throws IOException
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     if (rp != null)
     {
       EpilogEngraveProperty prop = (EpilogEngraveProperty) rp.getLaserProperty();
@@ -510,75 +523,72 @@ abstract class EpilogCutter extends LaserCutter
       out.print("\033*r1A");
       Point sp = rp.getRasterStart();
       boolean leftToRight = true;
-      ByteArrayList line = new ByteArrayList(rp.getRasterWidth());
-      ByteArrayList encoded = new ByteArrayList(rp.getRasterWidth());
+      int width = rp.getRasterWidth();
+      byte[] line = new byte[width];
+      PackBitsEncoder encoder = new PackBitsEncoder();
       for (int y = bu ? rp.getRasterHeight()-1 : 0; bu ? y >= 0 : y < rp.getRasterHeight(); y += bu ? -1 : 1)
       {
-        rp.getInvertedRasterLine(y, line);
-        for (int n = 0; n < line.size(); n++)
+        rp.getImage().readRow(y, line);
+        for (int n = 0; n < width; n++)
         {//Apperantly the other power settings are ignored, so we have to scale
-          int x = line.get(n);
-          x = x >= 0 ? x : 256 + x;
+          int x = 255 - (line[n] & 0xFF);
           int scalex = x * (int) prop.getPower() / 100;
-          byte bx = (byte) (scalex < 128 ? scalex : scalex - 256);
-          line.set(n, bx);
+          line[n] = (byte) (scalex < 128 ? scalex : scalex - 256);
         }
-        //Remove leading zeroes, but keep track of the offset
+        //Skip leading and trailing zeroes, but keep track of the offset
         int jump = 0;
-
-        while (line.size() > 0 && line.get(0) == 0)
+        while (jump < width && line[jump] == 0)
         {
-          line.remove(0);
           jump++;
         }
-        //Remove trailing zeroes
-        while (line.size() > 0 && line.get(line.size()-1) == 0)
+        int end = width;
+        while (end > jump && line[end-1] == 0)
         {
-          line.remove(line.size()-1);
+          end--;
         }
-        if (line.size() > 0)
+        if (end > jump)
         {
           out.printf("\033*p%dX", (int) sp.x + jump);
           out.printf("\033*p%dY", (int) sp.y + y);
-          if (leftToRight)
-          {
-            out.printf("\033*b%dA", line.size());
-          }
-          else
-          {
-            out.printf("\033*b%dA", -line.size());
-            Collections.reverse(line);
-          }
-          encode(line, encoded);
-          int len = encoded.size();
-          int pcks = len / 8;
-          if (len % 8 > 0)
-          {
-            pcks++;
-          }
-          out.printf("\033*b%dW", pcks * 8);
-          for (byte s : encoded)
-          {
-            out.write(s);
-          }
-          for (int k = 0; k < 8 - (len % 8); k++)
-          {
-            out.write((byte) 128);
-          }
+          out.printf("\033*b%dA", leftToRight ? end - jump : jump - end);
+          writeEncodedRasterLine(encoder, line, jump, end, !leftToRight, out);
           leftToRight = !leftToRight;
         }
       }
       out.print("\033*rC");       // end raster
     }
-    return result.toByteArray();
   }
 
-  private byte[] generateDummyRaster(JobPart jp) throws UnsupportedEncodingException
+  /**
+   * Writes line[from] ... line[to - 1] (reversed for right to left) in TIFF
+   * encoding, padded to a multiple of 8 bytes
+   */
+  private void writeEncodedRasterLine(PackBitsEncoder encoder, byte[] line, int from, int to, boolean reversed, PrintStream out)
+  {
+    int len = encoder.encode(line, from, to, reversed);
+    int pcks = len / 8;
+    if (len % 8 > 0)
+    {
+      pcks++;
+    }
+    /*
+      Number of Pixels in a row??
+      or b2m%dW for TIFF encoding?
+      Or number of Bytes in a row? who knows
+      in ctrl-cut its number of packed bytes
+     */
+    out.printf("\033*b%dW", pcks * 8);
+    out.write(encoder.getBuffer(), 0, len);
+    for (int k = 0; k < 8 - (len % 8); k++)
+    {
+      out.write((byte) 128);
+    }
+  }
+
+  private void writeDummyRaster(JobPart jp, PrintStream out)
   {
     EpilogEngraveProperty prop = new EpilogEngraveProperty();
     boolean bu = prop.isEngraveBottomUp();
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     /* PCL/RasterGraphics resolution. */
     out.printf("\033*t%dR", (int) jp.getDPI());
     /* Raster Orientation: Printed in current direction */
@@ -606,15 +616,12 @@ abstract class EpilogCutter extends LaserCutter
     /* start at current position */
     out.print("\033*r1A");
     out.print("\033*rC");       // end raster
-    return result.toByteArray();
   }
 
-  private byte[] generateRasterPCL(RasterPart rp) throws UnsupportedEncodingException, IOException
+  private void writeRasterPCL(RasterPart rp, PrintStream out) throws IOException
   {
     EpilogEngraveProperty prop = (EpilogEngraveProperty) rp.getLaserProperty();
     boolean bu = prop.isEngraveBottomUp();
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     /* PCL/RasterGraphics resolution. */
     out.printf("\033*t%dR", (int) rp.getDPI());
     /* Raster Orientation: Printed in current direction */
@@ -646,82 +653,46 @@ abstract class EpilogCutter extends LaserCutter
     {
       Point sp = rp.getRasterStart();
       boolean leftToRight = true;
-      ByteArrayList line = new ByteArrayList(rp.getRasterWidth());
-      ByteArrayList encoded = new ByteArrayList(rp.getRasterWidth());
+      byte[] line = null;
+      PackBitsEncoder encoder = new PackBitsEncoder();
       for (int y = bu ? rp.getRasterHeight()-1 : 0; bu ? y >= 0 : y < rp.getRasterHeight(); y += bu ? -1 : 1)
       {
-        rp.getRasterLine(y, line);
-        //Remove leading zeroes, but keep track of the offset
+        line = rp.getRasterLine(y, line);
+        //Skip leading and trailing zeroes, but keep track of the offset
         int jump = 0;
-        while (line.size() > 0 && line.get(0) == 0)
+        while (jump < line.length && line[jump] == 0)
         {
-          line.remove(0);
           jump++;
         }
-        //Remove trailing zeroes
-        while (line.size() > 0 && line.get(line.size()-1) == 0)
+        int end = line.length;
+        while (end > jump && line[end-1] == 0)
         {
-          line.remove(line.size()-1);
+          end--;
         }
-        if (line.size() > 0)
+        if (end > jump)
         {
           out.printf("\033*p%dX", (int) sp.x + jump * 8); // FIXME probably not correct if we use a nonzero starting point (origin)
           out.printf("\033*p%dY", (int) sp.y + y); // FIXME probably not correct if we use a nonzero starting point (origin)
-          if (leftToRight)
-          {
-            out.printf("\033*b%dA", line.size());
-          }
-          else
-          {
-            out.printf("\033*b%dA", -line.size());
-            Collections.reverse(line);
-          }
-          encode(line, encoded);
-          int len = encoded.size();
-          int pcks = len / 8;
-          if (len % 8 > 0)
-          {
-            pcks++;
-          }
-          /*
-            Number of Pixels in a row??
-            or b2m%dW for TIFF encoding?
-            Or number of Bytes in a row? who knows
-            in ctrl-cut its number of packed bytes
-           */
-          out.printf("\033*b%dW", pcks * 8);
-          for (byte s : encoded)
-          {
-            out.write(s);
-          }
-          for (int k = 0; k < 8 - (len % 8); k++)
-          {
-            out.write((byte) 128);
-          }
+          out.printf("\033*b%dA", leftToRight ? end - jump : jump - end);
+          writeEncodedRasterLine(encoder, line, jump, end, !leftToRight, out);
           leftToRight = !leftToRight;
         }
       }
     }
     out.print("\033*rC");       // end raster
-    return result.toByteArray();
   }
 
-  private byte[] generateDummyVector(double dpi) throws UnsupportedEncodingException
+  private void writeDummyVector(double dpi, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     out.print("\033%1B");// Start HPGL
     out.print("IN;");
     //Reset Focus to 0
     out.printf("WF%d;", 0);
-    return result.toByteArray();
   }
 
-  private byte[] generateVectorPCL(VectorPart vp) throws UnsupportedEncodingException
+  private void writeVectorPCL(VectorPart vp, PrintStream out)
   {
     //TODO: Test if the resolution settings have an effect
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     /* Resolution of the print. Number of Units/Inch*/
     out.print("\033%1B");// Start HPGL
     out.print("IN;");
@@ -733,7 +704,7 @@ abstract class EpilogCutter extends LaserCutter
       Integer currentFrequency = null;
       Float currentFocus = null;
       VectorCommand.CmdType lastType = null;
-      for (VectorCommand cmd : vp.getCommandList())
+      for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
       {
         if (lastType == VectorCommand.CmdType.LINETO && cmd.getType() != VectorCommand.CmdType.LINETO)
         {
@@ -789,47 +760,70 @@ abstract class EpilogCutter extends LaserCutter
     }
     //Reset Focus to 0
     out.printf("WF%d;", 0);
-    return result.toByteArray();
   }
 
-  private byte[] generatePjlData(LaserJob job) throws UnsupportedEncodingException, IOException
+  private void writePartPCL(JobPart p, PrintStream out) throws IOException
+  {
+    if (p instanceof VectorPart)
+    {
+      writeVectorPCL((VectorPart) p, out);
+    }
+    else if (p instanceof RasterPart)
+    {
+      writeRasterPCL((RasterPart) p, out);
+    }
+    else if (p instanceof Raster3dPart)
+    {
+      writeRaster3dPCL((Raster3dPart) p, out);
+    }
+  }
+
+  /**
+   * Encodes the complete PJL job part by part into the given stream
+   */
+  private void writePjlData(LaserJob job, OutputStream sink) throws IOException
   {
-    /* Generate complete PJL Job */
-    ByteArrayOutputStream pjlJob = new ByteArrayOutputStream();
-    PrintStream wrt = new PrintStream(pjlJob, true, StandardCharsets.US_ASCII);
+    PrintStream wrt = new PrintStream(sink, false, StandardCharsets.US_ASCII);
 
-    wrt.write(generatePjlHeader(job, job.getParts().get(0).getDPI()));
+    writePjlHeader(job, job.getParts().get(0).getDPI(), wrt);
     if (! (job.getParts().get(0) instanceof RasterPart))
     {//we need an empty raster part as begin of all jobs
-      wrt.write(generateDummyRaster(job.getParts().get(0)));
+      writeDummyRaster(job.getParts().get(0), wrt);
     }
-    for (JobPart p : job.getParts())
+    if (isParallelEncoding())
     {
-      if (p instanceof VectorPart)
-      {
-        wrt.write(generateVectorPCL((VectorPart) p));
-      }
-      else if (p instanceof RasterPart)
+      // the part writers keep their state in local variables, so they can run concurrently
+      OrderedParallelEncoder.encode(job.getParts(), p ->
       {
-        wrt.write(generateRasterPCL((RasterPart) p));
-      }
-      else if (p instanceof Raster3dPart)
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        PrintStream partOut = new PrintStream(result, false, StandardCharsets.US_ASCII);
+        writePartPCL(p, partOut);
+        partOut.flush();
+        return result;
+      }, encoded -> encoded.writeTo(wrt));
+    }
+    else
+    {
+      for (JobPart p : job.getParts())
       {
-        wrt.write(generateRaster3dPCL((Raster3dPart) p));
+        writePartPCL(p, wrt);
       }
     }
     if (! (job.getParts().get(job.getParts().size()-1) instanceof VectorPart))
     {
-      wrt.write(generateDummyVector(job.getParts().get(job.getParts().size()-1).getDPI()));
+      writeDummyVector(job.getParts().get(job.getParts().size()-1).getDPI(), wrt);
     }
-    wrt.write(generatePjlFooter());
+    writePjlFooter(wrt);
     /* Pad out the remainder of the file with 0 characters. */
     for (int i = 0; i < 4096; i++)
     {
       wrt.append((char) 0);
     }
     wrt.flush();
-    return pjlJob.toByteArray();
+    if (wrt.checkError())
+    {
+      throw new IOException("Error writing PJL data");
+    }
   }
 
   public int getPort()
@@ -869,6 +863,10 @@ abstract class EpilogCutter extends LaserCutter
     {
       return this.isHideSoftwareFocus();
     }
+    else if ("EncodePartsInParallel".equals(attribute))
+    {
+      return this.isParallelEncoding();
+    }
     return null;
   }
   protected double bedWidth = 600;
@@ -943,13 +941,18 @@ abstract class EpilogCutter extends LaserCutter
     {
       this.setHideSoftwareFocus((Boolean) value);
     }
+    else if ("EncodePartsInParallel".equals(attribute))
+    {
+      this.setParallelEncoding((Boolean) value);
+    }
   }
   private static final String[] attributes = new String[]
   {
     // The slightly awkward wording of SoftwareFocusNotSupported is to handle importing old settings
     // without disabling functionality.  Internally it is stored as hideSoftwareFocus, which removes
     // it from the UI when software focus is not supported.
-    "Hostname", "Port", "BedWidth", "BedHeight", "AutoFocus", "SoftwareFocusNotSupported"
+    "Hostname", "Port", "BedWidth", "BedHeight", "AutoFocus", "SoftwareFocusNotSupported",
+    "EncodePartsInParallel"
   };
 
   @Override
@@ -985,7 +988,9 @@ abstract class EpilogCutter extends LaserCutter
   public void saveJob(OutputStream fileOutputStream, LaserJob job) throws UnsupportedOperationException, IllegalJobException, Exception {
     // TODO: there is currently no way to report warnings with saveJob().
     checkJobAndApplyStartPoint(job, new LinkedList<>());
-    byte[] pjlData = generatePjlData(job);
-    fileOutputStream.write(pjlData);
+    try (OutputStream sink = openStreamingSink(fileOutputStream))
+    {
+      writePjlData(job, sink);
+    }
   }
 }
@@ -25,14 +25,18 @@ import de.thomas_oster.liblasercut.LaserCutter;
 import de.thomas_oster.liblasercut.LaserJob;
 import de.thomas_oster.liblasercut.LaserProperty;
 import de.thomas_oster.liblasercut.ProgressListener;
-import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.OrderedParallelEncoder;
+import de.thomas_oster.liblasercut.utils.SpillingOutputStream;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
@@ -41,6 +45,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.zip.Deflater;
 
 
@@ -93,15 +99,26 @@ public class FullSpectrumCutter extends LaserCutter
   }
   
   /**
-   * convert LaserJob to "Full Spectrum" network packet
+   * convert LaserJob to "Full Spectrum" network packet and write it to out
    */
-  private ByteArrayOutputStream jobToFullPacket(LaserJob job, List<String> warnings) throws IllegalJobException, IOException
+  private void writeFullPacket(LaserJob job, List<String> warnings, OutputStream out) throws IllegalJobException, IOException
   {
     if (warnings == null)
     {
       warnings = new ArrayList<>();
     }
-    ByteArrayOutputStream bosRawCmds = new ByteArrayOutputStream();
+    // the packet needs the total length of the commands before them,
+    // so large jobs are buffered on disk
+    try (SpillingOutputStream bosRawCmds = new SpillingOutputStream())
+    {
+      writeRawCmds(job, warnings, bosRawCmds);
+      // feeds the commands into packet generator
+      writePacket(bosRawCmds, out);
+    }
+  }
+
+  private void writeRawCmds(LaserJob job, List<String> warnings, OutputStream bosRawCmds) throws IllegalJobException, IOException
+  {
     float power = 0;
     float speed = 100;
     float moving_speed = getMaxVectorMoveSpeed();
@@ -123,7 +140,7 @@ public class FullSpectrumCutter extends LaserCutter
         //get the real interface
         VectorPart vp = (VectorPart) p;
         //iterate over command list
-        for (VectorCommand cmd : vp.getCommandList())
+        for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
         {
           //There are three types of commands: MOVETO, LINETO and SETPROPERTY
           switch (cmd.getType())
@@ -183,11 +200,6 @@ public class FullSpectrumCutter extends LaserCutter
         }
       }
     }
-        
-    // feeds the commands into packet generator
-    ByteArrayOutputStream bosFullPacket = new ByteArrayOutputStream();
-    bosFullPacket.write(generatePacket(bosRawCmds.toByteArray()));
-    return bosFullPacket;
   }
   
   /**
@@ -202,49 +214,53 @@ public class FullSpectrumCutter extends LaserCutter
   {
     pl.progressChanged(this, 0);
     pl.taskChanged(this, "processing job");
-    ByteArrayOutputStream bosFullPacket = jobToFullPacket(job, warnings);
-    
     BufferedOutputStream italkout;
     BufferedOutputStream jobout;
     BufferedInputStream italkin;
+    Socket connection;
     
-    // connect to italk
-    pl.taskChanged(this, "connecting");
-    System.out.println("begin connection");
-    
-    Socket connection=new Socket();
-    connection.connect(new InetSocketAddress(hostname, 12345), 3000);
-    italkout = new BufferedOutputStream(connection.getOutputStream());
-    italkin = new BufferedInputStream(connection.getInputStream()); 
-    receiveResponse(italkin);
-    pl.taskChanged(this, "sending");
-    
-    // sending protocol
-    sendTextCmd("xjob\n",italkout);
-    receiveResponse(italkin);
-    
-    // send: "immediate <size packet>\n"
-    String msgSize = "immediate " +
-            bosFullPacket.toByteArray().length +
-            "\n";
-    sendTextCmd(msgSize,italkout);
-    receiveResponse(italkin);
-    
-    sendTextCmd("data\n",italkout);
-    receiveResponse(italkin);
-    
-    // connect and send packet to port 12346
-    Socket jobconn = new Socket();
-    jobconn.connect(new InetSocketAddress(hostname, 12346), 3000);
-    
-    sendTextCmd("sending\n",italkout);
-    receiveResponse(italkin);
-    
-    jobout = new BufferedOutputStream(jobconn.getOutputStream());
-    jobout.write(bosFullPacket.toByteArray());
-    jobout.flush();
-    jobout.close();
-    jobconn.close();
+    try (SpillingOutputStream bosFullPacket = new SpillingOutputStream())
+    {
+      writeFullPacket(job, warnings, bosFullPacket);
+    
+      // connect to italk
+      pl.taskChanged(this, "connecting");
+      System.out.println("begin connection");
+    
+      connection=new Socket();
+      connection.connect(new InetSocketAddress(hostname, 12345), 3000);
+      italkout = new BufferedOutputStream(connection.getOutputStream());
+      italkin = new BufferedInputStream(connection.getInputStream()); 
+      receiveResponse(italkin);
+      pl.taskChanged(this, "sending");
+    
+      // sending protocol
+      sendTextCmd("xjob\n",italkout);
+      receiveResponse(italkin);
+    
+      // send: "immediate <size packet>\n"
+      String msgSize = "immediate " +
+              bosFullPacket.size() +
+              "\n";
+      sendTextCmd(msgSize,italkout);
+      receiveResponse(italkin);
+    
+      sendTextCmd("data\n",italkout);
+      receiveResponse(italkin);
+    
+      // connect and send packet to port 12346
+      Socket jobconn = new Socket();
+      jobconn.connect(new InetSocketAddress(hostname, 12346), 3000);
+    
+      sendTextCmd("sending\n",italkout);
+      receiveResponse(italkin);
+    
+      jobout = new BufferedOutputStream(jobconn.getOutputStream());
+      bosFullPacket.writeTo(jobout);
+      jobout.flush();
+      jobout.close();
+      jobconn.close();
+    }
     
     receiveResponse(italkin);
     
@@ -269,7 +285,10 @@ public class FullSpectrumCutter extends LaserCutter
   @Override
   public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IOException, IllegalJobException
   {
-    fileOutputStream.write(jobToFullPacket(job, null).toByteArray());
+    try (OutputStream out = openStreamingSink(fileOutputStream))
+    {
+      writeFullPacket(job, null, out);
+    }
   }
   
   
@@ -311,22 +330,18 @@ public class FullSpectrumCutter extends LaserCutter
   
   
   /**
-   * Generates the full packet to send, given a set of raw machine commands.
-   * @return the packet as a byte array
+   * Writes the full packet to send, given a set of raw machine commands.
    */
-  private byte[] generatePacket(byte[] rawCmds)throws IOException
+  private void writePacket(SpillingOutputStream rawCmds, OutputStream packet)throws IOException
   {
     byte[] header;
-    ByteArrayOutputStream packet = new ByteArrayOutputStream();
 
     // header
     header = generateHeader();
     packet.write(header);
     
     // job compressed contents
-    packet.write(jobContents(rawCmds));
-    
-    return packet.toByteArray();
+    writeJobContents(rawCmds, packet);
   }
   
   
@@ -414,18 +429,15 @@ public class FullSpectrumCutter extends LaserCutter
   
   
   /**
-   * Generates the load of the packet(packet=header+load) given a set of raw machine commands.
+   * Writes the load of the packet(packet=header+load) given a set of raw machine commands.
    */
-  private byte[] jobContents(byte[] rawCmds)throws IOException
+  private void writeJobContents(SpillingOutputStream rawCmds, OutputStream jobload)throws IOException
   {
     byte numberSubpackets; // number of additional subpackets
     int remainder; // remainder of commands
-    
-    ByteArrayOutputStream jobrawload = new ByteArrayOutputStream();
-    ByteArrayOutputStream jobload = new ByteArrayOutputStream();
 
-    numberSubpackets=(byte)((rawCmds.length+8)/0x40000);
-    remainder=((rawCmds.length %0x40000)/4);
+    numberSubpackets=(byte)((rawCmds.size()+8)/0x40000);
+    remainder=(int) ((rawCmds.size() %0x40000)/4);
 
     /* 
     The first step is to add a little header(raw_header) to the raw machine commands
@@ -447,12 +459,6 @@ public class FullSpectrumCutter extends LaserCutter
     bb.putShort((short)(remainder));
     bb.put(numberSubpackets);
     bb.put((byte)0);
-    jobrawload.write(bb.array());
-    
-    // add raw commands
-    jobrawload.write(rawCmds);
-    
-    byte[] raw_job = jobrawload.toByteArray(); // uncompressed raw_header and commands
     
     /* the final packet has the form 
     header + (number of subpackets = numberSubpackets+1) + 00 00
@@ -469,71 +475,102 @@ public class FullSpectrumCutter extends LaserCutter
     bb1.put(new byte[] {0,0}); 
     jobload.write(bb1.array());
     
-    // Then add the zlib strings one by one
+    // uncompressed raw_header and commands, read one subpacket at a time
+    // and compressed concurrently, the zlib strings are added in order:
     // "<size> 00 00 <zlib_string>"
-    for(int kk=0; kk<numberSubpackets;kk++)
+    int threads = OrderedParallelEncoder.getDefaultThreads();
+    Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    try (InputStream raw_job = new SequenceInputStream(new ByteArrayInputStream(bb.array()), rawCmds.openInputStream()))
     {
-      // first portion to compress
-      byte[] tmpsub = Arrays.copyOfRange(raw_job, kk*0x40000, (kk+1)*0x40000); 
-      
-      compress_sub(tmpsub, jobload);
+      int fullSubpackets = Math.max(0, numberSubpackets);
+      int[] read = {0};
+      OrderedParallelEncoder.encode(() ->
+      {
+        if (read[0] > fullSubpackets)
+        {
+          return null;
+        }
+        // the last portion holds the remaining bytes, padded with zeroes
+        byte[] tmpsub = new byte[read[0] < fullSubpackets ? 0x40000 : (remainder+2)*4];
+        raw_job.readNBytes(tmpsub, 0, tmpsub.length);
+        read[0]++;
+        return tmpsub;
+      }, tmpsub ->
+      {
+        // one Deflater per thread, reused for the following subpackets
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+        {
+          deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        }
+        try
+        {
+          return compress_sub(deflater, tmpsub);
+        }
+        finally
+        {
+          deflater.reset();
+          deflaters.add(deflater);
+        }
+      }, zlibString -> write_sub(zlibString, jobload), threads, 2 * threads);
+    }
+    finally
+    {
+      for (Deflater deflater : deflaters)
+      {
+        deflater.end();
+      }
     }
-    
-    // last portion to compress (remaining bytes)
-    byte[] tmpsub = Arrays.copyOfRange(raw_job, numberSubpackets*0x40000,numberSubpackets*0x40000+(remainder+2)*4 ); 
-    
-    compress_sub(tmpsub, jobload);
-    
-    return jobload.toByteArray();
   }
-  
+
   /**
-   * Compresses a byte array/subpacket with zlib, removes the first two bytes of the result
-   * writes the new size and the resulting zlib string
-   * zlib_string.length + 00 00 + zlib_string
-   * to a ByteArrayOutputStream
+   * Compresses a byte array/subpacket with zlib
+   * @param deflater a Deflater, which is reset by the caller afterwards
    * @param tmpsub Array to compress
-   * @param jobload ByteArrayOutputStream where the result will be written
+   * @return the zlib string (between position 0 and the limit)
    */
-  
-  private void compress_sub(byte [] tmpsub, ByteArrayOutputStream jobload) throws IOException
+  private static ByteBuffer compress_sub(Deflater deflater, byte[] tmpsub)
   {
-    // begin compression
-      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
-      deflater.setInput(tmpsub);
-      deflater.finish();
-      ByteArrayOutputStream bos = new ByteArrayOutputStream(tmpsub.length);
-      byte[] buffer = new byte[1024];
-      while(!deflater.finished())
-      {
-                    int bytesCompressed = deflater.deflate(buffer);
-                    bos.write(buffer,0,bytesCompressed);
-      }
-      try
-      {
-        bos.close();
-      }
-      catch(IOException ioe)
+    deflater.setInput(tmpsub);
+    deflater.finish();
+    // zlib's compressBound(), so usually one call is enough
+    int bound = tmpsub.length + (tmpsub.length >> 12) + (tmpsub.length >> 14) + (tmpsub.length >> 25) + 13;
+    byte[] zlibString = new byte[bound];
+    int length = 0;
+    while (!deflater.finished())
+    {
+      if (length == zlibString.length)
       {
-        System.out.println("Error while closing the stream : " + ioe);
+        zlibString = Arrays.copyOf(zlibString, 2 * zlibString.length);
       }
+      length += deflater.deflate(zlibString, length, zlibString.length - length);
+    }
+    return ByteBuffer.wrap(zlibString, 0, length);
+  }
 
-      //get the compressed byte array from output stream
-      byte[] zlibString = bos.toByteArray();
-      
-      // add the size of the zlib string and 00 00
-      ByteBuffer bb2 = ByteBuffer.allocate(4);
-      bb2.order(ByteOrder.LITTLE_ENDIAN);
-      bb2.putShort((short)(zlibString.length-2));
-      bb2.putShort((short)0);
+  /**
+   * Removes the first two bytes of a zlib string and
+   * writes the new size and the resulting zlib string
+   * zlib_string.length + 00 00 + zlib_string
+   * to an OutputStream
+   * @param zlibString result of compress_sub()
+   * @param jobload OutputStream where the result will be written
+   */
+  private static void write_sub(ByteBuffer zlibString, OutputStream jobload) throws IOException
+  {
+    // add the size of the zlib string and 00 00
+    ByteBuffer bb2 = ByteBuffer.allocate(4);
+    bb2.order(ByteOrder.LITTLE_ENDIAN);
+    bb2.putShort((short)(zlibString.limit()-2));
+    bb2.putShort((short)0);
 
-      // "<size of zlib string>  00 00"
-      jobload.write(bb2.array());
+    // "<size of zlib string>  00 00"
+    jobload.write(bb2.array());
 
-      // write the result without the first two bytes
-      jobload.write(Arrays.copyOfRange(zlibString,2,zlibString.length));
+    // write the result without the first two bytes
+    jobload.write(zlibString.array(), 2, zlibString.limit()-2);
   }
-  
+
   /**
    * Interpolator, given an initial point (x_start,y_start) and a destination point (x_dest,y_dest)
  with a given power and speed, x+ direction is to the right and
@@ -28,8 +28,11 @@ import de.thomas_oster.liblasercut.OptionSelector;
 import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.ProgressListenerDummy;
 import de.thomas_oster.liblasercut.RasterizableJobPart;
+import de.thomas_oster.liblasercut.utils.CharacterCountingSender;
+import de.thomas_oster.liblasercut.utils.GcodeWriter;
 import de.thomas_oster.liblasercut.utils.LinefeedPrintStream;
-import de.thomas_oster.liblasercut.VectorCommand;
+import de.thomas_oster.liblasercut.utils.OrderedParallelEncoder;
+import de.thomas_oster.liblasercut.utils.PathCompactor;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Util;
 import net.sf.corn.httpclient.HttpClient;
@@ -60,6 +63,9 @@ import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This class implements a driver for a generic GRBL GCode Lasercutter.
@@ -88,14 +94,19 @@ public class GenericGcodeDriver extends LaserCutter {
   protected static final String SETTING_RESOLUTIONS = "Supported DPI (comma separated)";
   protected static final String SETTING_IDENTIFICATION_STRING = "Board Identification String (startsWith)";
   protected static final String SETTING_WAIT_FOR_OK = "Wait for OK after each line (interactive mode)";
+  protected static final String SETTING_RX_BUFFER_SIZE = "Receive buffer of the board in bytes (0 = wait for each OK)";
   protected static final String SETTING_INIT_DELAY = "Seconds to wait for board reset (Serial)";
   protected static final String SETTING_SERIAL_TIMEOUT = "Milliseconds to wait for response";
   protected static final String SETTING_BLANK_LASER_DURING_RAPIDS = "Force laser off during G0 moves";
+  protected static final String SETTING_PATH_TOLERANCE = "Path tolerance for merging lines (mm, 0 = off)";
+  protected static final String SETTING_USE_ARCS = "Fit arcs (G2/G3) within path tolerance";
   protected static final String SETTING_FILE_EXPORT_PATH = "Path to save exported gcode";
   protected static final String SETTING_USE_BIDIRECTIONAL_RASTERING = "Use bidirectional rastering";
   protected static final String SETTING_SPINDLE_MAX = "S value for 100% laser power";
   protected static final String SETTING_UPLOAD_METHOD = "Upload method";
   protected static final String SETTING_RASTER_PADDING = "Extra padding at ends of raster scanlines (mm)";
+  protected static final String SETTING_NATIVE_RASTER = "Engrave rasters line by line with dynamic power (M4)";
+  protected static final String SETTING_PARALLEL_ENCODING = "Encode job parts in parallel";
 
   protected static final Locale FORMAT_LOCALE = Locale.US;
 
@@ -218,6 +229,24 @@ public class GenericGcodeDriver extends LaserCutter {
     this.waitForOKafterEachLine = waitForOKafterEachLine;
   }
 
+  /**
+   * Size of the receive buffer of the board. If it is positive and
+   * waitForOKafterEachLine is set, lines are sent in advance as long as
+   * the unacknowledged ones fit into the buffer ("character counting"
+   * flow control) instead of waiting for each "ok".
+   */
+  protected int rxBufferSize = 0;
+
+  public int getRxBufferSize()
+  {
+    return rxBufferSize;
+  }
+
+  public void setRxBufferSize(int rxBufferSize)
+  {
+    this.rxBufferSize = Math.max(0, rxBufferSize);
+  }
+
   public String getIdentificationLine()
   {
     return identificationLine;
@@ -396,6 +425,40 @@ public class GenericGcodeDriver extends LaserCutter {
     this.blankLaserDuringRapids = blankLaserDuringRapids;
   }
 
+  /**
+   * If positive, consecutive G1 lines which deviate less than this (in mm)
+   * from a single line or arc are sent as one command. Flattened curves
+   * otherwise produce hundreds of tiny lines, which fill the planner of
+   * the board and slow the machine down.
+   */
+  protected double pathTolerance = 0;
+
+  public double getPathTolerance()
+  {
+    return pathTolerance;
+  }
+
+  public void setPathTolerance(double pathTolerance)
+  {
+    this.pathTolerance = Math.max(0, pathTolerance);
+  }
+
+  /**
+   * Whether runs of lines may be replaced by G2/G3 arcs, which not all
+   * boards support. Only used if pathTolerance is positive.
+   */
+  protected boolean useArcs = false;
+
+  public boolean isUseArcs()
+  {
+    return useArcs;
+  }
+
+  public void setUseArcs(boolean useArcs)
+  {
+    this.useArcs = useArcs;
+  }
+
   /**
    * When rastering, whether to always cut from left to right, or to cut in both
    * directions? (i.e. use the return stroke to raster as well)
@@ -412,6 +475,40 @@ public class GenericGcodeDriver extends LaserCutter {
     this.useBidirectionalRastering = useBidirectionalRastering;
   }
 
+  /**
+   * Whether raster parts are written directly by writeRasterGCode instead
+   * of being converted to a VectorPart first. Needs a board supporting
+   * M4 (laser mode), e.g. Grbl with $32=1.
+   */
+  protected boolean nativeRaster = false;
+
+  public boolean isNativeRaster()
+  {
+    return nativeRaster;
+  }
+
+  public void setNativeRaster(boolean nativeRaster)
+  {
+    this.nativeRaster = nativeRaster;
+  }
+
+  /**
+   * Whether the parts of a job are encoded concurrently (see
+   * OrderedParallelEncoder). Each part then starts with its own S and F
+   * words, because the previous part is not known while it is encoded.
+   */
+  protected boolean parallelEncoding = false;
+
+  public boolean isParallelEncoding()
+  {
+    return parallelEncoding;
+  }
+
+  public void setParallelEncoding(boolean parallelEncoding)
+  {
+    this.parallelEncoding = parallelEncoding;
+  }
+
    /*
    * Value to use for feedrate when laser is 100% on.
    * Varies between firmwares... 1, 100, 255, 10000, etc.
@@ -449,20 +546,36 @@ public class GenericGcodeDriver extends LaserCutter {
   }
 
   protected void writeVectorGCode(VectorPart vp, double resolution) throws UnsupportedEncodingException, IOException {
-    for (VectorCommand cmd : vp.getCommandList()) {
+    PathCompactor compactor = createPathCompactor(resolution);
+    for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();) {
       switch (cmd.getType()) {
         // TODO: x,y should be changed to double because GCode has infinite vector resolution anyway
         case MOVETO:
           int x = (int) cmd.getX();
           int y = (int) cmd.getY();
+          if (compactor != null)
+          {
+            compactor.start(x, y);
+          }
           move(out, x, y, resolution);
           break;
         case LINETO:
           x = (int) cmd.getX();
           y = (int) cmd.getY();
-          line(out, x, y, resolution);
+          if (compactor != null)
+          {
+            compactor.add(x, y);
+          }
+          else
+          {
+            line(out, x, y, resolution);
+          }
           break;
         case SETPROPERTY:
+          if (compactor != null)
+          {
+            compactor.flush();
+          }
           FloatPowerSpeedFocusProperty p = (FloatPowerSpeedFocusProperty) cmd.getProperty();
           setPower(p.getPower());
           setSpeed(p.getSpeed());
@@ -470,12 +583,166 @@ public class GenericGcodeDriver extends LaserCutter {
           break;
       }
     }
+    if (compactor != null)
+    {
+      compactor.flush();
+      linesBeforeCompaction += compactor.getSegmentsIn();
+      linesAfterCompaction += compactor.getCommandsOut();
+    }
+  }
+
+  /**
+   * lines of the current job before and after path compaction
+   */
+  private transient long linesBeforeCompaction;
+  private transient long linesAfterCompaction;
+
+  /**
+   * @return number of G1 lines which path compaction saved in the last
+   * job, 0 if it is off
+   */
+  public long getLinesSavedByPathCompaction()
+  {
+    return linesBeforeCompaction - linesAfterCompaction;
+  }
+
+  /**
+   * Creates the path compactor for a vector part, which passes its result
+   * to line() and arc(), or null if path compaction is off
+   */
+  protected PathCompactor createPathCompactor(double resolution)
+  {
+    if (getPathTolerance() <= 0)
+    {
+      return null;
+    }
+    return new PathCompactor(new PathCompactor.Sink()
+    {
+      @Override
+      public void line(double x, double y) throws IOException
+      {
+        GenericGcodeDriver.this.line(out, x, y, resolution);
+      }
+
+      @Override
+      public void arc(double x, double y, double i, double j, boolean counterClockwise) throws IOException
+      {
+        GenericGcodeDriver.this.arc(out, x, y, i, j, counterClockwise, resolution);
+      }
+    }, Util.mm2px(getPathTolerance(), resolution), isUseArcs());
+  }
+  /**
+   * White gaps in a raster line are crossed with G0 if they are longer
+   * than this (in mm) plus twice the raster padding
+   */
+  protected static final double RASTER_RAPID_GAP = 5;
+
+  /**
+   * Writes a raster part scanline by scanline, without building a
+   * VectorPart. The laser runs in dynamic power mode (M4), so the firmware
+   * scales the power with the actual speed while accelerating. Neighbouring
+   * runs with the same power are sent as one G1 and long white gaps are
+   * crossed with G0.
+   */
+  protected void writeRasterGCode(RasterizableJobPart rp, LaserJob job) throws IOException
+  {
+    double resolution = rp.getDPI();
+    double leftLimitPx = (int) Util.mm2px(job.getTransformedOriginX(), resolution);
+    double rightLimitPx = (int) Util.mm2px(job.getTransformedOriginX() + getBedWidth(), resolution);
+    int overscan = Math.round((float) Util.mm2px(getRasterPadding(), resolution));
+    double rapidGap = 2 * overscan + Util.mm2px(RASTER_RAPID_GAP, resolution);
+    FloatPowerSpeedFocusProperty white = (FloatPowerSpeedFocusProperty) rp.getPowerSpeedFocusPropertyForColor(255);
+    String previousLaserMode = laserMode;
+    sendLine("M4");
+    for (int y = 0; y < rp.getRasterHeight(); y++)
+    {
+      if (rp.lineIsBlank(y))
+      {
+        continue;
+      }
+      double lineY = rp.getStartPosition(y).y;
+      double lineX = rp.getStartPosition(y).x + rp.cutCompensation();
+      int direction = rp.isCutDirectionLeftToRight() ? 1 : -1;
+      int x = rp.firstNonWhitePixel(y);
+      double preStartX = Math.min(rightLimitPx, Math.max(leftLimitPx, lineX + x - direction * overscan));
+      move(out, preStartX, lineY, resolution);
+      rasterLine(lineX + x, lineY, white, resolution);
+      // the run which is not sent yet, to merge it with the next one
+      double pendingX = Double.NaN;
+      FloatPowerSpeedFocusProperty pending = null;
+      while (!rp.hasFinishedCuttingLine(x, y))
+      {
+        int color = rp.getImage().getGreyScale(x, y);
+        int next = rp.nextColorChange(x, y);
+        if (color == 255 && Math.abs(next - x) > rapidGap)
+        {
+          if (pending != null)
+          {
+            rasterLine(pendingX, lineY, pending, resolution);
+            pending = null;
+          }
+          rasterLine(lineX + x + direction * overscan, lineY, white, resolution);
+          move(out, lineX + next - direction * overscan, lineY, resolution);
+          rasterLine(lineX + next, lineY, white, resolution);
+        }
+        else
+        {
+          FloatPowerSpeedFocusProperty p = (FloatPowerSpeedFocusProperty) rp.getPowerSpeedFocusPropertyForColor(color);
+          if (pending != null && !pending.equals(p))
+          {
+            rasterLine(pendingX, lineY, pending, resolution);
+          }
+          pending = p;
+          pendingX = lineX + next;
+        }
+        x = next;
+      }
+      if (pending != null)
+      {
+        rasterLine(pendingX, lineY, pending, resolution);
+      }
+      double postEndX = Math.min(rightLimitPx, Math.max(leftLimitPx, lineX + x + direction * overscan));
+      rasterLine(postEndX, lineY, white, resolution);
+      if (getUseBidirectionalRastering())
+      {
+        rp.toggleRasteringCutDirection();
+      }
+    }
+    // back to the mode sent before (e.g. by the pre-job code), which vector
+    // parts expect, or laser off if none was sent
+    sendLine(previousLaserMode != null ? previousLaserMode : "M5");
+    currentPower = -1;
+    currentSpeed = -1;
+  }
+
+  /**
+   * Sends one G1 of a raster line with the power and speed of p
+   */
+  private void rasterLine(double x, double y, FloatPowerSpeedFocusProperty p, double resolution) throws IOException
+  {
+    setFocus(out, p.getFocus());
+    x = isFlipXaxis() ? getBedWidth() - Util.px2mm(x, resolution) : Util.px2mm(x, resolution);
+    y = isFlipYaxis() ? getBedHeight() - Util.px2mm(y, resolution) : Util.px2mm(y, resolution);
+    gcode.begin("G1").modalWord('X', x).modalWord('Y', y)
+      .modalWord('S', p.getPower()/100.0*spindleMax)
+      .modalWord('F', (int) (max_speed*p.getSpeed()/100.0));
+    sendGcode();
   }
+
   protected double currentPower = -1;
   protected double currentSpeed = -1;
   private double nextPower = -1;
   private double nextSpeed = -1;
   private double currentFocus = 0;
+  /**
+   * first focus of a part encoded by createPartEncoder(), NaN if it does
+   * not set one
+   */
+  private transient double partStartFocus = Double.NaN;
+  /**
+   * the G-code of a part encoded by createPartEncoder()
+   */
+  private transient ByteArrayOutputStream encodedPart;
 
   protected void setSpeed(double speedInPercent) {
     nextSpeed = speedInPercent;
@@ -486,7 +753,13 @@ public class GenericGcodeDriver extends LaserCutter {
   }
 
   protected void setFocus(PrintStream out, double focus) throws IOException {
-    if (currentFocus != focus)
+    if (Double.isNaN(currentFocus))
+    {
+      // a part encoded on its own, the focus is set when the parts are put together
+      partStartFocus = focus;
+      currentFocus = focus;
+    }
+    else if (currentFocus != focus)
     {
       sendLine("G0 Z%f", focus);
       currentFocus = focus;
@@ -497,32 +770,57 @@ public class GenericGcodeDriver extends LaserCutter {
     x = isFlipXaxis() ? getBedWidth() - Util.px2mm(x, resolution) : Util.px2mm(x, resolution);
     y = isFlipYaxis() ? getBedHeight() - Util.px2mm(y, resolution) : Util.px2mm(y, resolution);
     currentSpeed = getTravel_speed();
+    gcode.begin("G0").modalWord('X', x).modalWord('Y', y).modalWord('F', (int) (travel_speed));
     if (blankLaserDuringRapids)
     {
       currentPower = 0.0;
-      sendLine("G0 X%f Y%f F%d S0", x, y, (int) (travel_speed));
-    }
-    else
-    {
-      sendLine("G0 X%f Y%f F%d", x, y, (int) (travel_speed));
+      gcode.modalWord('S', 0);
     }
+    sendGcode();
   }
 
   protected void line(PrintStream out, double x, double y, double resolution) throws IOException {
     x = isFlipXaxis() ? getBedWidth() - Util.px2mm(x, resolution) : Util.px2mm(x, resolution);
     y = isFlipYaxis() ? getBedHeight() - Util.px2mm(y, resolution) : Util.px2mm(y, resolution);
-    String append = "";
+    gcode.begin("G1").modalWord('X', x).modalWord('Y', y);
+    appendPowerAndSpeed();
+    sendGcode();
+  }
+
+  /**
+   * Sends G2 (clockwise) or G3 (counterclockwise) to (x, y), with the
+   * center at (i, j) relative to the current position. All values are in
+   * pixels and the direction refers to the unflipped axes.
+   */
+  protected void arc(PrintStream out, double x, double y, double i, double j, boolean counterClockwise, double resolution) throws IOException {
+    x = isFlipXaxis() ? getBedWidth() - Util.px2mm(x, resolution) : Util.px2mm(x, resolution);
+    y = isFlipYaxis() ? getBedHeight() - Util.px2mm(y, resolution) : Util.px2mm(y, resolution);
+    i = isFlipXaxis() ? -Util.px2mm(i, resolution) : Util.px2mm(i, resolution);
+    j = isFlipYaxis() ? -Util.px2mm(j, resolution) : Util.px2mm(j, resolution);
+    if (isFlipXaxis() != isFlipYaxis())
+    {
+      counterClockwise = !counterClockwise;
+    }
+    gcode.begin(counterClockwise ? "G3" : "G2").modalWord('X', x).modalWord('Y', y).word('I', i).word('J', j);
+    appendPowerAndSpeed();
+    sendGcode();
+  }
+
+  /**
+   * Adds S and F to the current line if they changed since the last one
+   */
+  private void appendPowerAndSpeed()
+  {
     if (nextPower != currentPower)
     {
-      append += String.format(FORMAT_LOCALE, " S%f", nextPower);
+      gcode.modalWord('S', nextPower);
       currentPower = nextPower;
     }
     if (nextSpeed != currentSpeed)
     {
-      append += String.format(FORMAT_LOCALE, " F%d", (int) (max_speed*nextSpeed/100.0));
+      gcode.modalWord('F', (int) (max_speed*nextSpeed/100.0));
       currentSpeed = nextSpeed;
     }
-    sendLine("G1 X%f Y%f"+append, x, y);
   }
 
   private void writeInitializationCode() throws IOException {
@@ -551,11 +849,79 @@ public class GenericGcodeDriver extends LaserCutter {
   private Socket socket;
   private CommPort port;
   private CommPortIdentifier portIdentifier;
+  /**
+   * pipelined sender while a job is sent with character counting
+   */
+  private CharacterCountingSender sender;
+  /**
+   * formats the moves of the current job
+   */
+  protected transient GcodeWriter gcode;
+
+  /**
+   * Creates the writer for the moves of a job: 6 decimals (mm), without
+   * trailing zeros, leaving out unchanged X, Y, F and S words
+   */
+  protected GcodeWriter createGcodeWriter()
+  {
+    return new GcodeWriter(6);
+  }
+
+  /**
+   * the last of M3, M4 or M5 sent in the current job, null if none was sent
+   */
+  private transient String laserMode;
+  /**
+   * an M3, M4 or M5 word, also with leading zeros (M03) and without spaces
+   * before it (G0M3), but not M30 etc.
+   */
+  private static final Pattern LASER_MODE_WORD = Pattern.compile("(?<![A-Za-z])[Mm]0*([345])(?![0-9.])");
 
   protected void sendLine(String text, Object... parameters) throws IOException
   {
+    Matcher mode = LASER_MODE_WORD.matcher(text);
+    while (mode.find())
+    {
+      laserMode = "M" + mode.group(1);
+    }
+    if (gcode != null)
+    {
+      // the line may contain any command, so don't rely on modal words
+      gcode.forgetModalState();
+    }
+    if (sender != null)
+    {
+      sender.send(String.format(FORMAT_LOCALE, text+LINEEND(), parameters));
+      return;
+    }
     out.format(FORMAT_LOCALE, text+LINEEND(), parameters);
     out.flush();
+    waitForOK();
+  }
+
+  /**
+   * Sends the line built in gcode, unless all of its words were left out
+   * because they did not change
+   */
+  protected void sendGcode() throws IOException
+  {
+    if (!gcode.hasWords())
+    {
+      return;
+    }
+    gcode.append(LINEEND());
+    if (sender != null)
+    {
+      sender.send(gcode.toString());
+      return;
+    }
+    gcode.writeTo(out);
+    out.flush();
+    waitForOK();
+  }
+
+  private void waitForOK() throws IOException
+  {
     if (isWaitForOKafterEachLine())
     {
       String line = waitForLine();
@@ -847,7 +1213,24 @@ public class GenericGcodeDriver extends LaserCutter {
     connect(pl);
     pl.taskChanged(this, "sending");
     try {
-      writeJobCode(job, pl);
+      if (isWaitForOKafterEachLine() && getRxBufferSize() > 0)
+      {
+        sender = new CharacterCountingSender(out, this::waitForLine, getRxBufferSize());
+        try
+        {
+          writeJobCode(job, pl);
+          sender.finish();
+        }
+        finally
+        {
+          sender.close();
+          sender = null;
+        }
+      }
+      else
+      {
+        writeJobCode(job, pl);
+      }
       disconnect(job.getName()+".gcode");
     }
     catch (IOException e) {
@@ -860,30 +1243,129 @@ public class GenericGcodeDriver extends LaserCutter {
   }
   
   public void writeJobCode(LaserJob job, ProgressListener pl) throws IOException {
+    gcode = createGcodeWriter();
+    laserMode = null;
+    linesBeforeCompaction = 0;
+    linesAfterCompaction = 0;
     writeInitializationCode();
     pl.progressChanged(this, 20);
-    int i = 0;
     int max = job.getParts().size();
-    for (JobPart p : job.getParts())
+    int[] done = {0};
+    if (isParallelEncoding())
     {
-      if (p instanceof RasterizableJobPart)
+      OrderedParallelEncoder.encode(job.getParts(), p ->
       {
-        // Note: It's difficult to choose "the right" setting for whether to use moveto() or lineto() for white engrave pixels.
-        // For smooth engraving and compatibility with previous LibLaserCut versions, we use lineto().
-        // This won't work with boards that ignore the laser power setting (S0 ... S1) and only consider G0/G1 (move/line).
-        // Therefore it should be made configurable.
-        p = convertRasterizableToVectorPart((RasterizableJobPart) p, job, getUseBidirectionalRastering(), false, false);
-      }
-      if (p instanceof VectorPart)
+        GenericGcodeDriver encoder = createPartEncoder();
+        encoder.writePart(p, job);
+        return encoder;
+      }, encoder ->
       {
-        //TODO: in direct mode use progress listener to indicate progress
-        //of individual job
-        writeVectorGCode((VectorPart) p, p.getDPI());
+        writeEncodedPart(encoder);
+        done[0]++;
+        pl.progressChanged(this, 20 + (int) (done[0]*(double) 60/max));
+      });
+    }
+    else
+    {
+      for (JobPart p : job.getParts())
+      {
+        writePart(p, job);
+        done[0]++;
+        pl.progressChanged(this, 20 + (int) (done[0]*(double) 60/max));
       }
-      i++;
-      pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
     }
     writeShutdownCode();
+    if (linesBeforeCompaction > 0)
+    {
+      Logger.getLogger(GenericGcodeDriver.class.getName()).info(String.format(FORMAT_LOCALE,
+        "Path compaction saved %d of %d lines", getLinesSavedByPathCompaction(), linesBeforeCompaction));
+    }
+  }
+
+  private void writePart(JobPart p, LaserJob job) throws IOException
+  {
+    if (p instanceof RasterizableJobPart && isNativeRaster())
+    {
+      writeRasterGCode((RasterizableJobPart) p, job);
+    }
+    else if (p instanceof RasterizableJobPart)
+    {
+      // Note: It's difficult to choose "the right" setting for whether to use moveto() or lineto() for white engrave pixels.
+      // For smooth engraving and compatibility with previous LibLaserCut versions, we use lineto().
+      // This won't work with boards that ignore the laser power setting (S0 ... S1) and only consider G0/G1 (move/line).
+      // Therefore it should be made configurable.
+      p = convertRasterizableToVectorPart((RasterizableJobPart) p, job, getUseBidirectionalRastering(), false, false);
+    }
+    if (p instanceof VectorPart)
+    {
+      //TODO: in direct mode use progress listener to indicate progress
+      //of individual job
+      writeVectorGCode((VectorPart) p, p.getDPI());
+    }
+  }
+
+  /**
+   * Creates a copy of this driver which encodes one part into a buffer
+   * instead of sending it. Power, speed and focus are unknown to it, so
+   * the part sets them again.
+   */
+  private GenericGcodeDriver createPartEncoder()
+  {
+    GenericGcodeDriver encoder = clone();
+    encoder.setWaitForOKafterEachLine(false);
+    encoder.encodedPart = new ByteArrayOutputStream();
+    encoder.out = new LinefeedPrintStream(encoder.encodedPart, false, StandardCharsets.US_ASCII);
+    encoder.gcode = encoder.createGcodeWriter();
+    encoder.currentFocus = Double.NaN;
+    encoder.laserMode = laserMode;
+    return encoder;
+  }
+
+  /**
+   * Sends a part encoded by createPartEncoder() and takes over its state
+   */
+  private void writeEncodedPart(GenericGcodeDriver encoder) throws IOException
+  {
+    if (!Double.isNaN(encoder.partStartFocus))
+    {
+      setFocus(out, encoder.partStartFocus);
+      currentFocus = encoder.currentFocus;
+    }
+    encoder.out.flush();
+    String lines = encoder.encodedPart.toString(StandardCharsets.US_ASCII);
+    if (sender == null && !isWaitForOKafterEachLine())
+    {
+      out.print(lines);
+      out.flush();
+    }
+    else
+    {
+      for (int start = 0; start < lines.length();)
+      {
+        int end = lines.indexOf('\n', start) + 1;
+        if (end == 0)
+        {
+          end = lines.length();
+        }
+        String line = lines.substring(start, end);
+        if (sender != null)
+        {
+          sender.send(line);
+        }
+        else
+        {
+          out.print(line);
+          out.flush();
+          waitForOK();
+        }
+        start = end;
+      }
+    }
+    gcode.forgetModalState();
+    currentPower = -1;
+    currentSpeed = -1;
+    linesBeforeCompaction += encoder.linesBeforeCompaction;
+    linesAfterCompaction += encoder.linesAfterCompaction;
   }
 
 @Override
@@ -1009,14 +1491,19 @@ public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IllegalJ
     SETTING_TRAVEL_SPEED,
     SETTING_SPINDLE_MAX,
     SETTING_BLANK_LASER_DURING_RAPIDS,
+    SETTING_PATH_TOLERANCE,
+    SETTING_USE_ARCS,
     SETTING_PRE_JOB_GCODE,
     SETTING_POST_JOB_GCODE,
     SETTING_RESOLUTIONS,
     SETTING_WAIT_FOR_OK,
+    SETTING_RX_BUFFER_SIZE,
     SETTING_SERIAL_TIMEOUT,
     SETTING_FILE_EXPORT_PATH,
     SETTING_USE_BIDIRECTIONAL_RASTERING,
     SETTING_RASTER_PADDING,
+    SETTING_NATIVE_RASTER,
+    SETTING_PARALLEL_ENCODING,
   };
 
   @Override
@@ -1064,10 +1551,16 @@ public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IllegalJ
       return this.getSupportedResolutions();
     } else if (SETTING_WAIT_FOR_OK.equals(attribute)) {
       return this.isWaitForOKafterEachLine();
+    } else if (SETTING_RX_BUFFER_SIZE.equals(attribute)) {
+      return this.getRxBufferSize();
     } else if (SETTING_SERIAL_TIMEOUT.equals(attribute)) {
       return this.getSerialTimeout();
     } else if (SETTING_BLANK_LASER_DURING_RAPIDS.equals(attribute)) {
       return this.getBlankLaserDuringRapids();
+    } else if (SETTING_PATH_TOLERANCE.equals(attribute)) {
+      return this.getPathTolerance();
+    } else if (SETTING_USE_ARCS.equals(attribute)) {
+      return this.isUseArcs();
     } else if (SETTING_FILE_EXPORT_PATH.equals(attribute)) {
       return this.getExportPath();
     } else if (SETTING_USE_BIDIRECTIONAL_RASTERING.equals(attribute)) {
@@ -1078,6 +1571,10 @@ public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IllegalJ
       return this.getUploadMethod();
     } else if (SETTING_RASTER_PADDING.equals(attribute)) {
       return this.getRasterPadding();
+    } else if (SETTING_NATIVE_RASTER.equals(attribute)) {
+      return this.isNativeRaster();
+    } else if (SETTING_PARALLEL_ENCODING.equals(attribute)) {
+      return this.isParallelEncoding();
     }
 
     return null;
@@ -1123,10 +1620,16 @@ public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IllegalJ
       this.setSupportedResolutions((String) value);
     } else if (SETTING_WAIT_FOR_OK.equals(attribute)) {
       this.setWaitForOKafterEachLine((Boolean) value);
+    } else if (SETTING_RX_BUFFER_SIZE.equals(attribute)) {
+      this.setRxBufferSize((Integer) value);
     } else if (SETTING_SERIAL_TIMEOUT.equals(attribute)) {
       this.setSerialTimeout((Integer) value);
     } else if (SETTING_BLANK_LASER_DURING_RAPIDS.equals(attribute)) {
       this.setBlankLaserDuringRapids((Boolean) value);
+    } else if (SETTING_PATH_TOLERANCE.equals(attribute)) {
+      this.setPathTolerance((Double) value);
+    } else if (SETTING_USE_ARCS.equals(attribute)) {
+      this.setUseArcs((Boolean) value);
     } else if (SETTING_FILE_EXPORT_PATH.equals(attribute)) {
       this.setExportPath((String) value);
     } else if (SETTING_USE_BIDIRECTIONAL_RASTERING.equals(attribute)) {
@@ -1137,6 +1640,10 @@ public void saveJob(OutputStream fileOutputStream, LaserJob job) throws IllegalJ
       this.setUploadMethod(value);
     } else if (SETTING_RASTER_PADDING.equals(attribute)) {
       this.setRasterPadding(Math.abs((Double)value));
+    } else if (SETTING_NATIVE_RASTER.equals(attribute)) {
+      this.setNativeRaster((Boolean) value);
+    } else if (SETTING_PARALLEL_ENCODING.equals(attribute)) {
+      this.setParallelEncoding((Boolean) value);
     }
   }
 
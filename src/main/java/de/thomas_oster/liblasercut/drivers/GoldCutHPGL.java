@@ -28,9 +28,9 @@ import de.thomas_oster.liblasercut.LaserJob;
 import de.thomas_oster.liblasercut.LaserProperty;
 import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.RasterizableJobPart;
-import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.GcodeWriter;
 import de.thomas_oster.liblasercut.utils.LinefeedPrintStream;
 import purejavacomm.CommPort;
 import purejavacomm.CommPortIdentifier;
@@ -41,6 +41,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
@@ -139,10 +140,11 @@ public class GoldCutHPGL extends LaserCutter {
     this.comPort = comPort;
   }
 
-  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws UnsupportedEncodingException {
+  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws IOException {
     ByteArrayOutputStream result = new ByteArrayOutputStream();
     PrintStream out = new LinefeedPrintStream(result);
-    for (VectorCommand cmd : vp.getCommandList()) {
+    hpgl = new GcodeWriter(0);
+    for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();) {
       switch (cmd.getType()) {
         case MOVETO:
           double x = cmd.getX();
@@ -180,14 +182,16 @@ public class GoldCutHPGL extends LaserCutter {
     }
   }
 
-  private void move(PrintStream out, double x, double y, double resolution) {
+  private void move(PrintStream out, double x, double y, double resolution) throws IOException {
     moveOrLine("PU", out, x, y, resolution);
   }
 
-  private void line(PrintStream out, double x, double y, double resolution) {
+  private void line(PrintStream out, double x, double y, double resolution) throws IOException {
     moveOrLine("PD", out, x, y, resolution);
   }
 
+  private transient GcodeWriter hpgl;
+
   /**
    * send a PU or PD command and move to next coordinate
    * @param command "PU" or "PD"
@@ -196,12 +200,12 @@ public class GoldCutHPGL extends LaserCutter {
    * @param y coordinate (in pixels)
    * @param resolution dpi (coordinate pixels per inch)
    */
-  private void moveOrLine(String command, PrintStream out, double x, double y, double resolution) {
+  private void moveOrLine(String command, PrintStream out, double x, double y, double resolution) throws IOException {
     double hw_scale = this.getHwDPI()/resolution;
     // Note: standard HPGL coordinates are: (0,0)=top-left, Y=right, X=down.
     hw_x = (int)(hw_scale * (isFlipXaxis() ? Util.mm2px(this.bedWidth, resolution) - y : y));
     hw_y = (int)(hw_scale * (isFlipYaxis() ?  Util.mm2px(getBedHeight(), resolution) - x : x));
-    out.printf(Locale.US, command + "%d,%d;", hw_x, hw_y);
+    hpgl.begin(command).number(hw_x).append(',').number(hw_y).append(';').writeTo(out);
   }
 
   private byte[] generateInitializationCode() throws UnsupportedEncodingException {
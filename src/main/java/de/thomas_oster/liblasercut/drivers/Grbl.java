@@ -20,6 +20,7 @@ package de.thomas_oster.liblasercut.drivers;
 
 import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.GcodeWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
@@ -40,6 +41,9 @@ public class Grbl extends GenericGcodeDriver
     setIdentificationLine("Grbl");
     // Grbl uses "ok" flow control
     setWaitForOKafterEachLine(true);
+    // and supports streaming with character counting into its 128 byte
+    // serial buffer, keeping one byte spare
+    setRxBufferSize(127);
     setPreJobGcode(getPreJobGcode()+",M3");
     // turn off laser before returning to home position
     setPostJobGcode("M5,"+getPostJobGcode());
@@ -167,15 +171,24 @@ public class Grbl extends GenericGcodeDriver
     x = isFlipXaxis() ? getBedWidth() - Util.px2mm(x, resolution) : Util.px2mm(x, resolution);
     y = isFlipYaxis() ? getBedHeight() - Util.px2mm(y, resolution) : Util.px2mm(y, resolution);
     currentSpeed = getTravel_speed();
+    gcode.begin("G0").modalWord('X', x).modalWord('Y', y);
     if (blankLaserDuringRapids)
     {
       currentPower = 0.0;
-      sendLine("G0 X%f Y%f S0", x, y);
-    }
-    else
-    {
-      sendLine("G0 X%f Y%f", x, y);
+      gcode.modalWord('S', 0);
     }
+    sendGcode();
+  }
+  
+  /**
+   * Grbl lines are sent without spaces
+   */
+  @Override
+  protected GcodeWriter createGcodeWriter()
+  {
+    GcodeWriter result = super.createGcodeWriter();
+    result.setWordSeparator("");
+    return result;
   }
   
   /**
@@ -184,17 +197,7 @@ public class Grbl extends GenericGcodeDriver
   @Override
   protected void sendLine(String text, Object... parameters) throws IOException
   {
-    out.format(FORMAT_LOCALE, text.replace(" ", "")+LINEEND(), parameters);
-    // System.out.println(String.format(FORMAT_LOCALE, "> "+text+LINEEND(), parameters));
-    out.flush();
-    if (isWaitForOKafterEachLine())
-    {
-      String line = waitForLine();
-      if (!"ok".equals(line))
-      {
-        throw new IOException("Lasercutter did not respond 'ok', but '"+line+"'instead.");
-      }
-    }
+    super.sendLine(text.replace(" ", ""), parameters);
   }
 
   @Override
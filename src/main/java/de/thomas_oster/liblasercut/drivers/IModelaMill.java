@@ -28,7 +28,6 @@ import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.ProgressListenerDummy;
 import de.thomas_oster.liblasercut.Raster3dPart;
 import de.thomas_oster.liblasercut.RasterPart;
-import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
@@ -297,7 +296,7 @@ public class IModelaMill extends LaserCutter
   private void writeVectorCode(VectorPart p, PrintStream out)
   {
     double dpi = p.getDPI();
-    for (VectorCommand c : p.getCommandList())
+    for (VectorPart.Cursor c = p.cursor(); c.next();)
     {
       switch (c.getType())
       {
@@ -39,8 +39,11 @@ import java.io.PrintStream;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.usb4java.Context;
@@ -128,6 +131,11 @@ public class K40NanoDriver extends LaserCutter
         {
         }
 
+        @Override
+        public void abort()
+        {
+        }
+
         @Override
         public void open()
         {
@@ -135,141 +143,150 @@ public class K40NanoDriver extends LaserCutter
       });
     }
 
-    for (JobPart p : job.getParts())
+    try
     {
-      if (p instanceof RasterPart)
+      for (JobPart p : job.getParts())
       {
-        RasterPart rp = (RasterPart) p;
-        LaserProperty property = rp.getLaserProperty();
-        double speed = (Float) property.getProperty("mm per second");
-
-        device.setSpeed(speed);
-        int sx = (int) (rp.getMinX() * (1000 / p.getDPI()));
-        int sy = (int) (rp.getMinY() * (1000 / p.getDPI()));
-        device.move_absolute(sx, sy);
-        int step_size = (int) (1000.0 / p.getDPI());
-        device.setRaster_step(step_size);
-        RasterElement element = ((RasterElement.Provider) rp.getImage()).getRaster();
-        RasterBuilder rasterbuild = new RasterBuilder(element, (properties, pixel) -> properties.setProperty("pixel", pixel), 0, 0, 0);
-        rasterbuild.setOffsetPosition(rp.getMinX(), rp.getMinY());
-
-        int pixel = 0;
-        device.raster_start();
-        for (VectorCommand cmd : rasterbuild)
+        if (p instanceof RasterPart)
         {
-          if ((cmd.getType() == VectorCommand.CmdType.MOVETO) || ((cmd.getType() == VectorCommand.CmdType.LINETO) && (pixel == 0))) //treat moveto with pixel 0 as a lineto.
+          RasterPart rp = (RasterPart) p;
+          LaserProperty property = rp.getLaserProperty();
+          double speed = (Float) property.getProperty("mm per second");
+
+          device.setSpeed(speed);
+          int sx = (int) (rp.getMinX() * (1000 / p.getDPI()));
+          int sy = (int) (rp.getMinY() * (1000 / p.getDPI()));
+          device.move_absolute(sx, sy);
+          int step_size = (int) (1000.0 / p.getDPI());
+          device.setRaster_step(step_size);
+          RasterElement element = ((RasterElement.Provider) rp.getImage()).getRaster();
+          RasterBuilder rasterbuild = new RasterBuilder(element, (properties, pixel) -> properties.setProperty("pixel", pixel), 0, 0, 0);
+          rasterbuild.setOffsetPosition(rp.getMinX(), rp.getMinY());
+
+          int pixel = 0;
+          device.raster_start();
+          for (VectorCommand cmd : rasterbuild)
           {
-            int x = (int) (cmd.getX() * (1000 / p.getDPI()));
-            int y = (int) (cmd.getY() * (1000 / p.getDPI()));
-            int dx = x - device.x;
-            int dy = y - device.y;
-            if (dy > device.raster_step)
+            if ((cmd.getType() == VectorCommand.CmdType.MOVETO) || ((cmd.getType() == VectorCommand.CmdType.LINETO) && (pixel == 0))) //treat moveto with pixel 0 as a lineto.
             {
-              device.move_absolute(x, y - device.raster_step);
-              //if we're moving in the y direction, but more than the raster step,
-              //we still need to h_switch to change the directionality. But, that will
-              //step, so we go down to where the raster-step will put us on the correct line.
+              int x = (int) (cmd.getX() * (1000 / p.getDPI()));
+              int y = (int) (cmd.getY() * (1000 / p.getDPI()));
+              int dx = x - device.x;
+              int dy = y - device.y;
+              if (dy > device.raster_step)
+              {
+                device.move_absolute(x, y - device.raster_step);
+                //if we're moving in the y direction, but more than the raster step,
+                //we still need to h_switch to change the directionality. But, that will
+                //step, so we go down to where the raster-step will put us on the correct line.
+              }
+              if (dy == device.raster_step)
+              {
+                device.h_switch();
+                device.y += device.raster_step;
+              }
+
+              device.move_absolute(x, y);
+              device.execute();
             }
-            if (dy == device.raster_step)
+            else
             {
-              device.h_switch();
-              device.y += device.raster_step;
+              switch (cmd.getType())
+              {
+                case LINETO:
+                {
+                  int x = (int) (cmd.getX() * (1000 / p.getDPI()));
+                  int y = (int) (cmd.getY() * (1000 / p.getDPI()));
+                  //Native units are mils.
+                  device.cut_absolute(x, y);
+                  device.execute();
+                  break;
+                }
+                case SETPROPERTY:
+                {
+                  AbstractLaserProperty prop = (AbstractLaserProperty) cmd.getProperty();
+                  pixel = prop.getInteger("pixel", pixel);
+                  break;
+                }
+              }
             }
-
-            device.move_absolute(x, y);
-            device.execute();
           }
-          else
+        }
+        else if (p instanceof VectorPart)
+        {
+          VectorPart vp = (VectorPart) p;
+          int i = 0;
+          int total = vp.getCommandCount();
+          for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
           {
+            pl.taskChanged(this, "Vector Part");
+            pl.progressChanged(this, (100 * i++) / total);
             switch (cmd.getType())
             {
               case LINETO:
               {
+                /*
+                  Move the laserhead (laser on) from the current position to the
+                  x/y position of this command. All coordinates are in dots
+                  respecting to the job resolution
+                 */
                 int x = (int) (cmd.getX() * (1000 / p.getDPI()));
                 int y = (int) (cmd.getY() * (1000 / p.getDPI()));
                 //Native units are mils.
+
                 device.cut_absolute(x, y);
                 device.execute();
                 break;
               }
-              case SETPROPERTY:
+              case MOVETO:
               {
-                AbstractLaserProperty prop = (AbstractLaserProperty) cmd.getProperty();
-                pixel = prop.getInteger("pixel", pixel);
+                /*
+                  Move the laserhead (laser off) from the current position to the
+                  x/y position of this command. All coordinates are in mm
+                 */
+                int x = (int) (cmd.getX() * (1000 / p.getDPI()));
+                int y = (int) (cmd.getY() * (1000 / p.getDPI()));
+
+                //Native units are mils.
+                device.move_absolute(x, y);
+                device.execute();
                 break;
               }
-            }
-          }
-        }
-      }
-      else if (p instanceof VectorPart)
-      {
-        VectorPart vp = (VectorPart) p;
-        int i = 0;
-        int total = vp.getCommandList().length;
-        for (VectorCommand cmd : vp.getCommandList())
-        {
-          pl.taskChanged(this, "Vector Part");
-          pl.progressChanged(this, (100 * i++) / total);
-          switch (cmd.getType())
-          {
-            case LINETO:
-            {
-              /*
-                Move the laserhead (laser on) from the current position to the
-                x/y position of this command. All coordinates are in dots
-                respecting to the job resolution
-               */
-              int x = (int) (cmd.getX() * (1000 / p.getDPI()));
-              int y = (int) (cmd.getY() * (1000 / p.getDPI()));
-              //Native units are mils.
-
-              device.cut_absolute(x, y);
-              device.execute();
-              break;
-            }
-            case MOVETO:
-            {
-              /*
-                Move the laserhead (laser off) from the current position to the
-                x/y position of this command. All coordinates are in mm
-               */
-              int x = (int) (cmd.getX() * (1000 / p.getDPI()));
-              int y = (int) (cmd.getY() * (1000 / p.getDPI()));
-
-              //Native units are mils.
-              device.move_absolute(x, y);
-              device.execute();
-              break;
-            }
-            case SETPROPERTY:
-            {
-              LaserProperty prop = cmd.getProperty();
-              for (String key : prop.getPropertyKeys())
+              case SETPROPERTY:
               {
-                String value = prop.getProperty(key).toString();
-                if (VAR_MM_PER_SECOND.equals(key) || "speed".equals(key))
+                LaserProperty prop = cmd.getProperty();
+                for (String key : prop.getPropertyKeys())
                 {
-                  device.setSpeed(Double.valueOf(value));
-                }
-                else if (VAR_D_RATIO.equals(key))
-                {
-                  device.setD_ratio(Double.valueOf(value));
-                }
-                else if (VAR_POWER.equals(key))
-                {
-                  device.setPower(Integer.valueOf(value));
+                  String value = prop.getProperty(key).toString();
+                  if (VAR_MM_PER_SECOND.equals(key) || "speed".equals(key))
+                  {
+                    device.setSpeed(Double.valueOf(value));
+                  }
+                  else if (VAR_D_RATIO.equals(key))
+                  {
+                    device.setD_ratio(Double.valueOf(value));
+                  }
+                  else if (VAR_POWER.equals(key))
+                  {
+                    device.setPower(Integer.valueOf(value));
+                  }
                 }
+                break;
               }
-              break;
             }
           }
         }
       }
+      device.exit_compact_mode();
+      device.move_absolute(0, 0); //Return device to start position 0,0.
+      device.execute();
+    }
+    catch (Throwable t)
+    {
+      // stop the transmitter and release the device, the job is incomplete
+      device.abort();
+      throw t;
     }
-    device.exit_compact_mode();
-    device.move_absolute(0, 0); //Return device to start position 0,0.
-    device.execute();
     device.close();
   }
   
@@ -335,6 +352,11 @@ public class K40NanoDriver extends LaserCutter
     this.mock = mock;
   }
 
+  protected BaseUsb createUsb()
+  {
+    return mock ? new MockUsb() : new K40Usb();
+  }
+
   public void setBedWidth(double bedWidth)
   {
     this.bedWidth = bedWidth;
@@ -480,6 +502,15 @@ public class K40NanoDriver extends LaserCutter
       queue = null;
     }
 
+    /**
+     * Stops sending after an error, without sending the rest of the job
+     */
+    void abort()
+    {
+      queue.abort();
+      queue = null;
+    }
+
     public String getBoard()
     {
       return board;
@@ -1252,30 +1283,152 @@ public class K40NanoDriver extends LaserCutter
 
   }
 
+  /**
+   * Collects the encoded job and sends it in packets of
+   * K40Usb.PAYLOAD_LENGTH bytes. Complete packets (including the CRC) are
+   * built by execute() and put into a bounded ring, from which a
+   * background thread sends them to the device. So encoding the job
+   * overlaps with the (slow) USB handshake for each packet, and the
+   * encoder only blocks when the ring is full.
+   */
   public class K40Queue
   {
 
+    /**
+     * number of packets which may be built ahead of the device
+     */
+    static final int RING_SIZE = 64;
+
     final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
     private final StringBuilder buffer = new StringBuilder();
     BaseUsb usb;
 
+    private final BlockingQueue<byte[]> packets = new ArrayBlockingQueue<>(RING_SIZE);
+    /**
+     * markers in packets: wait until the device finished, stop sending
+     */
+    private final byte[] FINISH = new byte[0];
+    private final byte[] END = new byte[0];
+    private Thread transmitter;
+    private volatile RuntimeException failure = null;
+    private volatile boolean aborted = false;
+
+    protected BaseUsb createUsb()
+    {
+      return K40NanoDriver.this.createUsb();
+    }
+
     public void open()
     {
-      if (mock)
+      usb = createUsb();
+      usb.open();
+      transmitter = new Thread(this::transmit, "K40 USB transmitter");
+      transmitter.setDaemon(true);
+      transmitter.start();
+    }
+
+    /**
+     * Waits until all packets are sent, then closes the device. Stops the
+     * transmitter and rethrows its failure if sending failed.
+     */
+    public void close()
+    {
+      try
       {
-        usb = new MockUsb();
+        // not put(), the transmitter has to stop after a failure too
+        packets.put(END);
+        transmitter.join();
       }
-      else
+      catch (InterruptedException ex)
       {
-        usb = new K40Usb();
+        Thread.currentThread().interrupt();
+        transmitter.interrupt();
       }
-      usb.open();
+      finally
+      {
+        usb.close();
+        usb = null;
+      }
+      checkFailure();
     }
 
-    public void close()
+    /**
+     * Drops the packets which are not sent yet, stops the transmitter and
+     * closes the device. Used after an error while encoding or sending.
+     */
+    public void abort()
     {
-      usb.close();
-      usb = null;
+      aborted = true;
+      packets.clear();
+      try
+      {
+        packets.put(END);
+        transmitter.join();
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        transmitter.interrupt();
+      }
+      finally
+      {
+        usb.close();
+        usb = null;
+      }
+    }
+
+    private void transmit()
+    {
+      try
+      {
+        while (true)
+        {
+          byte[] packet = packets.take();
+          if (packet == END)
+          {
+            return;
+          }
+          if (failure != null || aborted)
+          {
+            // keep taking packets, so the encoder does not block forever
+            continue;
+          }
+          try
+          {
+            if (packet == FINISH)
+            {
+              usb.wait_for_finish();
+            }
+            else
+            {
+              usb.wait_for_ok();
+              usb.send_packet(packet);
+            }
+          }
+          catch (RuntimeException e)
+          {
+            failure = e;
+          }
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        failure = new LibUsbException("Sending was interrupted.", LibUsb.ERROR_INTERRUPTED);
+      }
+    }
+
+    private void checkFailure()
+    {
+      if (failure != null)
+      {
+        throw failure;
+      }
+    }
+
+    private void put(byte[] packet) throws InterruptedException
+    {
+      checkFailure();
+      packets.put(packet);
     }
 
     private void pad_buffer()
@@ -1295,50 +1448,58 @@ public class K40NanoDriver extends LaserCutter
       add("-\n");
     }
 
+    /**
+     * Moves the queued elements into packets for the transmitter. Only
+     * blocks if the transmitter is RING_SIZE packets behind.
+     */
     public void execute()
     {
-      while (true)
+      try
       {
-        boolean wait = false;
-        while (!queue.isEmpty())
+        String element;
+        while ((element = queue.poll()) != null)
         {
-          String element = queue.poll();
           if (element.endsWith("-\n"))
           {
-            buffer.append(element.subSequence(0, element.length() - 2));
+            buffer.append(element, 0, element.length() - 2);
             pad_buffer();
-            wait = true;
-            break;
+            submitPackets();
+            put(FINISH);
           }
           else if (element.endsWith("\n"))
           {
-            buffer.append(element.subSequence(0, element.length() - 1));
+            buffer.append(element, 0, element.length() - 1);
             pad_buffer();
           }
           else
           {
             buffer.append(element);
           }
-        } //moved as much of the queue to the buffer as we could.
-        while (buffer.length() >= K40Usb.PAYLOAD_LENGTH)
-        {
-          if (usb != null)
-          {
-            usb.wait_for_ok();
-            usb.send_packet(buffer.subSequence(0, K40Usb.PAYLOAD_LENGTH));
-            buffer.delete(0, K40Usb.PAYLOAD_LENGTH);
-          }
-        } //all sendable packets sent.
-        if (wait)
-        {
-          usb.wait_for_finish();
-        }
-        if (queue.isEmpty())
-        {
-          break; //We finished.
         }
+        submitPackets();
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new LibUsbException("Sending was interrupted.", LibUsb.ERROR_INTERRUPTED);
       }
     }
+
+    /**
+     * Builds packets of all complete payloads in the buffer
+     */
+    private void submitPackets() throws InterruptedException
+    {
+      int len = K40Usb.PAYLOAD_LENGTH;
+      int offset = 0;
+      while (buffer.length() - offset >= len)
+      {
+        put(usb.create_packet(buffer.subSequence(offset, offset + len)));
+        offset += len;
+      }
+      // less than one packet remains
+      buffer.delete(0, offset);
+    }
   }
 
   public interface BaseUsb
@@ -1352,7 +1513,13 @@ public class K40NanoDriver extends LaserCutter
 
     void wait_for_finish();
 
-    void send_packet(CharSequence s);
+    /**
+     * Builds the complete packet for a payload of K40Usb.PAYLOAD_LENGTH
+     * bytes. Called ahead of time, possibly while another packet is sent.
+     */
+    byte[] create_packet(CharSequence payload);
+
+    void send_packet(byte[] packet);
   }
 
   public class K40Usb implements BaseUsb
@@ -1410,12 +1577,12 @@ public class K40NanoDriver extends LaserCutter
       0x8C, 0x11, 0xAF, 0x32, 0xCA, 0x57, 0xE9, 0x74
     };
 
-    private byte crc(ByteBuffer line)
+    private byte crc(byte[] line)
     {
       int crc = 0;
       for (int i = 2; i < 32; i++)
       {
-        crc = line.get(i) ^ crc;
+        crc = line[i] ^ crc;
         crc = CRC_TABLE[crc & 0x0f] ^ CRC_TABLE[16 + ((crc >> 4) & 0x0f)];
       }
       return (byte) crc;
@@ -1454,13 +1621,10 @@ public class K40NanoDriver extends LaserCutter
     }
 
     @Override
-    public void send_packet(CharSequence cs)
+    public void send_packet(byte[] p)
     {
-      if (cs.length() != PAYLOAD_LENGTH)
-      {
-        throw new LibUsbException("Packets must be exactly " + PAYLOAD_LENGTH + " bytes.", 0);
-      }
-      create_packet(cs);
+      ((Buffer) packet).clear(); // Explicit cast for cross compatibility with JDK9
+      packet.put(p);
       int count = 0;
       do
       {
@@ -1475,18 +1639,23 @@ public class K40NanoDriver extends LaserCutter
       while (status == STATUS_PACKET_REJECTED);
     }
 
-    private void create_packet(CharSequence cs)
+    @Override
+    public byte[] create_packet(CharSequence cs)
     {
-      ((Buffer) packet).clear(); // Explicit cast for cross compatibility with JDK9
-      packet.put((byte) 166);
-      packet.put((byte) 0);
+      if (cs.length() != PAYLOAD_LENGTH)
+      {
+        throw new LibUsbException("Packets must be exactly " + PAYLOAD_LENGTH + " bytes.", 0);
+      }
+      byte[] result = new byte[PAYLOAD_LENGTH + 4];
+      result[0] = (byte) 166;
+      result[1] = (byte) 0;
       for (int i = 0; i < cs.length(); i++)
       {
-        packet.put((byte) cs.charAt(i));
+        result[i + 2] = (byte) cs.charAt(i);
       }
-      packet.put((byte) 166);
-      packet.put(crc(packet));
-
+      result[PAYLOAD_LENGTH + 2] = (byte) 166;
+      result[PAYLOAD_LENGTH + 3] = crc(result);
+      return result;
     }
 
     private void transmit_packet()
@@ -1811,9 +1980,29 @@ public class K40NanoDriver extends LaserCutter
 
   }
 
+  /**
+   * Pretends to be a device, with configurable latencies (in ms) to
+   * simulate the USB handshake
+   */
   public static class MockUsb implements BaseUsb
   {
 
+    private final int okLatency;
+    private final int packetLatency;
+    private final int finishLatency;
+
+    public MockUsb()
+    {
+      this(20, 100, 4000);
+    }
+
+    public MockUsb(int okLatency, int packetLatency, int finishLatency)
+    {
+      this.okLatency = okLatency;
+      this.packetLatency = packetLatency;
+      this.finishLatency = finishLatency;
+    }
+
     private void sleep(int time)
     {
       try
@@ -1842,21 +2031,35 @@ public class K40NanoDriver extends LaserCutter
     @Override
     public void wait_for_ok()
     {
-      sleep(20);
+      sleep(okLatency);
       System.out.println("Mock Usb: OKAY!");
     }
 
+    /**
+     * The packet of the mock is just the payload
+     */
+    @Override
+    public byte[] create_packet(CharSequence payload)
+    {
+      byte[] result = new byte[payload.length()];
+      for (int i = 0; i < result.length; i++)
+      {
+        result[i] = (byte) payload.charAt(i);
+      }
+      return result;
+    }
+
     @Override
-    public void send_packet(CharSequence subSequence)
+    public void send_packet(byte[] packet)
     {
-      sleep(100);
-      System.out.println("Mock Packet Sent:" + subSequence);
+      sleep(packetLatency);
+      System.out.println("Mock Packet Sent:" + new String(packet, StandardCharsets.US_ASCII));
     }
 
     @Override
     public void wait_for_finish()
     {
-      sleep(4000);
+      sleep(finishLatency);
       System.out.println("Mock Usb: Finished");
     }
 
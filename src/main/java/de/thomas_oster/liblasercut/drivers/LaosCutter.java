@@ -18,7 +18,6 @@
  */
 package de.thomas_oster.liblasercut.drivers;
 
-import de.thomas_oster.liblasercut.ByteArrayList;
 import de.thomas_oster.liblasercut.IllegalJobException;
 import de.thomas_oster.liblasercut.JobPart;
 import de.thomas_oster.liblasercut.LaserCutter;
@@ -28,19 +27,20 @@ import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.Raster3dPart;
 import de.thomas_oster.liblasercut.RasterPart;
 import de.thomas_oster.liblasercut.RasterizableJobPart;
-import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.OrderedParallelEncoder;
+import de.thomas_oster.liblasercut.utils.SpillingOutputStream;
 import org.apache.commons.net.tftp.TFTP;
 import org.apache.commons.net.tftp.TFTPClient;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
@@ -77,6 +77,7 @@ public class LaosCutter extends LaserCutter
   private static final String SETTING_SUPPORTS_VENTILATION = "Supports ventilation";
   private static final String SETTING_SUPPORTS_FREQUENCY = "Supports frequency";
   private static final String SETTING_SUPPORTS_FOCUS = "Supports focus (Z-axis movement)";
+  private static final String SETTING_PARALLEL_ENCODING = "Encode job parts in parallel";
 
   private boolean supportsFrequency = false;
 
@@ -178,6 +179,27 @@ public class LaosCutter extends LaserCutter
   {
     return "LAOS";
   }
+  protected boolean parallelEncoding = false;
+
+  /**
+   * Get the value of parallelEncoding
+   *
+   * @return the value of parallelEncoding
+   */
+  public boolean isParallelEncoding()
+  {
+    return parallelEncoding;
+  }
+
+  /**
+   * Set the value of parallelEncoding
+   *
+   * @param parallelEncoding new value of parallelEncoding
+   */
+  public void setParallelEncoding(boolean parallelEncoding)
+  {
+    this.parallelEncoding = parallelEncoding;
+  }
   protected boolean useTftp = true;
 
   /**
@@ -312,11 +334,9 @@ public class LaosCutter extends LaserCutter
     return (int) (Util.px2mm(px, dpi) / this.mmPerStep);
   }
 
-  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws UnsupportedEncodingException
+  private void writeVectorGCode(VectorPart vp, double resolution, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
-    for (VectorCommand cmd : vp.getCommandList())
+    for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
     {
       switch (cmd.getType())
       {
@@ -333,7 +353,6 @@ public class LaosCutter extends LaserCutter
         }
       }
     }
-    return result.toByteArray();
   }
 
   private void move(PrintStream out, double x, double y, double resolution)
@@ -341,14 +360,57 @@ public class LaosCutter extends LaserCutter
     out.printf("0 %d %d\n", px2steps(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), px2steps(isFlipYaxis() ? Util.mm2px(bedHeight, resolution) - y : y, resolution));
   }
 
-  private void loadBitmapLine(PrintStream out, List<Long> dwords)
+  /**
+   * reused for the bitmap commands of the raster lines
+   */
+  private transient byte[] bitmapLineBuffer;
+
+  /**
+   * Sends the "load bitmap" command for a raster line of dwordCount dwords
+   * (see byteLineToDwords), without building the dwords as a list: the
+   * line consists of leftPadding zero bytes, line[from] ... line[to - 1]
+   * and zero bytes up to the end of the last dword.
+   */
+  private void loadBitmapLine(PrintStream out, byte[] line, int from, int to, int leftPadding, int dwordCount, boolean leftToRight)
   {
-    out.printf("9 %s %s ", "1", ""+(dwords.size()*32));
-    for(Long d:dwords)
+    String header = "9 1 " + (dwordCount * 32) + " ";
+    // " " and at most 10 digits per dword
+    int maxLength = header.length() + 11 * dwordCount + 1;
+    if (bitmapLineBuffer == null || bitmapLineBuffer.length < maxLength)
     {
-      out.print(" " + d);
+      bitmapLineBuffer = new byte[maxLength];
     }
-    out.print("\n");
+    byte[] buffer = bitmapLineBuffer;
+    int length = 0;
+    for (int i = 0; i < header.length(); i++)
+    {
+      buffer[length++] = (byte) header.charAt(i);
+    }
+    // index of line[0] in the padded line
+    int offset = leftPadding - from;
+    for (int i = 0; i < dwordCount; i++)
+    {
+      int dword = leftToRight ? i : dwordCount - 1 - i;
+      // the 4 bytes of the dword, leftmost in the highest byte
+      int word = 0;
+      for (int k = 4 * dword; k < 4 * dword + 4; k++)
+      {
+        int x = k - offset;
+        word = (word << 8) | (x >= from && x < to ? line[x] & 0xFF : 0);
+      }
+      // left to right, the leftmost bit is the LSB
+      long value = (leftToRight ? Integer.reverse(word) : word) & 0xFFFFFFFFL;
+      buffer[length++] = ' ';
+      int digits = value == 0 ? 1 : (int) Math.log10(value) + 1;
+      for (int d = length + digits - 1; d >= length; d--)
+      {
+        buffer[d] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      length += digits;
+    }
+    buffer[length++] = '\n';
+    out.write(buffer, 0, length);
   }
 
   private float currentPower = -1;
@@ -486,64 +548,65 @@ public class LaosCutter extends LaserCutter
     return result;
   }
 
-  private byte[] generateLaosRasterCode(RasterPart rp, double resolution) throws UnsupportedEncodingException, IOException
+  private void writeLaosRasterCode(RasterPart rp, double resolution, PrintStream out) throws IOException
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     boolean dirRight = true;
     Point rasterStart = rp.getRasterStart();
     LaosEngraveProperty prop = rp.getLaserProperty() instanceof LaosEngraveProperty ? (LaosEngraveProperty) rp.getLaserProperty() : new LaosEngraveProperty(rp.getLaserProperty());
     this.setCurrentProperty(out, prop);
     boolean bu = prop.isEngraveBottomUp();
-    ByteArrayList bytes = new ByteArrayList(rp.getRasterWidth());
+    byte[] bytes = null;
     for (int line = bu ? rp.getRasterHeight()-1 : 0; bu ? line >= 0 : line < rp.getRasterHeight(); line += bu ? -1 : 1)
     {
       Point lineStart = rasterStart.clone();
       lineStart.y += line;
-      rp.getRasterLine(line, bytes);
-      //remove heading zeroes
-      while (bytes.size() > 0 && bytes.get(0) == 0)
+      bytes = rp.getRasterLine(line, bytes);
+      //skip heading zeroes
+      int from = 0;
+      while (from < bytes.length && bytes[from] == 0)
       {
         lineStart.x += 8;
-        bytes.remove(0);
+        from++;
       }
-      //remove trailing zeroes
-      while (bytes.size() > 0 && bytes.get(bytes.size()-1) == 0)
+      //skip trailing zeroes
+      int to = bytes.length;
+      while (to > from && bytes[to-1] == 0)
       {
-        bytes.remove(bytes.size()-1);
+        to--;
       }
-      if (bytes.size() > 0)
+      if (to > from)
       {
         //add space on the left side
+        int leftPadding = 0;
         int space = (int) Util.mm2px(this.getAddSpacePerRasterLine(), resolution);
         while (space > 0 && lineStart.x >= 8)
         {
-          bytes.add(0, (byte) 0);
+          leftPadding++;
           space -= 8;
           lineStart.x -=8;
         }
+        int size = leftPadding + to - from;
         //add space on the right side
         space = (int) Util.mm2px(this.getAddSpacePerRasterLine(), resolution);
         int max = (int) Util.mm2px(this.getBedWidth(), resolution);
-        while (space > 0 && lineStart.x+(8*bytes.size()) < max-8)
+        while (space > 0 && lineStart.x+(8*size) < max-8)
         {
-          bytes.add((byte) 0);
+          size++;
           space -= 8;
         }
+        int dwordCount = (size + 3) / 4;
         if (dirRight)
         {
           //move to the first point of the line
           move(out, lineStart.x, lineStart.y, resolution);
-          List<Long> dwords = this.byteLineToDwords(bytes, true);
-          loadBitmapLine(out, dwords);
-          line(out, lineStart.x + (dwords.size()*32), lineStart.y, resolution);
+          loadBitmapLine(out, bytes, from, to, leftPadding, dwordCount, true);
+          line(out, lineStart.x + (dwordCount*32), lineStart.y, resolution);
         }
         else
         {
           //move to the first point of the line
-          List<Long> dwords = this.byteLineToDwords(bytes, false);
-          move(out, lineStart.x+(dwords.size()*32), lineStart.y, resolution);
-          loadBitmapLine(out, dwords);
+          move(out, lineStart.x+(dwordCount*32), lineStart.y, resolution);
+          loadBitmapLine(out, bytes, from, to, leftPadding, dwordCount, false);
           line(out, lineStart.x, lineStart.y, resolution);
         }
       }
@@ -552,57 +615,111 @@ public class LaosCutter extends LaserCutter
         dirRight = !dirRight;
       }
     }
-    return result.toByteArray();
   }
   
-  private byte[] generateInitializationCode() throws UnsupportedEncodingException
+  private void writeInitializationCode(PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
-    return result.toByteArray();
   }
 
-  private byte[] generateShutdownCode() throws UnsupportedEncodingException
+  private void writeShutdownCode(PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     this.setFocus(out, 0f);
     this.setVentilation(out, false);
     this.setPurge(out, false);
-    return result.toByteArray();
   }
 
-  protected void writeJobCode(LaserJob job, OutputStream out, ProgressListener pl) throws UnsupportedEncodingException, IOException
+  private void writePartCode(JobPart p, LaserJob job, PrintStream out) throws IOException
+  {
+    if (p instanceof Raster3dPart || p instanceof VectorPart)
+    {
+      if (p instanceof Raster3dPart)
+      {
+        p = convertRasterizableToVectorPart((RasterizableJobPart) p, job, true, false, true);
+      }
+      this.writeVectorGCode((VectorPart) p, p.getDPI(), out);
+    }
+    else if (p instanceof RasterPart)
+    {
+      this.writeLaosRasterCode((RasterPart) p, p.getDPI(), out);
+    }
+  }
+
+  /**
+   * Creates a copy of this driver for encoding one part on its own. Its
+   * modal state is unknown, so the part sets all of its properties again.
+   */
+  private LaosCutter createPartEncoder()
+  {
+    LaosCutter encoder = (LaosCutter) this.clone();
+    encoder.currentFocus = Float.NaN;
+    return encoder;
+  }
+
+  /**
+   * Encodes the job part by part straight into os, so a streaming os can
+   * send the first parts while the next ones are encoded.
+   */
+  protected void writeJobCode(LaserJob job, OutputStream os, ProgressListener pl) throws UnsupportedEncodingException, IOException
   {
-    out.write(this.generateInitializationCode());
+    PrintStream out = new PrintStream(os, false, StandardCharsets.US_ASCII);
+    this.writeInitializationCode(out);
     if (pl != null)
     {
       pl.progressChanged(this, 20);
     }
-    out.write(this.generateBoundingBoxCode(job));
-    int i = 0;
+    this.writeBoundingBoxCode(job, out);
     int max = job.getParts().size();
-    for (JobPart p : job.getParts())
+    int[] done = {0};
+    if (isParallelEncoding())
     {
-      if (p instanceof Raster3dPart || p instanceof VectorPart)
+      OrderedParallelEncoder.encode(job.getParts(), p ->
+      {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        PrintStream partOut = new PrintStream(result, false, StandardCharsets.US_ASCII);
+        createPartEncoder().writePartCode(p, job, partOut);
+        partOut.flush();
+        return result;
+      }, encoded ->
       {
-        if (p instanceof Raster3dPart)
+        encoded.writeTo(out);
+        done[0]++;
+        if (pl != null)
         {
-          p = convertRasterizableToVectorPart((RasterizableJobPart) p, job, true, false, true);
+          pl.progressChanged(this, 20 + (int) (done[0]*(double) 60/max));
         }
-        out.write(this.generateVectorGCode((VectorPart) p, p.getDPI()));
+      });
+      // the state after the last part is not known here
+      if (this.supportsFocus)
+      {
+        this.currentFocus = Float.NaN;
       }
-      else if (p instanceof RasterPart)
+      if (this.supportsVentilation)
       {
-        out.write(this.generateLaosRasterCode((RasterPart) p, p.getDPI()));
+        this.currentVentilation = null;
       }
-      i++;
-      if (pl != null)
+      if (this.supportsPurge)
       {
-        pl.progressChanged(this, 20 + (int) (i*(double) 60/max));
+        this.currentPurge = null;
+      }
+    }
+    else
+    {
+      for (JobPart p : job.getParts())
+      {
+        this.writePartCode(p, job, out);
+        done[0]++;
+        if (pl != null)
+        {
+          pl.progressChanged(this, 20 + (int) (done[0]*(double) 60/max));
+        }
       }
     }
-    out.write(this.generateShutdownCode());
+    this.writeShutdownCode(out);
+    out.flush();
+    if (out.checkError())
+    {
+      throw new IOException("Error writing job code");
+    }
   }
 
   @Override
@@ -616,7 +733,10 @@ public class LaosCutter extends LaserCutter
     currentVentilation = false;
     checkJob(job);
     job.applyStartPoint();
-    this.writeJobCode(job, fileOutputStream, null);
+    try (OutputStream out = openStreamingSink(fileOutputStream))
+    {
+      this.writeJobCode(job, out, null);
+    }
   }
   
   @Override
@@ -629,46 +749,48 @@ public class LaosCutter extends LaserCutter
     currentPurge = false;
     currentVentilation = false;
     pl.progressChanged(this, 0);
-    BufferedOutputStream out;
-    ByteArrayOutputStream buffer = null;
     pl.taskChanged(this, "checking job");
     checkJob(job);
     job.applyStartPoint();
     if (!useTftp)
     {
       pl.taskChanged(this, "connecting");
-      Socket connection = new Socket();
-      connection.connect(new InetSocketAddress(hostname, port), 3000);
-      out = new BufferedOutputStream(connection.getOutputStream());
-      pl.taskChanged(this, "sending");
+      try (Socket connection = new Socket())
+      {
+        connection.connect(new InetSocketAddress(hostname, port), 3000);
+        pl.taskChanged(this, "sending");
+        try (OutputStream out = openStreamingSink(new BufferedOutputStream(connection.getOutputStream())))
+        {
+          this.writeJobCode(job, out, pl);
+        }
+      }
     }
     else
     {
-      buffer = new ByteArrayOutputStream();
-      out = new BufferedOutputStream(buffer);
-      pl.taskChanged(this, "buffering");
-    }
-    this.writeJobCode(job, out, pl);
-    if (this.isUseTftp())
-    {
-      pl.taskChanged(this, "connecting");
-      TFTPClient tftp = new TFTPClient();
-      tftp.setDefaultTimeout(5000);
-      //open a local UDP socket
-      tftp.open();
-      pl.taskChanged(this, "sending");
-      ByteArrayInputStream bain = new ByteArrayInputStream(buffer.toByteArray());
-      tftp.sendFile(job.getName().replace(" ", "") +".lgc", TFTP.BINARY_MODE, bain, this.getHostname(), this.getPort());
-      tftp.close();
-      bain.close();
-      if (debugFilename != null && !"".equals(debugFilename))
+      //TFTP needs the whole file, so large jobs are buffered on disk
+      try (SpillingOutputStream buffer = new SpillingOutputStream())
       {
-        pl.taskChanged(this, "writing "+debugFilename);
-        FileOutputStream o = new FileOutputStream(new File(debugFilename));
-        o.write(buffer.toByteArray());
-        o.close();
+        pl.taskChanged(this, "buffering");
+        this.writeJobCode(job, buffer, pl);
+        pl.taskChanged(this, "connecting");
+        TFTPClient tftp = new TFTPClient();
+        tftp.setDefaultTimeout(5000);
+        //open a local UDP socket
+        tftp.open();
+        pl.taskChanged(this, "sending");
+        InputStream bain = buffer.openInputStream();
+        tftp.sendFile(job.getName().replace(" ", "") +".lgc", TFTP.BINARY_MODE, bain, this.getHostname(), this.getPort());
+        tftp.close();
+        bain.close();
+        if (debugFilename != null && !"".equals(debugFilename))
+        {
+          pl.taskChanged(this, "writing "+debugFilename);
+          FileOutputStream o = new FileOutputStream(new File(debugFilename));
+          buffer.writeTo(o);
+          o.close();
+        }
+        pl.taskChanged(this, "sent.");
       }
-      pl.taskChanged(this, "sent.");
     }
     pl.progressChanged(this, 100);
   }
@@ -749,7 +871,8 @@ public class LaosCutter extends LaserCutter
     SETTING_SUPPORTS_FREQUENCY,
     SETTING_TFTP,
     SETTING_RASTER_WHITESPACE,
-    SETTING_DEBUGFILE
+    SETTING_DEBUGFILE,
+    SETTING_PARALLEL_ENCODING
   };
 
   @Override
@@ -817,6 +940,10 @@ public class LaosCutter extends LaserCutter
     {
       return this.isUseTftp();
     }
+    else if (SETTING_PARALLEL_ENCODING.equals(attribute))
+    {
+      return this.isParallelEncoding();
+    }
     return null;
   }
 
@@ -879,6 +1006,10 @@ public class LaosCutter extends LaserCutter
     {
       this.setUseTftp((Boolean) value);
     }
+    else if (SETTING_PARALLEL_ENCODING.equals(attribute))
+    {
+      this.setParallelEncoding((Boolean) value);
+    }
   }
 
   @Override
@@ -894,6 +1025,7 @@ public class LaosCutter extends LaserCutter
     clone.flipYaxis = flipYaxis;
     clone.mmPerStep = mmPerStep;
     clone.useTftp = useTftp;
+    clone.parallelEncoding = parallelEncoding;
     clone.addSpacePerRasterLine = addSpacePerRasterLine;
     clone.supportsFrequency = supportsFrequency;
     clone.supportsPurge = supportsPurge;
@@ -906,10 +1038,8 @@ public class LaosCutter extends LaserCutter
    * Calculates the smallest bounding box of all job-parts
    * and generates the laos bounding-box commands
    */
-  private byte[] generateBoundingBoxCode(LaserJob job) throws UnsupportedEncodingException
+  private void writeBoundingBoxCode(LaserJob job, PrintStream out)
   {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
     if (job.getParts().size() > 0)
     {
       JobPart p = job.getParts().get(0);
@@ -931,7 +1061,6 @@ public class LaosCutter extends LaserCutter
       out.printf("203 %d\n", px2steps(Util.mm2px(isFlipYaxis() ? bedWidth - yMax : yMin,maxDPI), maxDPI));
       out.printf("204 %d\n", px2steps(Util.mm2px(isFlipYaxis() ? bedWidth - xMin : yMax,maxDPI), maxDPI));
     }
-    return result.toByteArray();
   }
 
 }
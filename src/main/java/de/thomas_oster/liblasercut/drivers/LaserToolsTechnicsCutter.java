@@ -29,12 +29,12 @@ import de.thomas_oster.liblasercut.ProgressListenerDummy;
 import de.thomas_oster.liblasercut.Raster3dPart;
 import de.thomas_oster.liblasercut.RasterPart;
 import de.thomas_oster.liblasercut.RasterizableJobPart;
-import de.thomas_oster.liblasercut.VectorCommand;
 import static de.thomas_oster.liblasercut.VectorCommand.CmdType;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Circle;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.OrderedParallelEncoder;
 
 import java.io.*;
 import java.net.InetSocketAddress;
@@ -77,6 +77,8 @@ public class LaserToolsTechnicsCutter extends LaserCutter
   private static final String SETTING_RASTER_WHITESPACE_MIN = "Engrave: Additional left/right space at low speed (mm, may be 0, see windows driver EngraveExtraSpace divided by 10)";
   private static final String SETTING_RASTER_SHIFTTABLE = "Engrave shift table (offset in 1/(machine dpi) at 10, 20, ..., 100% speed; whitespace separated list of integers; empty to disable; see windows driver EngraveShiftTbl.)";
   private static final String SETTING_DEBUGFILE = "Debug output file";
+  private static final String SETTING_DEBUG_VERIFY_COMPRESSION = "Debug: verify compression of every engrave line";
+  private static final String SETTING_PARALLEL_ENCODING = "Encode job parts in parallel";
   private static final String SETTING_SUPPORTS_PURGE = "Supports purge";
   private static final String SETTING_SUPPORTS_VENTILATION = "Supports ventilation";
   private static final String SETTING_SUPPORTS_FREQUENCY = "Supports frequency";
@@ -132,6 +134,28 @@ public class LaserToolsTechnicsCutter extends LaserCutter
 
   private String debugFilename = "";
 
+  /**
+   * decompress every compressed engrave line again and compare it with
+   * the original (slow, only for debugging the compression)
+   */
+  private boolean verifyCompression = false;
+
+  /**
+   * encode the parts of a job concurrently, see OrderedParallelEncoder
+   */
+  private boolean parallelEncoding = false;
+
+  /**
+   * the code and cutting time of a part encoded by createPartEncoder()
+   */
+  private transient ByteArrayOutputStream encodedPart;
+  private transient double encodedDuration;
+
+  /**
+   * reused for the compressed engrave lines
+   */
+  private transient byte[] compressBuffer;
+
   @Override
   public LaosCutterProperty getLaserPropertyForVectorPart()
   {
@@ -478,9 +502,9 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     writeU32(out, value);
   }
 
-  private double generateVectorCode(ByteArrayOutputStream outputstream, VectorPart vp, double resolution) throws UnsupportedEncodingException, IOException
+  private double generateVectorCode(OutputStream outputstream, VectorPart vp, double resolution) throws UnsupportedEncodingException, IOException
   {
-    PrintStream out = new PrintStream(outputstream, true, StandardCharsets.US_ASCII);
+    PrintStream out = new PrintStream(outputstream, false, StandardCharsets.US_ASCII);
 
     out.write(toBytes("1B 56")); // start vector mode
 
@@ -496,7 +520,7 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     ArrayList<Double> x = new ArrayList<>();
     ArrayList<Double> y = new ArrayList<>();
     double cuttingTime = 0;
-    for (VectorCommand cmd : vp.getCommandList())
+    for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
     {
       if (cmd.getType() == CmdType.LINETO)
       {
@@ -1584,10 +1608,10 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     }
   }
 
-  private double generateRasterCode(ByteArrayOutputStream outputstream, RasterizableJobPart rp, double resolution) throws UnsupportedEncodingException, IOException
+  private double generateRasterCode(OutputStream outputstream, RasterizableJobPart rp, double resolution) throws UnsupportedEncodingException, IOException
   {
     double laserTime = 0;
-    PrintStream out = new PrintStream(outputstream, true, StandardCharsets.US_ASCII);
+    PrintStream out = new PrintStream(outputstream, false, StandardCharsets.US_ASCII);
     // TODO: handle the special case if the engraving is near the left or right end of the coordinate system.
     // -> we may use slightly negative or too large coordinates (check original driver output!)
     // -> and if that's not enough, accept that the first 25mm or so are slower and apply a compensation table which reduces the intensity (or scales the pixels? whatever...) at the start
@@ -1709,46 +1733,108 @@ public class LaserToolsTechnicsCutter extends LaserCutter
 
      see decompressData() for a decoding routine, which should be enough for a definition.
      */
-    ByteArrayList compressed = new ByteArrayList(bytes.size() / 16);
-    int i = 0;
-    while (i < bytes.size())
+    byte[] buffer = new byte[maxCompressedLength(bytes.size())];
+    int length = compressLine(bytes, false, false, 0, buffer);
+    ByteArrayList compressed = new ByteArrayList(length);
+    for (int i = 0; i < length; i++)
     {
-      byte currentByte = bytes.get(i);
-      // is the current byte repeated?
-      int runlength = 1;
-      int maxRunlength = 0xFF - COMPRESS_MAGIC_CONSTANT;
-      while (i + runlength < bytes.size() && runlength < maxRunlength)
+      compressed.add(buffer[i]);
+    }
+    return compressed;
+  }
+
+  /**
+   * @return the maximum length of n compressed bytes: every byte may need
+   * an escape byte
+   */
+  static int maxCompressedLength(int n)
+  {
+    return 2 * n;
+  }
+
+  /**
+   * Transforms a line of pixels for sending and compresses it (see
+   * compressData()) in one pass, without modifying bytes:
+   * if reverse is set, the byte order is reversed (right-to-left lines),
+   * and with reverseBitsInByte also the bits of each byte (like
+   * ByteArrayList.reverseBits()). Then the bits are shifted by shift to
+   * the left (negative: to the right) like ByteArrayList.leftShiftBits().
+   *
+   * @param out receives the compressed data, at least
+   * maxCompressedLength(bytes.size()) bytes
+   * @return length of the compressed data
+   */
+  static int compressLine(ByteArrayList bytes, boolean reverse, boolean reverseBitsInByte, int shift, byte[] out)
+  {
+    int n = bytes.size();
+    int bytesShift = shift >> 3; // rounds down, also for negative shifts
+    int bitsShift = shift & 7;
+    final int maxRunlength = 0xFF - COMPRESS_MAGIC_CONSTANT;
+    int length = 0;
+    int currentByte = 0;
+    int runlength = 0;
+    for (int i = 0; i < n; i++)
+    {
+      // the 8 bits starting at bit 8 * i + shift of the (reversed) line
+      int hi = lineByte(bytes, n, i + bytesShift, reverse, reverseBitsInByte);
+      int value = hi;
+      if (bitsShift != 0)
       {
-        if (currentByte == bytes.get(i + runlength))
-        {
-          runlength++;
-        }
-        else
-        {
-          break;
-        }
+        int lo = lineByte(bytes, n, i + bytesShift + 1, reverse, reverseBitsInByte);
+        value = ((hi << bitsShift) | (lo >> (8 - bitsShift))) & 0xFF;
       }
-      if (runlength == 1)
+      if (runlength > 0 && value == currentByte && runlength < maxRunlength)
       {
-        int value = currentByte & 0xFF; // cast to unsigned (java thinks the byte is signed!)
-        if (value >= COMPRESS_MAGIC_CONSTANT)
-        {
-          // escape uncompressed data ("repeat 1 times")
-          compressed.add((byte) (COMPRESS_MAGIC_CONSTANT + 1));
-        }
-        compressed.add(currentByte);
+        runlength++;
+        continue;
       }
-      else
+      length = writeRun(out, length, currentByte, runlength);
+      currentByte = value;
+      runlength = 1;
+    }
+    return writeRun(out, length, currentByte, runlength);
+  }
+
+  /**
+   * @return byte i (unsigned) of the line, after reversing it if requested,
+   * 0 outside of the line
+   */
+  private static int lineByte(ByteArrayList bytes, int n, int i, boolean reverse, boolean reverseBitsInByte)
+  {
+    if (i < 0 || i >= n)
+    {
+      return 0;
+    }
+    if (!reverse)
+    {
+      return bytes.getByte(i) & 0xFF;
+    }
+    int b = bytes.getByte(n - 1 - i) & 0xFF;
+    return reverseBitsInByte ? Integer.reverse(b) >>> 24 : b;
+  }
+
+  /**
+   * Writes runlength (0 ... maxRunlength) times value in compressed form
+   * @return the new length of out
+   */
+  private static int writeRun(byte[] out, int length, int value, int runlength)
+  {
+    if (runlength == 1)
+    {
+      if (value >= COMPRESS_MAGIC_CONSTANT)
       {
-        myAssert(runlength + COMPRESS_MAGIC_CONSTANT <= 0xFF);
-        // "repeat n times"
-        compressed.add((byte) (COMPRESS_MAGIC_CONSTANT + runlength));
-        compressed.add(currentByte);
+        // escape uncompressed data ("repeat 1 times")
+        out[length++] = (byte) (COMPRESS_MAGIC_CONSTANT + 1);
       }
-      i += runlength;
+      out[length++] = (byte) value;
     }
-    myAssert(decompressData(compressed).equals(bytes));
-    return compressed;
+    else if (runlength > 1)
+    {
+      // "repeat n times"
+      out[length++] = (byte) (COMPRESS_MAGIC_CONSTANT + runlength);
+      out[length++] = (byte) value;
+    }
+    return length;
   }
 
   // somehow, "assert" has no effect, so we use this:
@@ -1797,6 +1883,31 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     return output;
   }
 
+  /**
+   * Checks the result of compressLine() by transforming a copy of bytes
+   * step by step and decompressing the compressed data again
+   */
+  private static void verifyCompressedLine(ByteArrayList bytes, boolean reverse, boolean reverseBitsInByte, int shift, byte[] compressed, int length)
+  {
+    ByteArrayList expected = new ByteArrayList(bytes.size());
+    expected.addAll(bytes);
+    if (reverse && reverseBitsInByte)
+    {
+      expected.reverseBits();
+    }
+    else if (reverse)
+    {
+      Collections.reverse(expected);
+    }
+    expected.leftShiftBits(shift);
+    ByteArrayList data = new ByteArrayList(length);
+    for (int i = 0; i < length; i++)
+    {
+      data.add(compressed[i]);
+    }
+    myAssert(decompressData(data).equals(expected));
+  }
+
   /**
    * engrave a single line of pixels
    *
@@ -1821,26 +1932,26 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     {
       out.write(toBytes("1B 31"));
       // right-to-left. We need to flip the whole bit and byte order.
-      if (pixelsPerByte == 8) {
-        bytes.reverseBits();
-      } else {
-        myAssert(pixelsPerByte == 1);
-        Collections.reverse(bytes);
-      }
+      myAssert(pixelsPerByte == 8 || pixelsPerByte == 1);
     }
     int bitsPerPixel = 8 / pixelsPerByte;
-    bytes.leftShiftBits((int) (-pixelOffset * bitsPerPixel));
-    ByteArrayList compressed = compressData(bytes);
+    int shift = (int) (-pixelOffset * bitsPerPixel);
+    if (compressBuffer == null || compressBuffer.length < maxCompressedLength(bytes.size()))
+    {
+      compressBuffer = new byte[maxCompressedLength(bytes.size())];
+    }
+    int length = compressLine(bytes, !dirLeftToRight, pixelsPerByte == 8, shift, compressBuffer);
+    if (verifyCompression)
+    {
+      verifyCompressedLine(bytes, !dirLeftToRight, pixelsPerByte == 8, shift, compressBuffer, length);
+    }
 
     // length
-    writeU32(out, compressed.size() + 8);
+    writeU32(out, length + 8);
     // X, Y
     sendCoordinate(out, (int) (lineStart.x + (dirLeftToRight ? 0 : (bytes.size() * pixelsPerByte))), (int) lineStart.y, resolution, false);
     // data (length-8 bytes)
-    for (byte b : compressed)
-    {
-      out.write(b);
-    }
+    out.write(compressBuffer, 0, length);
     // TODO: this time estimate doesn't include the travel time to the start point
     // TODO make the following parameters configurable
     final double engraveSpeedVersusCutSpeed = 6.4; // Factor between full engrave speed and full cut speed.
@@ -1928,6 +2039,50 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     return result.toByteArray();
   }
 
+  /**
+   * Passes the job data through and keeps the byte count and the 16 bit
+   * byte sum needed for the trailer
+   */
+  private static class ChecksumOutputStream extends FilterOutputStream
+  {
+    private long count = 0;
+    private int checksum = 0;
+
+    ChecksumOutputStream(OutputStream out)
+    {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      out.write(b);
+      checksum += b & 0xFF;
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      out.write(b, off, len);
+      for (int i = off; i < off + len; i++)
+      {
+        checksum += b[i] & 0xFF;
+      }
+      count += len;
+    }
+
+    int getChecksum()
+    {
+      return checksum & 0xFFFF;
+    }
+
+    long getCount()
+    {
+      return count;
+    }
+  }
+
   protected double writeJobCode(LaserJob job, OutputStream os, ProgressListener pl, List<String> warnings) throws UnsupportedEncodingException, IOException, IllegalJobException
   {
     // fix null arguments
@@ -1992,7 +2147,8 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     currentPurge = false;
     currentVentilation = false;
     
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // checksum and length are a trailer, so the job can be streamed
+    ChecksumOutputStream out = new ChecksumOutputStream(os);
     out.write(this.generateInitializationCode(job.getName()));
     pl.taskChanged(this, "processing");
     pl.progressChanged(this, 20);
@@ -2006,43 +2162,86 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     parts.sort((p1, p2) ->
             Boolean.compare(p1 instanceof VectorPart, p2 instanceof VectorPart));
 
-    for (JobPart p : parts)
+    if (parallelEncoding)
     {
-      if (p instanceof Raster3dPart || p instanceof RasterPart)
+      ProgressListener progress = pl;
+      double[] total = {0};
+      int[] done = {0};
+      OrderedParallelEncoder.encode(parts, p ->
       {
-        duration += this.generateRasterCode(out, (RasterizableJobPart) p, p.getDPI());
-      }
-      else if (p instanceof VectorPart)
+        LaserToolsTechnicsCutter encoder = createPartEncoder();
+        encoder.encodedDuration = encoder.generatePartCode(encoder.encodedPart, p);
+        return encoder;
+      }, encoder ->
       {
-        duration += this.generateVectorCode(out, (VectorPart) p, p.getDPI());
+        encoder.encodedPart.writeTo(out);
+        total[0] += encoder.encodedDuration;
+        done[0]++;
+        progress.progressChanged(this, 20 + (int) (done[0] * (double) 60 / max));
+      });
+      duration = total[0];
+    }
+    else
+    {
+      for (JobPart p : parts)
+      {
+        duration += this.generatePartCode(out, p);
+        i++;
+        pl.progressChanged(this, 20 + (int) (i * (double) 60 / max));
       }
-      i++;
-      pl.progressChanged(this, 20 + (int) (i * (double) 60 / max));
     }
     out.write(this.generateShutdownCode());
 
-    // compute checksum
-    out.flush(); // unnecessary?
-    byte[] result = out.toByteArray();
-    int checksum = 0;
-    for (byte b : result)
-    {
-      checksum += b & 0xFF;
-    }
-    checksum &= 0xFFFF;
-    writeU16(out, checksum);
+    // checksum
+    writeU16(os, out.getChecksum());
 
     // total length
-    writeU32(out, result.length + 6);
+    writeU32(os, out.getCount() + 6);
     pl.taskChanged(this, "sending");
-    os.write(out.toByteArray());
+    os.flush();
     return duration;
   }
 
+  /**
+   * @return cutting time
+   */
+  private double generatePartCode(OutputStream out, JobPart p) throws IOException
+  {
+    if (p instanceof Raster3dPart || p instanceof RasterPart)
+    {
+      return this.generateRasterCode(out, (RasterizableJobPart) p, p.getDPI());
+    }
+    else if (p instanceof VectorPart)
+    {
+      return this.generateVectorCode(out, (VectorPart) p, p.getDPI());
+    }
+    return 0;
+  }
+
+  /**
+   * Creates a copy of this driver which encodes one part into a buffer.
+   * The state left by the previous part is unknown to it, so the part sets
+   * power, speed and job mode again, and the travel time to its first point
+   * is estimated from the origin.
+   */
+  private LaserToolsTechnicsCutter createPartEncoder()
+  {
+    LaserToolsTechnicsCutter encoder = (LaserToolsTechnicsCutter) this.clone();
+    encoder.encodedPart = new ByteArrayOutputStream();
+    encoder.currentX = 0;
+    encoder.currentY = 0;
+    // no part uses these bits per pixel, so the job mode is sent again
+    encoder.currentJobMode = currentJobMode | JOB_MODE_MASK_BITS_PER_PX;
+    return encoder;
+  }
+
   @Override
   public void saveJob(OutputStream fileOutputStream, LaserJob job) throws UnsupportedOperationException, IllegalJobException, IOException
   {
-    this.writeJobCode(job, fileOutputStream, null, null);
+    try (OutputStream out = openStreamingSink(fileOutputStream))
+    {
+      this.writeJobCode(job, out, null, null);
+    }
   }
 
   @Override
@@ -2052,7 +2251,7 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     try (Socket connection = new Socket())
     {
       connection.connect(new InetSocketAddress(hostname, port), 3000);
-      try (BufferedOutputStream out = new BufferedOutputStream(connection.getOutputStream()))
+      try (OutputStream out = openStreamingSink(new BufferedOutputStream(connection.getOutputStream())))
       {
         this.writeJobCode(job, out, pl, warnings);
       }
@@ -2204,7 +2403,9 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     SETTING_RASTER_WHITESPACE_MIN,
     SETTING_RASTER_WHITESPACE_MAX,
     SETTING_RASTER_SHIFTTABLE,
-    SETTING_DEBUGFILE
+    SETTING_DEBUGFILE,
+    SETTING_DEBUG_VERIFY_COMPRESSION,
+    SETTING_PARALLEL_ENCODING
   };
 
   @Override
@@ -2220,6 +2421,14 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     {
       return this.debugFilename;
     }
+    else if (SETTING_DEBUG_VERIFY_COMPRESSION.equals(attribute))
+    {
+      return this.verifyCompression;
+    }
+    else if (SETTING_PARALLEL_ENCODING.equals(attribute))
+    {
+      return this.parallelEncoding;
+    }
     else if (SETTING_RASTER_WHITESPACE_MIN.equals(attribute))
     {
       return this.addSpacePerRasterLineMinimum;
@@ -2313,6 +2522,14 @@ public class LaserToolsTechnicsCutter extends LaserCutter
     {
       this.debugFilename = value != null ? (String) value : "";
     }
+    else if (SETTING_DEBUG_VERIFY_COMPRESSION.equals(attribute))
+    {
+      this.verifyCompression = (Boolean) value;
+    }
+    else if (SETTING_PARALLEL_ENCODING.equals(attribute))
+    {
+      this.parallelEncoding = (Boolean) value;
+    }
     else if (SETTING_RASTER_WHITESPACE_MIN.equals(attribute))
     {
       this.addSpacePerRasterLineMinimum = (Double) value;
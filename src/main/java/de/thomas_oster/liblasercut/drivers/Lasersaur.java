@@ -25,22 +25,22 @@ import de.thomas_oster.liblasercut.LaserJob;
 import de.thomas_oster.liblasercut.LaserProperty;
 import de.thomas_oster.liblasercut.ProgressListener;
 import de.thomas_oster.liblasercut.RasterizableJobPart;
-import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.GcodeWriter;
 import purejavacomm.CommPort;
 import purejavacomm.CommPortIdentifier;
 import purejavacomm.SerialPort;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * This class implements a driver for the LAOS Lasercutter board. Currently it
@@ -158,10 +158,10 @@ public class Lasersaur extends LaserCutter {
     this.comPort = comPort;
   }
 
-  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws UnsupportedEncodingException {
+  private byte[] generateVectorGCode(VectorPart vp, double resolution) throws IOException {
     ByteArrayOutputStream result = new ByteArrayOutputStream();
     PrintStream out = new PrintStream(result, true, StandardCharsets.US_ASCII);
-    for (VectorCommand cmd : vp.getCommandList()) {
+    for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();) {
       switch (cmd.getType()) {
         case MOVETO:
           double x = cmd.getX();
@@ -184,28 +184,42 @@ public class Lasersaur extends LaserCutter {
   }
   private int currentPower = -1;
   private int currentSpeed = -1;
+  private transient GcodeWriter gcode;
 
-  private void setSpeed(PrintStream out, int speedInPercent) {
+  private void setSpeed(PrintStream out, int speedInPercent) throws IOException {
     if (speedInPercent != currentSpeed) {
-      out.printf(Locale.US, "G1 F%d\n", (int) ((double) speedInPercent * this.getLaserRate() / 100));
+      gcode.begin("G1").modalWord('F', (int) ((double) speedInPercent * this.getLaserRate() / 100));
+      writeGcode(out);
       currentSpeed = speedInPercent;
     }
 
   }
 
-  private void setPower(PrintStream out, int powerInPercent) {
+  private void setPower(PrintStream out, int powerInPercent) throws IOException {
     if (powerInPercent != currentPower) {
-      out.printf(Locale.US, "S%d\n", (int) (255d * powerInPercent / 100));
+      gcode.begin("").modalWord('S', (int) (255d * powerInPercent / 100));
+      writeGcode(out);
       currentPower = powerInPercent;
     }
   }
 
-  private void move(PrintStream out, double x, double y, double resolution) {
-    out.printf(Locale.US, "G0 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+  private void move(PrintStream out, double x, double y, double resolution) throws IOException {
+    gcode.begin("G0").modalWord('X', Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution)).modalWord('Y', Util.px2mm(y, resolution));
+    writeGcode(out);
   }
 
-  private void line(PrintStream out, double x, double y, double resolution) {
-    out.printf(Locale.US, "G1 X%f Y%f\n", Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution), Util.px2mm(y, resolution));
+  private void line(PrintStream out, double x, double y, double resolution) throws IOException {
+    gcode.begin("G1").modalWord('X', Util.px2mm(isFlipXaxis() ? Util.mm2px(bedWidth, resolution) - x : x, resolution)).modalWord('Y', Util.px2mm(y, resolution));
+    writeGcode(out);
+  }
+
+  /**
+   * writes the line built in gcode, unless all its words were unchanged
+   */
+  private void writeGcode(PrintStream out) throws IOException {
+    if (gcode.hasWords()) {
+      gcode.append('\n').writeTo(out);
+    }
   }
 
   private byte[] generateInitializationCode() throws UnsupportedEncodingException {
@@ -255,6 +269,7 @@ public class Lasersaur extends LaserCutter {
   }
 
   private void writeJob(BufferedOutputStream out, LaserJob job, ProgressListener pl, SerialPort port) throws IllegalJobException, Exception {
+    gcode = new GcodeWriter(6);
     out.write(this.generateInitializationCode());
     if (pl != null) pl.progressChanged(this, 20);
     int i = 0;
@@ -25,6 +25,7 @@ package de.thomas_oster.liblasercut.drivers;
 
 import de.thomas_oster.liblasercut.*;
 import de.thomas_oster.liblasercut.platform.Util;
+import de.thomas_oster.liblasercut.utils.GcodeWriter;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
@@ -37,7 +38,6 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
 import purejavacomm.CommPortIdentifier;
 import purejavacomm.NoSuchPortException;
 import purejavacomm.PortInUseException;
@@ -221,19 +221,30 @@ public class MakeBlockXYPlotter extends LaserCutter
   
   private void move(double x, double y, double resolution) throws Exception{
     toolOff();
-    this.sendCommand(String.format(Locale.US, "G0 X%f Y%f", Util.px2mm(x, resolution), Util.px2mm(y, resolution)));
+    sendGcode(gcode.begin("G0").modalWord('X', Util.px2mm(x, resolution)).modalWord('Y', Util.px2mm(y, resolution)));
   }
 
   private void line(double x, double y, double resolution) throws Exception{
     toolOn();
-    this.sendCommand(String.format(Locale.US, "G1 X%f Y%f", Util.px2mm(x, resolution), Util.px2mm(y, resolution)));
+    sendGcode(gcode.begin("G1").modalWord('X', Util.px2mm(x, resolution)).modalWord('Y', Util.px2mm(y, resolution)));
+  }
+
+  private transient GcodeWriter gcode;
+
+  /**
+   * sends the line built in gcode, unless all its words were unchanged
+   */
+  private void sendGcode(GcodeWriter line) throws Exception {
+    if (line.hasWords()) {
+      this.sendCommand(line.toString());
+    }
   }
   
   private void generateVectorGCode(VectorPart vp, double resolution, ProgressListener pl, int startProgress, int maxProgress) throws UnsupportedEncodingException, Exception {
     int i = 0;
     int progress;
-    int max = vp.getCommandList().length;
-    for (VectorCommand cmd : vp.getCommandList()) {
+    int max = vp.getCommandCount();
+    for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();) {
       switch (cmd.getType()) {
         case MOVETO:
           double x = cmd.getX();
@@ -401,6 +412,7 @@ public class MakeBlockXYPlotter extends LaserCutter
   
   public void sendGCode(LaserJob job, ProgressListener pl) throws Exception
   {
+    gcode = new GcodeWriter(6);
     this.generateInitializationGCode();
     int startProgress = 20;
     pl.progressChanged(this, startProgress);
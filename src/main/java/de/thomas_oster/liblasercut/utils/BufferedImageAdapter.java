@@ -58,17 +58,94 @@ public class BufferedImageAdapter implements GreyscaleRaster
 
   public int getGreyScale(int x, int line)
   {
-    Color c = new Color(img.getRGB(x, line));
-    int value = colorShift+(int) (0.3 * c.getRed() + 0.59 * c.getGreen() + 0.11 * c.getBlue());
+    return greyScale(img.getRGB(x, line));
+  }
+
+  /**
+   * greyscale value of an (A)RGB pixel, alpha is ignored
+   */
+  private int greyScale(int rgb)
+  {
+    int value = colorShift+(int) (0.3 * ((rgb >> 16) & 0xFF) + 0.59 * ((rgb >> 8) & 0xFF) + 0.11 * (rgb & 0xFF));
     return invertColors ? 255-Math.max(Math.min(value, 255), 0) : Math.max(Math.min(value, 255), 0);
   }
 
+  /**
+   * Reads the (A)RGB values of one row into rgb.
+   * For the common int RGB types the raster data is copied directly,
+   * otherwise the bulk getRGB() is used.
+   */
+  private void readRGB(int y, int[] rgb)
+  {
+    int width = img.getWidth();
+    int type = img.getType();
+    if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+    {
+      img.getRaster().getDataElements(0, y, width, 1, rgb);
+    }
+    else
+    {
+      img.getRGB(0, y, width, 1, rgb, 0, width);
+    }
+  }
+
+  @Override
+  public int[] readRow(int y, int[] row)
+  {
+    int width = img.getWidth();
+    if (row == null || row.length < width)
+    {
+      row = new int[width];
+    }
+    readRGB(y, row);
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = greyScale(row[x]);
+    }
+    return row;
+  }
+
+  @Override
+  public byte[] readRow(int y, byte[] row)
+  {
+    int width = img.getWidth();
+    if (row == null || row.length < width)
+    {
+      row = new byte[width];
+    }
+    int[] rgb = new int[width];
+    readRGB(y, rgb);
+    for (int x = 0; x < width; x++)
+    {
+      row[x] = (byte) greyScale(rgb[x]);
+    }
+    return row;
+  }
+
   public void setGreyScale(int x, int y, int grey)
   {
     Color c = new Color(grey, grey, grey);
     img.setRGB(x, y, c.getRGB());
   }
 
+  @Override
+  public void writeRow(int y, int[] row)
+  {
+    int width = img.getWidth();
+    int[] rgb = new int[width];
+    for (int x = 0; x < width; x++)
+    {
+      // same as new Color(grey, grey, grey).getRGB(), which also rejects values out of range
+      int grey = row[x];
+      if (grey < 0 || grey > 255)
+      {
+        throw new IllegalArgumentException("Color parameter outside of expected range: " + grey);
+      }
+      rgb[x] = 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+    }
+    img.setRGB(0, y, width, 1, rgb, 0, width);
+  }
+
   public int getWidth()
   {
     return img.getWidth();
@@ -0,0 +1,286 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipelined sender for line based G-code controllers, using the
+ * "character counting" flow control of GRBL.
+ *
+ * The producer (the thread generating the G-code) hands complete lines to
+ * send(), which puts them into a bounded queue. A transmitter thread sends
+ * lines as long as the unacknowledged ones fit into the receive buffer of
+ * the controller, so the controller never runs dry. A receiver thread
+ * matches each "ok" to the oldest unacknowledged line and frees its space.
+ * "error" responses abort the job; other messages (status reports, echo)
+ * are ignored.
+ *
+ * finish() waits until every line has been acknowledged.
+ */
+public class CharacterCountingSender implements Closeable
+{
+
+  public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+  /**
+   * Reads the next non-empty line from the controller, or null at the end
+   * of the stream
+   */
+  public interface ResponseReader
+  {
+    String readLine() throws IOException;
+  }
+
+  /**
+   * marks the end of the job in the queue, real lines always have a lineend
+   */
+  private static final String END = "";
+
+  private final OutputStream out;
+  private final ResponseReader in;
+  private final int rxBufferSize;
+  private final BlockingQueue<String> queue;
+  private final Thread transmitter;
+  private final Thread receiver;
+
+  // guarded by this
+  private final Deque<Integer> unacknowledged = new ArrayDeque<>();
+  private int unacknowledgedBytes = 0;
+  private boolean transmitted = false;
+  private IOException failure = null;
+
+  public CharacterCountingSender(OutputStream out, ResponseReader in, int rxBufferSize)
+  {
+    this(out, in, rxBufferSize, DEFAULT_QUEUE_SIZE);
+  }
+
+  /**
+   * @param out stream to the controller
+   * @param in responses of the controller
+   * @param rxBufferSize size of the receive buffer of the controller in bytes
+   * @param queueSize number of lines the producer may be ahead
+   */
+  public CharacterCountingSender(OutputStream out, ResponseReader in, int rxBufferSize, int queueSize)
+  {
+    this.out = out;
+    this.in = in;
+    this.rxBufferSize = rxBufferSize;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.transmitter = new Thread(this::transmit, "G-code transmitter");
+    this.receiver = new Thread(this::receive, "G-code receiver");
+    transmitter.setDaemon(true);
+    receiver.setDaemon(true);
+    transmitter.start();
+    receiver.start();
+  }
+
+  private synchronized void fail(IOException e)
+  {
+    if (failure == null)
+    {
+      failure = e;
+    }
+    notifyAll();
+  }
+
+  private synchronized void checkFailure() throws IOException
+  {
+    if (failure != null)
+    {
+      throw new IOException(failure.getMessage(), failure);
+    }
+  }
+
+  private void transmit()
+  {
+    try
+    {
+      while (true)
+      {
+        String line = queue.take();
+        if (line == END)
+        {
+          synchronized (this)
+          {
+            transmitted = true;
+            notifyAll();
+          }
+          return;
+        }
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        synchronized (this)
+        {
+          // a line longer than the buffer is sent when the buffer is empty
+          while (failure == null && !unacknowledged.isEmpty() && unacknowledgedBytes + bytes.length > rxBufferSize)
+          {
+            wait();
+          }
+          if (failure != null)
+          {
+            return;
+          }
+          unacknowledged.add(bytes.length);
+          unacknowledgedBytes += bytes.length;
+          notifyAll();
+        }
+        out.write(bytes);
+        out.flush();
+      }
+    }
+    catch (IOException e)
+    {
+      fail(e);
+    }
+    catch (InterruptedException e)
+    {
+      fail(new InterruptedIOException("Sending was interrupted"));
+    }
+  }
+
+  private void receive()
+  {
+    try
+    {
+      while (true)
+      {
+        synchronized (this)
+        {
+          while (failure == null && unacknowledged.isEmpty() && !transmitted)
+          {
+            wait();
+          }
+          if (failure != null || unacknowledged.isEmpty())
+          {
+            return;
+          }
+        }
+        String line = in.readLine();
+        if (line == null)
+        {
+          throw new IOException("Lasercutter closed the connection before all lines were acknowledged");
+        }
+        if ("ok".equals(line) || line.startsWith("ok "))
+        {
+          synchronized (this)
+          {
+            unacknowledgedBytes -= unacknowledged.remove();
+            notifyAll();
+          }
+        }
+        else if (line.startsWith("error"))
+        {
+          throw new IOException("Lasercutter did not respond 'ok', but '"+line+"'instead.");
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      fail(e);
+    }
+    catch (InterruptedException e)
+    {
+      fail(new InterruptedIOException("Receiving was interrupted"));
+    }
+  }
+
+  /**
+   * Queues a line for sending, blocking while the queue is full.
+   * @param line complete line including the lineend
+   * @throws IOException if sending or an earlier line failed
+   */
+  public void send(String line) throws IOException
+  {
+    if (line.isEmpty())
+    {
+      return;
+    }
+    try
+    {
+      while (!queue.offer(line, 100, TimeUnit.MILLISECONDS))
+      {
+        checkFailure();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    checkFailure();
+  }
+
+  /**
+   * Waits until all queued lines have been sent and acknowledged.
+   * @throws IOException if the controller responded with an error
+   */
+  public void finish() throws IOException
+  {
+    try
+    {
+      while (!queue.offer(END, 100, TimeUnit.MILLISECONDS))
+      {
+        checkFailure();
+      }
+      transmitter.join();
+      receiver.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    checkFailure();
+  }
+
+  /**
+   * @return number of bytes sent, but not yet acknowledged
+   */
+  public synchronized int getUnacknowledgedBytes()
+  {
+    return unacknowledgedBytes;
+  }
+
+  /**
+   * Stops sending. Lines not yet acknowledged are lost. A receiver blocked
+   * on the controller ends when the connection is closed.
+   */
+  @Override
+  public void close()
+  {
+    synchronized (this)
+    {
+      if (failure == null && !(transmitted && unacknowledged.isEmpty()))
+      {
+        failure = new IOException("Sending was aborted");
+      }
+      notifyAll();
+    }
+    transmitter.interrupt();
+  }
+}
@@ -0,0 +1,347 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Builds one line of G-code (or a similar text format) at a time in a
+ * reusable byte buffer, formatting numbers directly instead of going
+ * through String.format.
+ *
+ * Decimals are written with a fixed number of digits after the point,
+ * optionally without trailing zeros. Words added with modalWord() are left
+ * out if the same value was already written for that letter, because G-code
+ * words like X, Y, F and S stay in effect until they change. Call
+ * forgetModalState() whenever other code may have changed them.
+ *
+ * <pre>
+ * gcode.begin("G1").modalWord('X', x).modalWord('Y', y).modalWord('F', feed);
+ * if (gcode.hasWords()) gcode.append("\n").writeTo(out);
+ * </pre>
+ */
+public class GcodeWriter
+{
+
+  private static final long[] POWERS_OF_TEN = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+  };
+
+  private final int decimals;
+  private final long scale;
+  private boolean stripTrailingZeros = true;
+  private String wordSeparator = " ";
+  private byte[] buffer = new byte[64];
+  private int length = 0;
+  private int words = 0;
+  /**
+   * last value written for each letter A-Z, in units of 10^-decimals
+   */
+  private final long[] modalValue = new long[26];
+  private final boolean[] modalKnown = new boolean[26];
+
+  /**
+   * @param decimals number of digits after the decimal point (0-9)
+   */
+  public GcodeWriter(int decimals)
+  {
+    if (decimals < 0 || decimals >= POWERS_OF_TEN.length)
+    {
+      throw new IllegalArgumentException("decimals must be between 0 and " + (POWERS_OF_TEN.length - 1));
+    }
+    this.decimals = decimals;
+    this.scale = POWERS_OF_TEN[decimals];
+  }
+
+  public int getDecimals()
+  {
+    return decimals;
+  }
+
+  public boolean isStripTrailingZeros()
+  {
+    return stripTrailingZeros;
+  }
+
+  /**
+   * @param stripTrailingZeros write 1.5 instead of 1.500000 and 2 instead of
+   * 2.000000
+   */
+  public void setStripTrailingZeros(boolean stripTrailingZeros)
+  {
+    this.stripTrailingZeros = stripTrailingZeros;
+  }
+
+  public String getWordSeparator()
+  {
+    return wordSeparator;
+  }
+
+  /**
+   * @param wordSeparator text between the words of a line, " " by default
+   */
+  public void setWordSeparator(String wordSeparator)
+  {
+    this.wordSeparator = wordSeparator;
+  }
+
+  /**
+   * Forgets the values of all modal words, so the next modalWord() for each
+   * letter is written.
+   */
+  public void forgetModalState()
+  {
+    Arrays.fill(modalKnown, false);
+  }
+
+  /**
+   * Starts a new line.
+   * @param command the command, e.g. "G1", or "" for a line of words only
+   */
+  public GcodeWriter begin(String command)
+  {
+    length = 0;
+    words = 0;
+    return append(command);
+  }
+
+  /**
+   * @return true if a word was added since begin()
+   */
+  public boolean hasWords()
+  {
+    return words > 0;
+  }
+
+  private void ensureCapacity(int additional)
+  {
+    if (length + additional > buffer.length)
+    {
+      buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + additional));
+    }
+  }
+
+  public GcodeWriter append(char c)
+  {
+    ensureCapacity(1);
+    buffer[length++] = (byte) c;
+    return this;
+  }
+
+  public GcodeWriter append(String text)
+  {
+    int n = text.length();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++)
+    {
+      buffer[length++] = (byte) text.charAt(i);
+    }
+    return this;
+  }
+
+  /**
+   * Writes an integer
+   */
+  public GcodeWriter number(long value)
+  {
+    if (value < 0)
+    {
+      if (value == Long.MIN_VALUE)
+      {
+        return append(Long.toString(value));
+      }
+      append('-');
+      value = -value;
+    }
+    appendDigits(value, 1);
+    return this;
+  }
+
+  /**
+   * Writes a decimal rounded to the configured number of decimals
+   */
+  public GcodeWriter number(double value)
+  {
+    long scaled = scale(value);
+    if (scaled == Long.MIN_VALUE)
+    {
+      // NaN, infinite or too large for a long
+      return append(String.format(Locale.US, "%." + decimals + "f", value));
+    }
+    return scaledNumber(scaled);
+  }
+
+  private long scale(double value)
+  {
+    double abs = Math.abs(value) * scale;
+    if (!(abs < 9e18))
+    {
+      return Long.MIN_VALUE;
+    }
+    long scaled = Math.round(abs);
+    return value < 0 ? -scaled : scaled;
+  }
+
+  private GcodeWriter scaledNumber(long scaled)
+  {
+    if (scaled < 0)
+    {
+      append('-');
+      scaled = -scaled;
+    }
+    appendDigits(scaled / scale, 1);
+    long fraction = scaled % scale;
+    int digits = decimals;
+    if (stripTrailingZeros)
+    {
+      if (fraction == 0)
+      {
+        return this;
+      }
+      while (fraction % 10 == 0)
+      {
+        fraction /= 10;
+        digits--;
+      }
+    }
+    if (digits > 0)
+    {
+      append('.');
+      appendDigits(fraction, digits);
+    }
+    return this;
+  }
+
+  /**
+   * appends value with at least minDigits digits (zero padded)
+   */
+  private void appendDigits(long value, int minDigits)
+  {
+    int digits = 1;
+    for (long v = value / 10; v > 0; v /= 10)
+    {
+      digits++;
+    }
+    digits = Math.max(digits, minDigits);
+    ensureCapacity(digits);
+    for (int i = length + digits - 1; i >= length; i--)
+    {
+      buffer[i] = (byte) ('0' + (value % 10));
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  private void startWord(char letter)
+  {
+    if (length > 0)
+    {
+      append(wordSeparator);
+    }
+    append(letter);
+    words++;
+  }
+
+  private static int index(char letter)
+  {
+    int i = Character.toUpperCase(letter) - 'A';
+    return i >= 0 && i < 26 ? i : -1;
+  }
+
+  private void remember(char letter, long scaled)
+  {
+    int i = index(letter);
+    if (i >= 0)
+    {
+      modalValue[i] = scaled;
+      modalKnown[i] = scaled != Long.MIN_VALUE;
+    }
+  }
+
+  private boolean isUnchanged(char letter, long scaled)
+  {
+    int i = index(letter);
+    return i >= 0 && modalKnown[i] && modalValue[i] == scaled && scaled != Long.MIN_VALUE;
+  }
+
+  /**
+   * Adds a word like "X12.5"
+   */
+  public GcodeWriter word(char letter, double value)
+  {
+    startWord(letter);
+    number(value);
+    remember(letter, scale(value));
+    return this;
+  }
+
+  /**
+   * Adds a word with an integer value like "F1200"
+   */
+  public GcodeWriter word(char letter, long value)
+  {
+    startWord(letter);
+    number(value);
+    remember(letter, Math.abs(value) < Long.MAX_VALUE / scale ? value * scale : Long.MIN_VALUE);
+    return this;
+  }
+
+  /**
+   * Adds a word unless the same value was last written for this letter
+   */
+  public GcodeWriter modalWord(char letter, double value)
+  {
+    return isUnchanged(letter, scale(value)) ? this : word(letter, value);
+  }
+
+  /**
+   * Adds an integer word unless the same value was last written for this
+   * letter
+   */
+  public GcodeWriter modalWord(char letter, long value)
+  {
+    return Math.abs(value) < Long.MAX_VALUE / scale && isUnchanged(letter, value * scale) ? this : word(letter, value);
+  }
+
+  /**
+   * @return length of the current line in bytes
+   */
+  public int length()
+  {
+    return length;
+  }
+
+  /**
+   * Writes the current line
+   */
+  public void writeTo(OutputStream out) throws IOException
+  {
+    out.write(buffer, 0, length);
+  }
+
+  @Override
+  public String toString()
+  {
+    return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+  }
+}
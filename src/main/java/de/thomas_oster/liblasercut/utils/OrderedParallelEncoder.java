@@ -0,0 +1,167 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes the parts of a job concurrently and hands the results to a sink
+ * in the original order, on the calling thread. At most maxInFlight parts
+ * are encoded or waiting to be written at any time, so memory use does not
+ * grow with the number of parts.
+ *
+ * The encoder is called from several threads at once, so it must not share
+ * mutable state between parts (drivers encode each part with a clone of
+ * themselves). The first error of the encoder or the sink is thrown, and
+ * parts which are not written yet are cancelled.
+ */
+public class OrderedParallelEncoder
+{
+
+  public interface Source<T>
+  {
+    /**
+     * Called on the calling thread, in order, only when a part can be
+     * started, so the parts can be read from a stream while the previous
+     * ones are encoded.
+     * @return the next part, null after the last one
+     */
+    T next() throws IOException;
+  }
+
+  public interface Encoder<T, R>
+  {
+    R encode(T part) throws IOException;
+  }
+
+  public interface Sink<R>
+  {
+    void write(R encoded) throws IOException;
+  }
+
+  /**
+   * @return the number of threads to use by default, one per processor
+   */
+  public static int getDefaultThreads()
+  {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Encodes the parts with getDefaultThreads() threads and twice as many
+   * parts in flight
+   */
+  public static <T, R> void encode(List<T> parts, Encoder<T, R> encoder, Sink<R> sink) throws IOException
+  {
+    int threads = getDefaultThreads();
+    encode(parts, encoder, sink, threads, 2 * threads);
+  }
+
+  public static <T, R> void encode(List<T> parts, Encoder<T, R> encoder, Sink<R> sink, int threads, int maxInFlight) throws IOException
+  {
+    Iterator<T> next = parts.iterator();
+    encode(() -> next.hasNext() ? next.next() : null, encoder, sink, threads, maxInFlight);
+  }
+
+  public static <T, R> void encode(Source<T> parts, Encoder<T, R> encoder, Sink<R> sink, int threads, int maxInFlight) throws IOException
+  {
+    if (threads <= 1)
+    {
+      // nothing to overlap, so save the thread
+      for (T part = parts.next(); part != null; part = parts.next())
+      {
+        sink.write(encoder.encode(part));
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads, r ->
+    {
+      Thread t = new Thread(r, "OrderedParallelEncoder");
+      t.setDaemon(true);
+      return t;
+    });
+    try
+    {
+      Deque<Future<R>> inFlight = new ArrayDeque<>();
+      boolean more = true;
+      while (more || !inFlight.isEmpty())
+      {
+        while (more && inFlight.size() < Math.max(1, maxInFlight))
+        {
+          T part = parts.next();
+          if (part == null)
+          {
+            more = false;
+          }
+          else
+          {
+            inFlight.add(pool.submit(() -> encoder.encode(part)));
+          }
+        }
+        if (!inFlight.isEmpty())
+        {
+          sink.write(await(inFlight.poll()));
+        }
+      }
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  private static <R> R await(Future<R> future) throws IOException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Encoding was interrupted");
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+      {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException)
+      {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error)
+      {
+        throw (Error) cause;
+      }
+      throw new IOException("Encoding failed: " + cause.getMessage(), cause);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+/**
+ * TIFF PackBits run length encoder working on primitive byte arrays.
+ *
+ * A slice of a row is encoded either forwards or backwards (for scanlines
+ * which are engraved from right to left), without copying or reversing
+ * it first. The output buffer is kept and reused for the next row, so
+ * encoding a raster allocates nothing once the buffer has grown to the
+ * longest row.
+ */
+public class PackBitsEncoder
+{
+
+  private byte[] buffer = new byte[0];
+  private int length = 0;
+
+  /**
+   * Encodes line[from] ... line[to - 1], or the same bytes in reverse
+   * order.
+   *
+   * @return the length of the encoded data, see getBuffer()
+   */
+  public int encode(byte[] line, int from, int to, boolean reversed)
+  {
+    int r = to - from;
+    // runs never grow, and every literal is followed by a run of at least
+    // two bytes (or the end), so at most every third byte needs a header
+    int maxLength = r + r / 2 + 2;
+    if (buffer.length < maxLength)
+    {
+      buffer = new byte[maxLength];
+    }
+    // line[base + step * i] is the i-th byte to encode
+    int base = reversed ? to - 1 : from;
+    int step = reversed ? -1 : 1;
+    byte[] result = buffer;
+    int n = 0;
+    int idx = 0;
+    while (idx < r)
+    {
+      byte value = line[base + step * idx];
+      int p = idx + 1;
+      while (p < r && p < idx + 128 && line[base + step * p] == value)
+      {
+        p++;
+      }
+      if (p - idx >= 2)
+      {
+        // run length
+        result[n++] = (byte) (1 - (p - idx));
+        result[n++] = value;
+        idx = p;
+      }
+      else
+      {
+        p = idx;
+        while (p < r && p < idx + 127
+          && (p + 1 == r || line[base + step * p] != line[base + step * (p + 1)]))
+        {
+          p++;
+        }
+        result[n++] = (byte) (p - idx - 1);
+        while (idx < p)
+        {
+          result[n++] = line[base + step * idx++];
+        }
+      }
+    }
+    length = n;
+    return n;
+  }
+
+  /**
+   * @return the encoded data of the last call to encode() in the first
+   * getLength() bytes
+   */
+  public byte[] getBuffer()
+  {
+    return buffer;
+  }
+
+  public int getLength()
+  {
+    return length;
+  }
+}
@@ -0,0 +1,315 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.IOException;
+
+/**
+ * Reduces the number of commands of a polyline before it is sent to a
+ * controller: consecutive segments which stay within a tolerance of one
+ * straight line are merged, and (optionally) runs of segments which stay
+ * within the tolerance of a circle are replaced by one arc.
+ *
+ * Points are passed in with add() and the result is passed to a Sink as
+ * soon as it is known, so only the current run of points is held in memory.
+ * flush() has to be called whenever the polyline ends or something happens
+ * between two points (moves, power changes), because nothing is merged
+ * across a flush.
+ *
+ * Fitting is greedy: a line or arc is extended as long as all points of
+ * the run fit, then it is emitted and a new one starts at its end point.
+ */
+public class PathCompactor
+{
+
+  public interface Sink
+  {
+    void line(double x, double y) throws IOException;
+
+    /**
+     * @param x end point
+     * @param y end point
+     * @param i center of the circle relative to the start point
+     * @param j center of the circle relative to the start point
+     * @param counterClockwise direction in a coordinate system with y
+     * pointing up (G3), false for clockwise (G2)
+     */
+    void arc(double x, double y, double i, double j, boolean counterClockwise) throws IOException;
+  }
+
+  /**
+   * runs are emitted when they reach this many points, which keeps the
+   * fitting (quadratic in the run length) cheap
+   */
+  private static final int MAX_RUN = 256;
+  /**
+   * shorter arcs are not worth it, they are sent as lines
+   */
+  private static final int MIN_ARC_SEGMENTS = 3;
+  /**
+   * arcs close to a full circle are ambiguous for controllers
+   */
+  private static final double MAX_ARC_SWEEP = 1.5 * Math.PI;
+
+  private final Sink sink;
+  private final double tolerance;
+  private final boolean arcs;
+
+  private final double[] xs = new double[MAX_RUN];
+  private final double[] ys = new double[MAX_RUN];
+  private int count = 0;
+  private boolean lineFits;
+  private boolean arcFits;
+  private double arcX;
+  private double arcY;
+  private boolean arcCounterClockwise;
+
+  private long segmentsIn = 0;
+  private long commandsOut = 0;
+
+  /**
+   * @param sink receives the compacted path
+   * @param tolerance maximum distance between the original points and the
+   * emitted path, in the unit of the coordinates
+   * @param arcs whether arcs may be emitted at all
+   */
+  public PathCompactor(Sink sink, double tolerance, boolean arcs)
+  {
+    this.sink = sink;
+    this.tolerance = tolerance;
+    this.arcs = arcs;
+  }
+
+  /**
+   * Starts a new polyline at the given point (e.g. after a move). Points
+   * of the previous one are flushed.
+   */
+  public void start(double x, double y) throws IOException
+  {
+    flush();
+    xs[0] = x;
+    ys[0] = y;
+    count = 1;
+    lineFits = true;
+    arcFits = false;
+  }
+
+  /**
+   * Adds the end point of the next segment. Without a preceding start()
+   * the segment is passed on as it is.
+   */
+  public void add(double x, double y) throws IOException
+  {
+    segmentsIn++;
+    if (count == 0)
+    {
+      // the start point is unknown, so there is nothing to merge with
+      sink.line(x, y);
+      commandsOut++;
+      xs[0] = x;
+      ys[0] = y;
+      count = 1;
+      return;
+    }
+    if (count == MAX_RUN)
+    {
+      restartAtLastPoint();
+    }
+    xs[count] = x;
+    ys[count] = y;
+    count++;
+    if (count <= 2)
+    {
+      lineFits = true;
+      arcFits = false;
+      return;
+    }
+    if (lineFits && fitsLine())
+    {
+      return;
+    }
+    if (arcs && fitsArc())
+    {
+      lineFits = false;
+      arcFits = true;
+      return;
+    }
+    // the new point does not fit, emit everything before it
+    count--;
+    restartAtLastPoint();
+    xs[1] = x;
+    ys[1] = y;
+    count = 2;
+  }
+
+  /**
+   * Emits all pending segments. The next segment continues at the last
+   * point.
+   */
+  public void flush() throws IOException
+  {
+    if (count > 1)
+    {
+      restartAtLastPoint();
+    }
+  }
+
+  /**
+   * Emits the current run and starts a new one at its last point
+   */
+  private void restartAtLastPoint() throws IOException
+  {
+    int last = count - 1;
+    if (last > 0)
+    {
+      if (lineFits)
+      {
+        sink.line(xs[last], ys[last]);
+        commandsOut++;
+      }
+      else if (arcFits && last >= MIN_ARC_SEGMENTS)
+      {
+        sink.arc(xs[last], ys[last], arcX - xs[0], arcY - ys[0], arcCounterClockwise);
+        commandsOut++;
+      }
+      else
+      {
+        for (int i = 1; i <= last; i++)
+        {
+          sink.line(xs[i], ys[i]);
+          commandsOut++;
+        }
+      }
+    }
+    xs[0] = xs[last];
+    ys[0] = ys[last];
+    count = 1;
+    lineFits = true;
+    arcFits = false;
+  }
+
+  /**
+   * All points are close to the line from the first to the last point, and
+   * go forward along it.
+   */
+  private boolean fitsLine()
+  {
+    int last = count - 1;
+    double dx = xs[last] - xs[0];
+    double dy = ys[last] - ys[0];
+    double length = Math.hypot(dx, dy);
+    if (length == 0)
+    {
+      return false;
+    }
+    double ux = dx / length;
+    double uy = dy / length;
+    double previous = 0;
+    for (int i = 1; i < last; i++)
+    {
+      double px = xs[i] - xs[0];
+      double py = ys[i] - ys[0];
+      double along = px * ux + py * uy;
+      if (along < previous - tolerance || along > length + tolerance
+        || Math.abs(px * uy - py * ux) > tolerance)
+      {
+        return false;
+      }
+      previous = Math.max(previous, along);
+    }
+    return true;
+  }
+
+  /**
+   * All points are close to the circle through the first, middle and last
+   * point, every segment turns in the same direction by less than 180
+   * degrees and the segments themselves (the chords) stay within the
+   * tolerance of the arc.
+   */
+  private boolean fitsArc()
+  {
+    int last = count - 1;
+    int mid = last / 2;
+    double ax = xs[0], ay = ys[0];
+    double bx = xs[mid], by = ys[mid];
+    double cx = xs[last], cy = ys[last];
+    double d = 2 * (ax * (by - cy) + bx * (cy - ay) + cx * (ay - by));
+    if (d == 0)
+    {
+      return false;
+    }
+    double a2 = ax * ax + ay * ay;
+    double b2 = bx * bx + by * by;
+    double c2 = cx * cx + cy * cy;
+    double ox = (a2 * (by - cy) + b2 * (cy - ay) + c2 * (ay - by)) / d;
+    double oy = (a2 * (cx - bx) + b2 * (ax - cx) + c2 * (bx - ax)) / d;
+    double r = Math.hypot(ax - ox, ay - oy);
+    // rounding errors of huge radii are bigger than what is saved
+    if (r > 1e6 * Math.max(tolerance, 1e-9))
+    {
+      return false;
+    }
+    boolean ccw = d > 0;
+    double sweep = 0;
+    double previousAngle = Math.atan2(ay - oy, ax - ox);
+    for (int i = 1; i <= last; i++)
+    {
+      if (Math.abs(Math.hypot(xs[i] - ox, ys[i] - oy) - r) > tolerance)
+      {
+        return false;
+      }
+      double angle = Math.atan2(ys[i] - oy, xs[i] - ox);
+      double step = ccw ? angle - previousAngle : previousAngle - angle;
+      if (step < 0)
+      {
+        step += 2 * Math.PI;
+      }
+      if (step <= 0 || step >= Math.PI || r * (1 - Math.cos(step / 2)) > tolerance)
+      {
+        return false;
+      }
+      sweep += step;
+      previousAngle = angle;
+    }
+    if (sweep > MAX_ARC_SWEEP)
+    {
+      return false;
+    }
+    arcX = ox;
+    arcY = oy;
+    arcCounterClockwise = ccw;
+    return true;
+  }
+
+  /**
+   * @return number of segments passed to add()
+   */
+  public long getSegmentsIn()
+  {
+    return segmentsIn;
+  }
+
+  /**
+   * @return number of lines and arcs emitted
+   */
+  public long getCommandsOut()
+  {
+    return commandsOut;
+  }
+}
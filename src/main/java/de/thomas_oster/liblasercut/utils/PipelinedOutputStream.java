@@ -0,0 +1,242 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Bounded, back-pressured sink in front of a (slow) stream such as a network
+ * connection. Data is collected in chunks, which a background thread writes
+ * to the underlying stream while the caller continues. At most maxChunks
+ * chunks are pending: when they are all in use, write() blocks until the
+ * connection has caught up. This way encoding a job and sending it overlap,
+ * and the encoded job is never held in memory as a whole.
+ *
+ * flush() waits until everything written so far has been sent and flushed.
+ * close() does the same and stops the background thread, but leaves the
+ * underlying stream open, because protocols usually continue on the same
+ * connection. Errors of the background thread are thrown by the next call.
+ */
+public class PipelinedOutputStream extends OutputStream
+{
+
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+  public static final int DEFAULT_MAX_CHUNKS = 16;
+
+  private static final class Chunk
+  {
+    final byte[] data;
+    int length;
+    /**
+     * counted down when the chunk was written, for flush markers
+     */
+    CountDownLatch written;
+
+    Chunk(int size)
+    {
+      data = new byte[size];
+    }
+  }
+
+  private final OutputStream out;
+  private final BlockingQueue<Chunk> pending;
+  private final BlockingQueue<Chunk> free;
+  private final Thread writer;
+  private Chunk current;
+  private volatile IOException failure = null;
+  private boolean closed = false;
+
+  public PipelinedOutputStream(OutputStream out)
+  {
+    this(out, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CHUNKS);
+  }
+
+  public PipelinedOutputStream(OutputStream out, int chunkSize, int maxChunks)
+  {
+    this.out = out;
+    // + 1 for the chunk being filled
+    this.pending = new ArrayBlockingQueue<>(maxChunks + 1);
+    this.free = new ArrayBlockingQueue<>(maxChunks + 1);
+    for (int i = 0; i <= maxChunks; i++)
+    {
+      free.add(new Chunk(chunkSize));
+    }
+    this.current = free.poll();
+    this.writer = new Thread(this::drain, "PipelinedOutputStream");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  private void drain()
+  {
+    try
+    {
+      while (true)
+      {
+        Chunk c = pending.take();
+        if (c.length < 0)
+        {
+          // end marker
+          return;
+        }
+        if (failure == null)
+        {
+          try
+          {
+            out.write(c.data, 0, c.length);
+            if (c.written != null)
+            {
+              out.flush();
+            }
+          }
+          catch (IOException e)
+          {
+            failure = e;
+          }
+        }
+        if (c.written != null)
+        {
+          c.written.countDown();
+        }
+        c.written = null;
+        c.length = 0;
+        free.add(c);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      failure = new InterruptedIOException("Sending was interrupted");
+    }
+  }
+
+  private void checkFailure() throws IOException
+  {
+    if (failure != null)
+    {
+      throw new IOException("Writing failed: " + failure.getMessage(), failure);
+    }
+    if (closed)
+    {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  /**
+   * Hands the current chunk to the writer thread, blocking while all
+   * chunks are pending.
+   */
+  private void submit(CountDownLatch written) throws IOException
+  {
+    try
+    {
+      current.written = written;
+      pending.put(current);
+      current = free.take();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    if (current.length == current.data.length)
+    {
+      checkFailure();
+      submit(null);
+    }
+    current.data[current.length++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    checkFailure();
+    while (len > 0)
+    {
+      if (current.length == current.data.length)
+      {
+        submit(null);
+      }
+      int n = Math.min(len, current.data.length - current.length);
+      System.arraycopy(b, off, current.data, current.length, n);
+      current.length += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Waits until all data written so far is sent and the underlying stream
+   * is flushed.
+   */
+  @Override
+  public void flush() throws IOException
+  {
+    checkFailure();
+    CountDownLatch written = new CountDownLatch(1);
+    submit(written);
+    try
+    {
+      written.await();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    checkFailure();
+  }
+
+  /**
+   * Sends the remaining data and stops the writer thread. Does not close
+   * the underlying stream.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    try
+    {
+      flush();
+    }
+    finally
+    {
+      closed = true;
+      Chunk end = new Chunk(0);
+      end.length = -1;
+      if (!pending.offer(end))
+      {
+        // only if flush() was interrupted with all chunks pending
+        writer.interrupt();
+      }
+    }
+  }
+}
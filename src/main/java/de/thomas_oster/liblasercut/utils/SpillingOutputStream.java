@@ -0,0 +1,191 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Buffer for data whose length has to be known before it can be sent (e.g.
+ * length-prefixed protocols). The first bytes are kept in memory; when they
+ * exceed the threshold, everything is moved to a temporary file, so memory
+ * use stays flat for large jobs.
+ *
+ * Write the data, then read it with size(), writeTo() or openInputStream().
+ * close() deletes the temporary file.
+ */
+public class SpillingOutputStream extends OutputStream
+{
+
+  public static final int DEFAULT_THRESHOLD = 8 * 1024 * 1024;
+
+  private final int threshold;
+  private byte[] buffer = new byte[8192];
+  private int count = 0;
+  private long size = 0;
+  private Path file = null;
+  private OutputStream fileOut = null;
+  private boolean closed = false;
+
+  public SpillingOutputStream()
+  {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * @param threshold number of bytes kept in memory
+   */
+  public SpillingOutputStream(int threshold)
+  {
+    this.threshold = threshold;
+  }
+
+  private void spill() throws IOException
+  {
+    file = Files.createTempFile("liblasercut-job", ".bin");
+    fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+    fileOut.write(buffer, 0, count);
+    buffer = null;
+    count = 0;
+  }
+
+  private void ensureOpen() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("closed");
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    ensureOpen();
+    if (fileOut == null && count + 1 > threshold)
+    {
+      spill();
+    }
+    if (fileOut != null)
+    {
+      fileOut.write(b);
+    }
+    else
+    {
+      if (count == buffer.length)
+      {
+        buffer = Arrays.copyOf(buffer, Math.min(threshold, 2 * buffer.length));
+      }
+      buffer[count++] = (byte) b;
+    }
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    ensureOpen();
+    if (fileOut == null && count + len > threshold)
+    {
+      spill();
+    }
+    if (fileOut != null)
+    {
+      fileOut.write(b, off, len);
+    }
+    else
+    {
+      if (count + len > buffer.length)
+      {
+        buffer = Arrays.copyOf(buffer, Math.min(threshold, Math.max(count + len, 2 * buffer.length)));
+      }
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+    size += len;
+  }
+
+  /**
+   * @return number of bytes written
+   */
+  public long size()
+  {
+    return size;
+  }
+
+  /**
+   * @return true if the data was moved to a temporary file
+   */
+  public boolean isSpilled()
+  {
+    return file != null;
+  }
+
+  /**
+   * @return the data written so far, to be read before close()
+   */
+  public InputStream openInputStream() throws IOException
+  {
+    ensureOpen();
+    if (fileOut == null)
+    {
+      return new ByteArrayInputStream(buffer, 0, count);
+    }
+    fileOut.flush();
+    return Files.newInputStream(file);
+  }
+
+  /**
+   * Copies the data written so far to out.
+   */
+  public void writeTo(OutputStream out) throws IOException
+  {
+    ensureOpen();
+    if (fileOut == null)
+    {
+      out.write(buffer, 0, count);
+      return;
+    }
+    try (InputStream in = openInputStream())
+    {
+      in.transferTo(out);
+    }
+  }
+
+  /**
+   * Releases the data and deletes the temporary file.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    closed = true;
+    buffer = null;
+    if (fileOut != null)
+    {
+      fileOut.close();
+      fileOut = null;
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.platform.Rectangle;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Static R-tree over axis-aligned bounding boxes, bulk-loaded with the
+ * Sort-Tile-Recursive method. Answers "which boxes contain this point".
+ *
+ * The tree is immutable after construction, so queries may run concurrently.
+ */
+final class BoundingBoxTree
+{
+  private static final int NODE_SIZE = 16;
+
+  /**
+   * boxes[level] = xmin, ymin, xmax, ymax of every node on that level.
+   * Level 0 are the input boxes (in tile order), node i on level l covers
+   * nodes [i*NODE_SIZE, (i+1)*NODE_SIZE) on level l-1.
+   */
+  private final double[][] boxes;
+  /**
+   * index into the input list for every box on level 0
+   */
+  private final int[] items;
+
+  BoundingBoxTree(List<Rectangle> input)
+  {
+    int n = input.size();
+    Integer[] order = new Integer[n];
+    double[] cx = new double[n];
+    double[] cy = new double[n];
+    for (int i = 0; i < n; i++)
+    {
+      Rectangle r = input.get(i);
+      order[i] = i;
+      cx[i] = (r.getXMin() + r.getXMax()) / 2;
+      cy[i] = (r.getYMin() + r.getYMax()) / 2;
+    }
+    // sort by x, cut into vertical slices, sort each slice by y
+    Arrays.sort(order, Comparator.comparingDouble(i -> cx[i]));
+    int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+    int sliceSize = NODE_SIZE * Math.max(1, (int) Math.ceil(Math.sqrt(leaves)));
+    for (int from = 0; from < n; from += sliceSize)
+    {
+      Arrays.sort(order, from, Math.min(n, from + sliceSize), Comparator.comparingDouble(i -> cy[i]));
+    }
+
+    items = new int[n];
+    double[] level = new double[4 * n];
+    for (int i = 0; i < n; i++)
+    {
+      Rectangle r = input.get(order[i]);
+      items[i] = order[i];
+      level[4 * i] = r.getXMin();
+      level[4 * i + 1] = r.getYMin();
+      level[4 * i + 2] = r.getXMax();
+      level[4 * i + 3] = r.getYMax();
+    }
+
+    int levels = 1;
+    for (int count = n; count > NODE_SIZE; count = (count + NODE_SIZE - 1) / NODE_SIZE)
+    {
+      levels++;
+    }
+    boxes = new double[levels][];
+    boxes[0] = level;
+    for (int l = 1; l < levels; l++)
+    {
+      double[] below = boxes[l - 1];
+      int belowCount = below.length / 4;
+      int count = (belowCount + NODE_SIZE - 1) / NODE_SIZE;
+      double[] cur = new double[4 * count];
+      for (int i = 0; i < count; i++)
+      {
+        int first = i * NODE_SIZE;
+        int last = Math.min(belowCount, first + NODE_SIZE);
+        cur[4 * i] = cur[4 * i + 1] = Double.POSITIVE_INFINITY;
+        cur[4 * i + 2] = cur[4 * i + 3] = Double.NEGATIVE_INFINITY;
+        for (int c = first; c < last; c++)
+        {
+          cur[4 * i] = Math.min(cur[4 * i], below[4 * c]);
+          cur[4 * i + 1] = Math.min(cur[4 * i + 1], below[4 * c + 1]);
+          cur[4 * i + 2] = Math.max(cur[4 * i + 2], below[4 * c + 2]);
+          cur[4 * i + 3] = Math.max(cur[4 * i + 3], below[4 * c + 3]);
+        }
+      }
+      boxes[l] = cur;
+    }
+  }
+
+  /**
+   * Indices (into the input list) of all boxes containing the given point,
+   * borders included. The order of the result is unspecified.
+   */
+  int[] containing(double x, double y)
+  {
+    int[] result = new int[4];
+    int count = 0;
+    int top = boxes.length - 1;
+    // explicit stack of (level, node)
+    int[] stack = new int[2 * NODE_SIZE * boxes.length];
+    int sp = 0;
+    for (int i = boxes[top].length / 4 - 1; i >= 0; i--)
+    {
+      stack[sp++] = top;
+      stack[sp++] = i;
+    }
+    while (sp > 0)
+    {
+      int node = stack[--sp];
+      int level = stack[--sp];
+      double[] b = boxes[level];
+      if (x < b[4 * node] || y < b[4 * node + 1] || x > b[4 * node + 2] || y > b[4 * node + 3])
+      {
+        continue;
+      }
+      if (level == 0)
+      {
+        if (count == result.length)
+        {
+          result = Arrays.copyOf(result, 2 * count);
+        }
+        result[count++] = items[node];
+        continue;
+      }
+      int first = node * NODE_SIZE;
+      int last = Math.min(boxes[level - 1].length / 4, first + NODE_SIZE);
+      for (int c = last - 1; c >= first; c--)
+      {
+        stack[sp++] = level - 1;
+        stack[sp++] = c;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+}
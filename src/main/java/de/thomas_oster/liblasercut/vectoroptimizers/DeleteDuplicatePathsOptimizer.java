@@ -18,53 +18,337 @@
  */
 package de.thomas_oster.liblasercut.vectoroptimizers;
 
-import java.util.LinkedList;
+import de.thomas_oster.liblasercut.LaserProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * This VectorOptimizer removes all duplicate (identical) Elements
- * and sorts the remaining (unique) elements with a NearestVectorOptimizer
+ * and sorts the remaining (unique) elements with a NearestVectorOptimizer.
+ *
+ * Paths are compared independent of their direction (and, for closed paths,
+ * of their start point). Coordinates are rounded to a grid with the given
+ * tolerance before comparing, so that paths which differ only by rounding
+ * errors are also detected as duplicates. Note that two points closer than
+ * the tolerance may still be rounded to different grid points. Only paths
+ * with equal laser properties are duplicates, so e.g. a cut on top of a
+ * mark is kept.
+ *
+ * Optionally (off by default), single segments which are cut more than once
+ * with the same properties are removed as well. This happens for example if
+ * two adjacent closed shapes share an edge ("common-line cutting"). Paths are
+ * split where such a segment is removed. Only segments with identical end
+ * points are detected, not partial overlaps.
+ *
+ * Runtime is linear in the total number of points (expected, using hashing).
+ *
  * @author René Bohne
  */
 public class DeleteDuplicatePathsOptimizer extends VectorOptimizer
 {
 
+  /**
+   * default coordinate tolerance in px
+   */
+  public static final double DEFAULT_TOLERANCE = 0.01;
+
+  private final double tolerance;
+  private final boolean removeDuplicateSegments;
+
+  public DeleteDuplicatePathsOptimizer()
+  {
+    this(DEFAULT_TOLERANCE, false);
+  }
+
+  /**
+   * @param tolerance grid size in px for comparing coordinates. 0 means exact comparison.
+   * @param removeDuplicateSegments also remove single segments that are part of multiple paths
+   */
+  public DeleteDuplicatePathsOptimizer(double tolerance, boolean removeDuplicateSegments)
+  {
+    if (tolerance < 0)
+    {
+      throw new IllegalArgumentException("Tolerance must not be negative");
+    }
+    this.tolerance = tolerance;
+    this.removeDuplicateSegments = removeDuplicateSegments;
+  }
+
   @Override
   protected List<Element> sort(List<Element> e)
   {
-    List<Element> result = new LinkedList<>();
     if (e.isEmpty())
     {
+      return new ArrayList<>();
+    }
+
+    // keep the first occurrence of each path
+    Set<PathKey> seen = new HashSet<>();
+    List<Element> unique = new ArrayList<>(e.size());
+    for (Element el : e)
+    {
+      if (seen.add(new PathKey(el.prop, quantize(el))))
+      {
+        unique.add(el);
+      }
+    }
+
+    if (removeDuplicateSegments)
+    {
+      unique = removeDuplicateSegments(unique);
+    }
+
+    NearestVectorOptimizer vo = new NearestVectorOptimizer();
+    return vo.sort(unique);
+  }
+
+  private long quantize(double v)
+  {
+    return tolerance > 0 ? Math.round(v / tolerance) : Double.doubleToLongBits(v);
+  }
+
+  /**
+   * Quantized coordinates of all points of the element, x0, y0, x1, y1, ...
+   */
+  private long[] quantize(Element el)
+  {
+    List<Point> moves = el.getMoves();
+    long[] result = new long[2 * (moves.size() + 1)];
+    result[0] = quantize(el.start.x);
+    result[1] = quantize(el.start.y);
+    int i = 2;
+    for (Point p : moves)
+    {
+      result[i++] = quantize(p.x);
+      result[i++] = quantize(p.y);
+    }
+    return result;
+  }
+
+  /**
+   * Removes all segments that were already cut by a previous segment with
+   * the same properties (in the same or in a previous element) and splits
+   * the elements there.
+   */
+  private List<Element> removeDuplicateSegments(List<Element> elements)
+  {
+    Set<SegmentKey> seen = new HashSet<>();
+    List<Element> result = new ArrayList<>(elements.size());
+    for (Element el : elements)
+    {
+      long[] q = quantize(el);
+      List<Point> moves = el.getMoves();
+      Element current = null;
+      boolean modified = false;
+      List<Element> pieces = new ArrayList<>(1);
+      Point previous = el.start;
+      for (int i = 0; i < moves.size(); i++)
+      {
+        Point p = moves.get(i);
+        int a = 2 * i;
+        int b = 2 * (i + 1);
+        boolean zeroLength = q[a] == q[b] && q[a + 1] == q[b + 1];
+        if (zeroLength || seen.add(new SegmentKey(el.prop, q[a], q[a + 1], q[b], q[b + 1])))
+        {
+          if (current == null)
+          {
+            current = new Element();
+            current.prop = el.prop;
+            current.start = previous;
+            pieces.add(current);
+          }
+          current.addPoint(p);
+        }
+        else
+        {
+          // duplicate segment: skip it and start a new piece afterwards
+          modified = true;
+          current = null;
+        }
+        previous = p;
+      }
+      if (!modified)
+      {
+        result.add(el);
+        continue;
+      }
+      if (el.isClosedPath() && pieces.size() >= 2
+        && pieces.get(0).start == el.start && pieces.get(pieces.size() - 1).getEnd() == el.getEnd())
+      {
+        // the path was closed, so the last piece continues with the first one
+        Element last = pieces.remove(pieces.size() - 1);
+        last.append(pieces.get(0));
+        pieces.set(0, last);
+      }
+      result.addAll(pieces);
+    }
+    return result;
+  }
+
+  /**
+   * Direction independent key of a path and its properties. Closed paths are
+   * also independent of their start point.
+   */
+  private static class PathKey
+  {
+    private final LaserProperty prop;
+    private final long[] points;
+    private final int hash;
+
+    PathKey(LaserProperty prop, long[] q)
+    {
+      int n = q.length / 2;
+      boolean closed = n > 2 && q[0] == q[2 * n - 2] && q[1] == q[2 * n - 1];
+      this.prop = prop;
+      points = closed ? canonicalClosed(q) : canonicalOpen(q);
+      hash = 31 * Objects.hashCode(prop) + Arrays.hashCode(points);
+    }
+
+    private static long[] canonicalOpen(long[] q)
+    {
+      long[] reversed = reversed(q, q.length / 2);
+      return compare(q, reversed) <= 0 ? q : reversed;
+    }
+
+    /**
+     * The smallest rotation (starting at a minimal vertex) in either direction.
+     * The duplicated end point is left out.
+     */
+    private static long[] canonicalClosed(long[] q)
+    {
+      int n = q.length / 2 - 1;
+      long[] ring = Arrays.copyOf(q, 2 * n);
+      long[] best = null;
+      for (long[] candidate : new long[][] { ring, reversed(ring, n) })
+      {
+        int min = 0;
+        for (int i = 1; i < n; i++)
+        {
+          if (comparePoints(candidate, i, min) < 0)
+          {
+            min = i;
+          }
+        }
+        for (int i = min; i < n; i++)
+        {
+          if (comparePoints(candidate, i, min) == 0)
+          {
+            long[] rotated = new long[2 * n];
+            for (int j = 0; j < n; j++)
+            {
+              int k = (i + j) % n;
+              rotated[2 * j] = candidate[2 * k];
+              rotated[2 * j + 1] = candidate[2 * k + 1];
+            }
+            if (best == null || compare(rotated, best) < 0)
+            {
+              best = rotated;
+            }
+          }
+        }
+      }
+      return best;
+    }
+
+    private static long[] reversed(long[] q, int n)
+    {
+      long[] result = new long[2 * n];
+      for (int i = 0; i < n; i++)
+      {
+        result[2 * i] = q[2 * (n - 1 - i)];
+        result[2 * i + 1] = q[2 * (n - 1 - i) + 1];
+      }
       return result;
     }
-    
-    List<Element> doubleEntries = new LinkedList<>();
-    
-    for(int i=0;i<e.size();i++)
+
+    private static int comparePoints(long[] q, int i, int j)
+    {
+      int c = Long.compare(q[2 * i], q[2 * j]);
+      return c != 0 ? c : Long.compare(q[2 * i + 1], q[2 * j + 1]);
+    }
+
+    private static int compare(long[] a, long[] b)
     {
-      for(int j=0;j<e.size();j++)
+      for (int i = 0; i < Math.min(a.length, b.length); i++)
       {
-        if(i!=j)
+        int c = Long.compare(a[i], b[i]);
+        if (c != 0)
         {
-         if(e.get(i).equals(e.get(j)))
-         {
-           if(!doubleEntries.contains(e.get(j)))
-           {
-            doubleEntries.add(e.get(i));
-           }
-         }
+          return c;
         }
       }
+      return Integer.compare(a.length, b.length);
     }
-    
-    for(Element doubleEntry : doubleEntries)
+
+    @Override
+    public boolean equals(Object o)
     {
-      e.remove(doubleEntry);
+      return o instanceof PathKey && hash == ((PathKey) o).hash && Arrays.equals(points, ((PathKey) o).points)
+        && Objects.equals(prop, ((PathKey) o).prop);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+
+  /**
+   * Direction independent key of a single segment and its properties
+   */
+  private static class SegmentKey
+  {
+    private final LaserProperty prop;
+    private final long x1;
+    private final long y1;
+    private final long x2;
+    private final long y2;
+
+    SegmentKey(LaserProperty prop, long ax, long ay, long bx, long by)
+    {
+      this.prop = prop;
+      if (ax < bx || (ax == bx && ay <= by))
+      {
+        x1 = ax;
+        y1 = ay;
+        x2 = bx;
+        y2 = by;
+      }
+      else
+      {
+        x1 = bx;
+        y1 = by;
+        x2 = ax;
+        y2 = ay;
+      }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof SegmentKey))
+      {
+        return false;
+      }
+      SegmentKey other = (SegmentKey) o;
+      return x1 == other.x1 && y1 == other.y1 && x2 == other.x2 && y2 == other.y2
+        && Objects.equals(prop, other.prop);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int hash = Objects.hashCode(prop);
+      hash = 31 * hash + Long.hashCode(x1);
+      hash = 31 * hash + Long.hashCode(y1);
+      hash = 31 * hash + Long.hashCode(x2);
+      return 31 * hash + Long.hashCode(y2);
     }
-    
-    NearestVectorOptimizer vo = new NearestVectorOptimizer();
-    result = vo.sort(e);
-    
-    return result;
   }
 }
@@ -0,0 +1,328 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.List;
+
+/**
+ * Static k-d tree over the start and end points of a list of Elements,
+ * supporting nearest-neighbour queries and deletion of Elements.
+ *
+ * Every point has an id: (index of the Element in the list) * 2, plus 1 for
+ * the end point. The end point of closed paths is not indexed, because it is
+ * equal to the start point.
+ *
+ * Queries return the point with the smallest euclidean distance; of several
+ * points with exactly the same distance, the one with the smallest id wins.
+ * This is exactly the order in which a linear scan over the list (checking
+ * the start point before the end point) would find them.
+ */
+final class EndpointIndex
+{
+  private static final int LEAF_SIZE = 8;
+
+  // points in tree order
+  private final double[] xs;
+  private final double[] ys;
+  private final int[] ids;
+  private final boolean[] removed;
+  // tree position of the point with the given id, -1 if not indexed
+  private final int[] positionOfId;
+
+  // nodes: each node covers the tree positions lo ... hi-1
+  private final int[] nodeLo;
+  private final int[] nodeHi;
+  private final int[] nodeLeft;
+  private final int[] nodeRight;
+  private final int[] nodeAlive;
+  private final double[] nodeMinX;
+  private final double[] nodeMaxX;
+  private final double[] nodeMinY;
+  private final double[] nodeMaxY;
+  private int nodeCount = 0;
+
+  // state of the current query
+  private double queryX;
+  private double queryY;
+  private double bestDistance;
+  private int bestId;
+
+  EndpointIndex(List<Element> elements)
+  {
+    int n = 0;
+    for (Element e : elements)
+    {
+      n += e.start.equals(e.getEnd()) ? 1 : 2;
+    }
+    xs = new double[n];
+    ys = new double[n];
+    ids = new int[n];
+    removed = new boolean[n];
+    positionOfId = new int[2 * elements.size()];
+    int i = 0;
+    int index = 0;
+    for (Element e : elements)
+    {
+      positionOfId[2 * index] = -1;
+      positionOfId[2 * index + 1] = -1;
+      xs[i] = e.start.x;
+      ys[i] = e.start.y;
+      ids[i++] = 2 * index;
+      if (!e.start.equals(e.getEnd()))
+      {
+        Point end = e.getEnd();
+        xs[i] = end.x;
+        ys[i] = end.y;
+        ids[i++] = 2 * index + 1;
+      }
+      index++;
+    }
+    // leaves have at least (LEAF_SIZE + 1) / 2 points
+    int maxNodes = 2 * (n / ((LEAF_SIZE + 1) / 2) + 1);
+    nodeLo = new int[maxNodes];
+    nodeHi = new int[maxNodes];
+    nodeLeft = new int[maxNodes];
+    nodeRight = new int[maxNodes];
+    nodeAlive = new int[maxNodes];
+    nodeMinX = new double[maxNodes];
+    nodeMaxX = new double[maxNodes];
+    nodeMinY = new double[maxNodes];
+    nodeMaxY = new double[maxNodes];
+    if (n > 0)
+    {
+      build(0, n);
+    }
+    for (int pos = 0; pos < n; pos++)
+    {
+      positionOfId[ids[pos]] = pos;
+    }
+  }
+
+  static int elementIndex(int id)
+  {
+    return id >> 1;
+  }
+
+  static boolean isEndPoint(int id)
+  {
+    return (id & 1) != 0;
+  }
+
+  boolean isEmpty()
+  {
+    return nodeCount == 0 || nodeAlive[0] == 0;
+  }
+
+  /**
+   * Removes the start and end point of the given element.
+   * @param elementIndex index of the element in the list given to the constructor
+   */
+  void remove(int elementIndex)
+  {
+    removePoint(positionOfId[2 * elementIndex]);
+    removePoint(positionOfId[2 * elementIndex + 1]);
+  }
+
+  /**
+   * Find the nearest remaining point.
+   * @return id of the point, or -1 if the index is empty
+   */
+  int nearest(Point p)
+  {
+    queryX = p.x;
+    queryY = p.y;
+    bestDistance = Double.POSITIVE_INFINITY;
+    bestId = -1;
+    if (!isEmpty())
+    {
+      search(0);
+    }
+    return bestId;
+  }
+
+  private void removePoint(int pos)
+  {
+    if (pos < 0 || removed[pos])
+    {
+      return;
+    }
+    removed[pos] = true;
+    int node = 0;
+    while (true)
+    {
+      nodeAlive[node]--;
+      if (nodeLeft[node] < 0)
+      {
+        break;
+      }
+      node = pos < nodeHi[nodeLeft[node]] ? nodeLeft[node] : nodeRight[node];
+    }
+  }
+
+  private void search(int node)
+  {
+    if (nodeAlive[node] == 0)
+    {
+      return;
+    }
+    // lower bound of the distance to all points in the bounding box of this node
+    double dx = Math.max(0, Math.max(nodeMinX[node] - queryX, queryX - nodeMaxX[node]));
+    double dy = Math.max(0, Math.max(nodeMinY[node] - queryY, queryY - nodeMaxY[node]));
+    if (Math.sqrt(dx * dx + dy * dy) > bestDistance)
+    {
+      return;
+    }
+    int left = nodeLeft[node];
+    if (left < 0)
+    {
+      for (int pos = nodeLo[node]; pos < nodeHi[node]; pos++)
+      {
+        if (removed[pos])
+        {
+          continue;
+        }
+        // same formula as Point.hypotTo(), so that ties are detected identically
+        double px = xs[pos] - queryX;
+        double py = ys[pos] - queryY;
+        double d = Math.sqrt(px * px + py * py);
+        if (d < bestDistance || (d == bestDistance && ids[pos] < bestId))
+        {
+          bestDistance = d;
+          bestId = ids[pos];
+        }
+      }
+      return;
+    }
+    int right = nodeRight[node];
+    // visit the child containing the query point first
+    double distLeft = boxDistance(left);
+    double distRight = boxDistance(right);
+    if (distLeft <= distRight)
+    {
+      search(left);
+      search(right);
+    }
+    else
+    {
+      search(right);
+      search(left);
+    }
+  }
+
+  private double boxDistance(int node)
+  {
+    double dx = Math.max(0, Math.max(nodeMinX[node] - queryX, queryX - nodeMaxX[node]));
+    double dy = Math.max(0, Math.max(nodeMinY[node] - queryY, queryY - nodeMaxY[node]));
+    return dx * dx + dy * dy;
+  }
+
+  private int build(int lo, int hi)
+  {
+    int node = nodeCount++;
+    nodeLo[node] = lo;
+    nodeHi[node] = hi;
+    nodeAlive[node] = hi - lo;
+    double minX = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = lo; i < hi; i++)
+    {
+      minX = Math.min(minX, xs[i]);
+      maxX = Math.max(maxX, xs[i]);
+      minY = Math.min(minY, ys[i]);
+      maxY = Math.max(maxY, ys[i]);
+    }
+    nodeMinX[node] = minX;
+    nodeMaxX[node] = maxX;
+    nodeMinY[node] = minY;
+    nodeMaxY[node] = maxY;
+    if (hi - lo <= LEAF_SIZE)
+    {
+      nodeLeft[node] = -1;
+      nodeRight[node] = -1;
+      return node;
+    }
+    int mid = (lo + hi) >>> 1;
+    // split along the longer side of the bounding box
+    select(lo, hi - 1, mid, maxX - minX >= maxY - minY);
+    nodeLeft[node] = build(lo, mid);
+    nodeRight[node] = build(mid, hi);
+    return node;
+  }
+
+  /**
+   * Partially sorts the points lo ... hi (inclusive) so that the point at k
+   * is at its sorted position (quickselect).
+   */
+  private void select(int lo, int hi, int k, boolean byX)
+  {
+    double[] keys = byX ? xs : ys;
+    while (hi > lo)
+    {
+      double pivot = keys[(lo + hi) >>> 1];
+      int i = lo;
+      int j = hi;
+      while (i <= j)
+      {
+        while (keys[i] < pivot)
+        {
+          i++;
+        }
+        while (keys[j] > pivot)
+        {
+          j--;
+        }
+        if (i <= j)
+        {
+          swap(i, j);
+          i++;
+          j--;
+        }
+      }
+      if (k <= j)
+      {
+        hi = j;
+      }
+      else if (k >= i)
+      {
+        lo = i;
+      }
+      else
+      {
+        return;
+      }
+    }
+  }
+
+  private void swap(int i, int j)
+  {
+    double tx = xs[i];
+    xs[i] = xs[j];
+    xs[j] = tx;
+    double ty = ys[i];
+    ys[i] = ys[j];
+    ys[j] = ty;
+    int tid = ids[i];
+    ids[i] = ids[j];
+    ids[j] = tid;
+  }
+}
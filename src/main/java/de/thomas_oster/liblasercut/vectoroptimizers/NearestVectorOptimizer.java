@@ -19,18 +19,42 @@
 package de.thomas_oster.liblasercut.vectoroptimizers;
 
 import de.thomas_oster.liblasercut.platform.Point;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
+ * Greedy nearest-neighbour ordering: starting with the first element,
+ * always continue with the (possibly inverted) element whose start
+ * point is nearest to the current end point.
  *
  * @author Thomas Oster <thomas.oster@rwth-aachen.de>
  */
 public class NearestVectorOptimizer extends VectorOptimizer
 {
 
+  /**
+   * Inputs with at least this many elements are sorted with a spatial index
+   * (O(n log n)) instead of a linear scan per step (O(n^2)).
+   * Both produce exactly the same order.
+   */
+  static final int SPATIAL_INDEX_THRESHOLD = 64;
+
   @Override
   protected List<Element> sort(List<Element> e)
+  {
+    if (e.size() >= SPATIAL_INDEX_THRESHOLD)
+    {
+      return sortWithSpatialIndex(e);
+    }
+    return sortByLinearSearch(e);
+  }
+
+  /**
+   * Greedy ordering with a linear search for the nearest element in each step.
+   * Removes all elements from the input list.
+   */
+  List<Element> sortByLinearSearch(List<Element> e)
   {
     List<Element> result = new LinkedList<>();
     if (e.isEmpty())
@@ -87,4 +111,37 @@ public class NearestVectorOptimizer extends VectorOptimizer
     }
     return result;
   }
+
+  /**
+   * Same greedy algorithm as sortByLinearSearch(), but the nearest element is looked up
+   * in an EndpointIndex. Ties are broken like in sortByLinearSearch(): the element which
+   * comes first in the input wins, and its start point wins over its end point.
+   * Unlike sortByLinearSearch(), the input list is not modified.
+   */
+  List<Element> sortWithSpatialIndex(List<Element> e)
+  {
+    List<Element> result = new ArrayList<>(e.size());
+    if (e.isEmpty())
+    {
+      return result;
+    }
+    List<Element> input = e instanceof ArrayList ? e : new ArrayList<>(e);
+    EndpointIndex index = new EndpointIndex(input);
+    Element current = input.get(0);
+    index.remove(0);
+    result.add(current);
+    while (!index.isEmpty())
+    {
+      int id = index.nearest(current.getEnd());
+      int next = EndpointIndex.elementIndex(id);
+      index.remove(next);
+      current = input.get(next);
+      if (EndpointIndex.isEndPoint(id))
+      {
+        current.invert();
+      }
+      result.add(current);
+    }
+    return result;
+  }
 }
@@ -0,0 +1,319 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.platform.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Inner-first ordering based on the real nesting of closed paths.
+ *
+ * Unlike InnerFirstVectorOptimizer, which only compares bounding boxes,
+ * this builds a containment tree: every path gets as parent the smallest
+ * closed path that contains it. Candidates are found with a bounding box
+ * R-tree, then checked with point-in-polygon tests.
+ *
+ * A path counts as "inside" if the majority of points sampled evenly along it
+ * is inside. This way a hole that slightly overlaps the outline, e.g. due to rounding
+ * errors, is still treated as inside.
+ *
+ * Paths are emitted inside-out: first all paths without children (height 0),
+ * then all paths whose children all have height 0, and so on. This guarantees
+ * that every path is cut before the path surrounding it, so parts do not drop
+ * out before their holes are cut. Within one height the paths are ordered by
+ * nearest neighbour, continuing where the previous height ended.
+ */
+public class NestedInnerFirstVectorOptimizer extends VectorOptimizer
+{
+
+  /**
+   * Above this many paths, the containment tree is built in parallel.
+   */
+  static final int PARALLEL_THRESHOLD = 2048;
+
+  /**
+   * Number of points along a path which are tested against a candidate parent
+   */
+  private static final int SAMPLE_POINTS = 16;
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    if (e.isEmpty())
+    {
+      return e;
+    }
+    ArrayList<Element> elements = OptimizerUtils.joinContiguousLoopElements(e, 0.9);
+    int n = elements.size();
+
+    double[] area = areas(elements);
+    int[] parent = containmentParents(elements, area);
+
+    // height = length of the longest path down to a leaf.
+    // Parents have a strictly larger area than their children, so visiting
+    // by ascending area finishes all children before their parent.
+    Integer[] byArea = new Integer[n];
+    for (int i = 0; i < n; i++)
+    {
+      byArea[i] = i;
+    }
+    Arrays.sort(byArea, Comparator.comparingDouble(i -> area[i]));
+    int[] height = new int[n];
+    int maxHeight = 0;
+    for (int i : byArea)
+    {
+      if (parent[i] >= 0)
+      {
+        height[parent[i]] = Math.max(height[parent[i]], height[i] + 1);
+        maxHeight = Math.max(maxHeight, height[parent[i]]);
+      }
+    }
+
+    List<List<Element>> levels = new ArrayList<>(maxHeight + 1);
+    for (int h = 0; h <= maxHeight; h++)
+    {
+      levels.add(new ArrayList<>());
+    }
+    for (int i = 0; i < n; i++)
+    {
+      levels.get(height[i]).add(elements.get(i));
+    }
+
+    List<Element> result = new ArrayList<>(n);
+    NearestVectorOptimizer nearest = new NearestVectorOptimizer();
+    for (List<Element> level : levels)
+    {
+      if (!result.isEmpty())
+      {
+        moveNearestToFront(level, result.get(result.size() - 1).getEnd());
+      }
+      result.addAll(nearest.sort(level));
+    }
+    return result;
+  }
+
+  /**
+   * Area of every closed path, 0 for open paths
+   */
+  static double[] areas(List<Element> elements)
+  {
+    double[] area = new double[elements.size()];
+    for (int i = 0; i < area.length; i++)
+    {
+      Element el = elements.get(i);
+      area[i] = el.isClosedPath() ? polygonArea(el) : 0;
+    }
+    return area;
+  }
+
+  /**
+   * For every element the index of the smallest closed path containing it, or -1.
+   * A parent always has a strictly larger area than its children.
+   *
+   * @param area see areas()
+   */
+  static int[] containmentParents(List<Element> elements, double[] area)
+  {
+    int n = elements.size();
+    Rectangle[] bbox = new Rectangle[n];
+    List<Integer> containers = new ArrayList<>();
+    List<Rectangle> containerBoxes = new ArrayList<>();
+    for (int i = 0; i < n; i++)
+    {
+      bbox[i] = elements.get(i).boundingBox();
+      if (area[i] > 0)
+      {
+        containers.add(i);
+        containerBoxes.add(bbox[i]);
+      }
+    }
+    BoundingBoxTree tree = new BoundingBoxTree(containerBoxes);
+
+    int[] parent = new int[n];
+    IntStream indices = IntStream.range(0, n);
+    if (n >= PARALLEL_THRESHOLD)
+    {
+      indices = indices.parallel();
+    }
+    indices.forEach(i -> parent[i] = findParent(i, elements, bbox, area, containers, tree));
+    return parent;
+  }
+
+  /**
+   * Index of the smallest closed path containing element i, or -1
+   */
+  private static int findParent(int i, List<Element> elements, Rectangle[] bbox, double[] area,
+    List<Integer> containers, BoundingBoxTree tree)
+  {
+    Rectangle b = bbox[i];
+    int[] candidates = tree.containing((b.getXMin() + b.getXMax()) / 2, (b.getYMin() + b.getYMax()) / 2);
+    int best = -1;
+    double[] samples = null;
+    for (int c : candidates)
+    {
+      int candidate = containers.get(c);
+      if (candidate == i || area[candidate] <= area[i]
+        || (best >= 0 && area[candidate] >= area[best]))
+      {
+        continue;
+      }
+      if (samples == null)
+      {
+        samples = samplePoints(elements.get(i));
+      }
+      if (isInside(samples, elements.get(candidate)))
+      {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Up to SAMPLE_POINTS points evenly distributed along the path (x0, y0, x1, y1, ...)
+   */
+  private static double[] samplePoints(Element e)
+  {
+    double length = 0;
+    Point a = e.start;
+    for (Point b : e.getMoves())
+    {
+      length += a.hypotTo(b);
+      a = b;
+    }
+    if (length == 0)
+    {
+      return new double[] { e.start.x, e.start.y };
+    }
+    double[] result = new double[2 * SAMPLE_POINTS];
+    double step = length / SAMPLE_POINTS;
+    // place samples in the middle of each step, so that start and end
+    // (which are identical for closed paths) are not counted twice
+    double next = step / 2;
+    double walked = 0;
+    int count = 0;
+    a = e.start;
+    for (Point b : e.getMoves())
+    {
+      double segment = a.hypotTo(b);
+      while (count < SAMPLE_POINTS && next <= walked + segment)
+      {
+        double t = (next - walked) / segment;
+        result[2 * count] = a.x + t * (b.x - a.x);
+        result[2 * count + 1] = a.y + t * (b.y - a.y);
+        count++;
+        next += step;
+      }
+      walked += segment;
+      a = b;
+    }
+    return Arrays.copyOf(result, 2 * count);
+  }
+
+  /**
+   * true if the majority of the sample points is inside the polygon
+   */
+  private static boolean isInside(double[] samples, Element polygon)
+  {
+    int inside = 0;
+    for (int k = 0; k < samples.length; k += 2)
+    {
+      if (contains(polygon, samples[k], samples[k + 1]))
+      {
+        inside++;
+      }
+    }
+    return 2 * inside > samples.length / 2;
+  }
+
+  /**
+   * even-odd point-in-polygon test
+   */
+  private static boolean contains(Element polygon, double x, double y)
+  {
+    boolean inside = false;
+    Point a = polygon.start;
+    for (Point b : polygon.getMoves())
+    {
+      if ((a.y > y) != (b.y > y)
+        && x < a.x + (y - a.y) * (b.x - a.x) / (b.y - a.y))
+      {
+        inside = !inside;
+      }
+      a = b;
+    }
+    return inside;
+  }
+
+  /**
+   * absolute area of a closed path (shoelace formula)
+   */
+  private static double polygonArea(Element e)
+  {
+    double sum = 0;
+    Point a = e.start;
+    for (Point b : e.getMoves())
+    {
+      sum += a.x * b.y - b.x * a.y;
+      a = b;
+    }
+    return Math.abs(sum) / 2;
+  }
+
+  /**
+   * Moves the element with the start or end point nearest to p to the front
+   * of the list (inverted if its end point is nearer), so that the
+   * nearest-neighbour ordering of the list continues at p.
+   */
+  private static void moveNearestToFront(List<Element> list, Point p)
+  {
+    int best = 0;
+    boolean invert = false;
+    double dst = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < list.size(); i++)
+    {
+      Element el = list.get(i);
+      double d = el.start.hypotTo(p);
+      if (d < dst)
+      {
+        best = i;
+        dst = d;
+        invert = false;
+      }
+      d = el.getEnd().hypotTo(p);
+      if (d < dst)
+      {
+        best = i;
+        dst = d;
+        invert = true;
+      }
+    }
+    Element el = list.remove(best);
+    if (invert)
+    {
+      el.invert();
+    }
+    list.add(0, el);
+  }
+}
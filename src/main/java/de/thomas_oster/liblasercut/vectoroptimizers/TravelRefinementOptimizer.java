@@ -0,0 +1,403 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.platform.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Refinement stage which takes the order of another VectorOptimizer and
+ * shortens the travel (moveto) distance with a time-bounded local search:
+ * - 2-opt: reverse a section of the order (inverting every path in it)
+ * - Or-opt: move a block of up to three paths to another place,
+ *   optionally reversed
+ *
+ * Only moves within a window of nearby positions are tried, so one pass is
+ * linear in the number of paths. The search stops when a pass brings no
+ * improvement or the time budget is used up. The result is never longer
+ * than the input order.
+ *
+ * If innerFirst is set, no path is moved behind a closed path containing it
+ * (see NestedInnerFirstVectorOptimizer).
+ *
+ * Distances are in the units of the VectorPart (px).
+ */
+public class TravelRefinementOptimizer extends VectorOptimizer
+{
+
+  /**
+   * Report of the last run, travel distances in px
+   */
+  public static class Report
+  {
+    private final double travelBefore;
+    private final double travelAfter;
+    private final int moves;
+    private final long millis;
+
+    Report(double travelBefore, double travelAfter, int moves, long millis)
+    {
+      this.travelBefore = travelBefore;
+      this.travelAfter = travelAfter;
+      this.moves = moves;
+      this.millis = millis;
+    }
+
+    public double getTravelBefore()
+    {
+      return travelBefore;
+    }
+
+    public double getTravelAfter()
+    {
+      return travelAfter;
+    }
+
+    /**
+     * number of improving moves applied
+     */
+    public int getMoves()
+    {
+      return moves;
+    }
+
+    /**
+     * time of the refinement, without the base optimizer
+     */
+    public long getMillis()
+    {
+      return millis;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("travel %.1f -> %.1f (%d moves, %d ms)", travelBefore, travelAfter, moves, millis);
+    }
+  }
+
+  /**
+   * Number of following positions considered for a move
+   */
+  static final int WINDOW = 50;
+  private static final int MAX_BLOCK = 3;
+  /**
+   * Improvements smaller than this (in px) are ignored, so that rounding
+   * errors cannot make the search loop forever
+   */
+  private static final double EPSILON = 1e-9;
+
+  private final VectorOptimizer base;
+  private final boolean innerFirst;
+  private final long timeBudgetMillis;
+  private Report lastReport = null;
+
+  /**
+   * @param base optimizer computing the initial order
+   * @param innerFirst keep every path before the closed paths containing it
+   * @param timeBudgetMillis maximum time for the refinement, not counting
+   * the time of the base optimizer
+   */
+  public TravelRefinementOptimizer(VectorOptimizer base, boolean innerFirst, long timeBudgetMillis)
+  {
+    this.base = base;
+    this.innerFirst = innerFirst;
+    this.timeBudgetMillis = timeBudgetMillis;
+  }
+
+  /**
+   * Report of the last call of optimize(), or null
+   */
+  public Report getLastReport()
+  {
+    return lastReport;
+  }
+
+  // current order: at[position] = element id, pos[id] = position
+  private Element[] el;
+  private int[] at;
+  private int[] pos;
+  private int[] parent;
+
+  @Override
+  protected List<Element> sort(List<Element> e)
+  {
+    List<Element> initial = base.sort(e);
+    // the budget is for the refinement only, not for the base optimizer
+    long startTime = System.nanoTime();
+    long deadline = startTime + timeBudgetMillis * 1000000;
+    int n = initial.size();
+    el = initial.toArray(new Element[0]);
+    at = new int[n];
+    pos = new int[n];
+    for (int i = 0; i < n; i++)
+    {
+      at[i] = i;
+      pos[i] = i;
+    }
+    parent = null;
+    if (innerFirst && n > 1)
+    {
+      List<Element> elements = Arrays.asList(el);
+      parent = NestedInnerFirstVectorOptimizer.containmentParents(elements, NestedInnerFirstVectorOptimizer.areas(elements));
+    }
+
+    double before = travel();
+    int moves = 0;
+    boolean improved = n > 1;
+    while (improved && System.nanoTime() < deadline)
+    {
+      improved = false;
+      for (int i = 0; i < n && System.nanoTime() < deadline; i++)
+      {
+        if (twoOpt(i) || orOpt(i))
+        {
+          moves++;
+          improved = true;
+        }
+      }
+    }
+
+    List<Element> result = new ArrayList<>(n);
+    for (int i = 0; i < n; i++)
+    {
+      result.add(el[at[i]]);
+    }
+    lastReport = new Report(before, travel(), moves, (System.nanoTime() - startTime) / 1000000);
+    el = null;
+    at = null;
+    pos = null;
+    parent = null;
+    return result;
+  }
+
+  private double travel()
+  {
+    double result = 0;
+    for (int i = 1; i < at.length; i++)
+    {
+      result += el[at[i - 1]].getEnd().hypotTo(el[at[i]].start);
+    }
+    return result;
+  }
+
+  private Point start(int position)
+  {
+    return el[at[position]].start;
+  }
+
+  private Point end(int position)
+  {
+    return el[at[position]].getEnd();
+  }
+
+  /**
+   * distance between two points, 0 if one of them does not exist
+   */
+  private static double dist(Point a, Point b)
+  {
+    return a == null || b == null ? 0 : a.hypotTo(b);
+  }
+
+  private Point endOrNull(int position)
+  {
+    return position >= 0 && position < at.length ? end(position) : null;
+  }
+
+  private Point startOrNull(int position)
+  {
+    return position >= 0 && position < at.length ? start(position) : null;
+  }
+
+  /**
+   * Tries to reverse the section [i, j] for the j in the window after i.
+   * Applies the first improving move.
+   */
+  private boolean twoOpt(int i)
+  {
+    Point prevEnd = endOrNull(i - 1);
+    for (int j = i; j < Math.min(at.length, i + WINDOW); j++)
+    {
+      Point nextStart = startOrNull(j + 1);
+      double before = dist(prevEnd, start(i)) + dist(end(j), nextStart);
+      double after = dist(prevEnd, end(j)) + dist(start(i), nextStart);
+      if (after < before - EPSILON && canReverse(i, j))
+      {
+        reverse(i, j);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tries to move the blocks starting at i to another position in the window
+   * around i, in both directions. Applies the first improving move.
+   */
+  private boolean orOpt(int i)
+  {
+    for (int length = 1; length <= MAX_BLOCK && i + length <= at.length; length++)
+    {
+      int last = i + length - 1;
+      Point prevEnd = endOrNull(i - 1);
+      Point nextStart = startOrNull(last + 1);
+      double removeGain = dist(prevEnd, start(i)) + dist(end(last), nextStart) - dist(prevEnd, nextStart);
+      if (removeGain <= EPSILON)
+      {
+        continue;
+      }
+      // insert between p and p+1
+      for (int p = Math.max(-1, i - WINDOW); p < Math.min(at.length, last + WINDOW); p++)
+      {
+        if (p >= i - 1 && p <= last)
+        {
+          continue;
+        }
+        Point a = endOrNull(p);
+        Point b = startOrNull(p + 1);
+        double gap = dist(a, b);
+        double forward = dist(a, start(i)) + dist(end(last), b) - gap;
+        double reversed = dist(a, end(last)) + dist(start(i), b) - gap;
+        boolean reverse = reversed < forward;
+        if (Math.min(forward, reversed) < removeGain - EPSILON && canMove(i, last, p, reverse))
+        {
+          move(i, last, p, reverse);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * true if element id has a parent at a position in [from, to]
+   */
+  private boolean parentIn(int id, int from, int to)
+  {
+    int pp = parent[id];
+    return pp >= 0 && pos[pp] >= from && pos[pp] <= to;
+  }
+
+  private boolean canReverse(int i, int j)
+  {
+    if (parent == null)
+    {
+      return true;
+    }
+    for (int k = i; k <= j; k++)
+    {
+      if (parentIn(at[k], i, j))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean canMove(int i, int last, int p, boolean reverse)
+  {
+    if (parent == null)
+    {
+      return true;
+    }
+    if (reverse && !canReverse(i, last))
+    {
+      return false;
+    }
+    if (p > last)
+    {
+      // block moves behind [last+1, p]: none of them may be a parent of the block
+      for (int k = i; k <= last; k++)
+      {
+        if (parentIn(at[k], last + 1, p))
+        {
+          return false;
+        }
+      }
+    }
+    else
+    {
+      // block moves before [p+1, i-1]: none of the block may be a parent of them
+      for (int k = p + 1; k < i; k++)
+      {
+        if (parentIn(at[k], i, last))
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * reverses the order of [i, j] and inverts every element in it
+   */
+  private void reverse(int i, int j)
+  {
+    for (int k = i; k <= j; k++)
+    {
+      el[at[k]].invert();
+    }
+    for (int a = i, b = j; a < b; a++, b--)
+    {
+      int tmp = at[a];
+      at[a] = at[b];
+      at[b] = tmp;
+    }
+    for (int k = i; k <= j; k++)
+    {
+      pos[at[k]] = k;
+    }
+  }
+
+  /**
+   * moves the block [i, last] between p and p+1
+   */
+  private void move(int i, int last, int p, boolean reverse)
+  {
+    int length = last - i + 1;
+    int[] block = Arrays.copyOfRange(at, i, last + 1);
+    int from;
+    int to;
+    if (p > last)
+    {
+      System.arraycopy(at, last + 1, at, i, p - last);
+      from = i;
+      to = p;
+    }
+    else
+    {
+      System.arraycopy(at, p + 1, at, p + 1 + length, i - p - 1);
+      from = p + 1;
+      to = last;
+    }
+    int target = p > last ? p - length + 1 : p + 1;
+    System.arraycopy(block, 0, at, target, length);
+    for (int k = from; k <= to; k++)
+    {
+      pos[at[k]] = k;
+    }
+    if (reverse)
+    {
+      reverse(target, target + length - 1);
+    }
+  }
+}
@@ -19,7 +19,6 @@
 package de.thomas_oster.liblasercut.vectoroptimizers;
 
 import de.thomas_oster.liblasercut.LaserProperty;
-import de.thomas_oster.liblasercut.VectorCommand;
 import de.thomas_oster.liblasercut.VectorPart;
 import de.thomas_oster.liblasercut.platform.Point;
 import de.thomas_oster.liblasercut.platform.Rectangle;
@@ -41,7 +40,8 @@ public abstract class VectorOptimizer
     NEAREST,
     INNER_FIRST,
     SMALLEST_FIRST,
-    DELETE_DUPLICATE_PATHS
+    DELETE_DUPLICATE_PATHS,
+    NESTED_INNER_FIRST
   }
 
   protected static class Element
@@ -206,10 +206,23 @@ public abstract class VectorOptimizer
         return new SmallestFirstVectorOptimizer();
       case DELETE_DUPLICATE_PATHS:
         return new DeleteDuplicatePathsOptimizer();
+      case NESTED_INNER_FIRST:
+        return new NestedInnerFirstVectorOptimizer();
     }
     throw new IllegalArgumentException("Unknown Order Strategy: " + s);
   }
 
+  /**
+   * Creates the optimizer for the given strategy, followed by a
+   * TravelRefinementOptimizer which may use at most refinementMillis to shorten
+   * the travel. Inner-first strategies keep their inner-first guarantee.
+   */
+  public static VectorOptimizer create(OrderStrategy s, long refinementMillis)
+  {
+    boolean innerFirst = s == OrderStrategy.INNER_FIRST || s == OrderStrategy.NESTED_INNER_FIRST;
+    return new TravelRefinementOptimizer(create(s), innerFirst, refinementMillis);
+  }
+
   protected List<Element> divide(VectorPart vp)
   {
     List<Element> result = new ArrayList<>();
@@ -217,7 +230,7 @@ public abstract class VectorOptimizer
     Point lastMove = null;
     LaserProperty lastProp = null;
     boolean stop = false;
-    for (VectorCommand cmd : vp.getCommandList())
+    for (VectorPart.Cursor cmd = vp.cursor(); cmd.next();)
     {
       switch (cmd.getType())
       {
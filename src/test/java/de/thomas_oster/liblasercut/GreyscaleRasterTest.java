@@ -0,0 +1,143 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.utils.BufferedImageAdapter;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GreyscaleRasterTest
+{
+
+  private static final int WIDTH = 77;
+  private static final int HEIGHT = 5;
+
+  private static void fill(GreyscaleRaster r, long seed)
+  {
+    Random random = new Random(seed);
+    for (int y = 0; y < r.getHeight(); y++)
+    {
+      for (int x = 0; x < r.getWidth(); x++)
+      {
+        r.setGreyScale(x, y, random.nextInt(256));
+      }
+    }
+  }
+
+  /**
+   * readRow() must return the same as getGreyScale(), writeRow() must
+   * do the same as setGreyScale()
+   */
+  private static void checkRows(GreyscaleRaster a, GreyscaleRaster b)
+  {
+    fill(a, 1);
+    int[] values = new int[WIDTH];
+    Random random = new Random(2);
+    for (int y = 0; y < HEIGHT; y++)
+    {
+      int[] row = a.readRow(y, (int[]) null);
+      byte[] bytes = a.readRow(y, new byte[WIDTH + 3]);
+      for (int x = 0; x < WIDTH; x++)
+      {
+        assertEquals(a.getGreyScale(x, y), row[x]);
+        assertEquals(a.getGreyScale(x, y), bytes[x] & 0xFF);
+        values[x] = random.nextInt(256);
+        b.setGreyScale(x, y, values[x]);
+      }
+      a.writeRow(y, values);
+      for (int x = 0; x < WIDTH; x++)
+      {
+        assertEquals(b.getGreyScale(x, y), a.getGreyScale(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void greyRaster()
+  {
+    checkRows(new GreyRaster(WIDTH, HEIGHT), new GreyRaster(WIDTH, HEIGHT));
+    checkRows(new GreyRaster(WIDTH, HEIGHT, 4), new GreyRaster(WIDTH, HEIGHT, 4));
+  }
+
+  @Test
+  public void blackWhiteRaster()
+  {
+    checkRows(new BlackWhiteRaster(WIDTH, HEIGHT), new BlackWhiteRaster(WIDTH, HEIGHT));
+  }
+
+  @Test
+  public void bufferedImageAdapter()
+  {
+    int[] types = {
+      BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+      BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_ARGB_PRE
+    };
+    for (int type : types)
+    {
+      checkRows(new BufferedImageAdapter(new BufferedImage(WIDTH, HEIGHT, type)),
+        new BufferedImageAdapter(new BufferedImage(WIDTH, HEIGHT, type)));
+      BufferedImageAdapter shifted = new BufferedImageAdapter(new BufferedImage(WIDTH, HEIGHT, type), true);
+      shifted.setColorShift(-30);
+      fill(shifted, 3);
+      for (int y = 0; y < HEIGHT; y++)
+      {
+        int[] row = shifted.readRow(y, new int[WIDTH]);
+        for (int x = 0; x < WIDTH; x++)
+        {
+          assertEquals(shifted.getGreyScale(x, y), row[x]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void raster3dPartLines()
+  {
+    GreyRaster image = new GreyRaster(WIDTH, HEIGHT);
+    fill(image, 4);
+    Raster3dPart part = new Raster3dPart(image, new PowerSpeedFocusProperty(), new Point(0, 0), 500);
+    byte[] expected = new byte[WIDTH];
+    byte[] inverted = new byte[WIDTH];
+    for (int x = 0; x < WIDTH; x++)
+    {
+      expected[x] = (byte) image.getGreyScale(x, 2);
+      inverted[x] = (byte) (255 - image.getGreyScale(x, 2));
+    }
+    ByteArrayList line = new ByteArrayList(WIDTH);
+    part.getRasterLine(2, line);
+    assertArrayEquals(expected, toArray(line));
+    assertArrayEquals(inverted, toArray(part.getInvertedRasterLine(2)));
+  }
+
+  private static byte[] toArray(List<Byte> list)
+  {
+    byte[] result = new byte[list.size()];
+    for (int i = 0; i < result.length; i++)
+    {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import de.thomas_oster.liblasercut.dithering.DitheringAlgorithm;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LazyBlackWhiteRasterTest
+{
+
+  private static GreyRaster gradient(int width, int height)
+  {
+    GreyRaster r = new GreyRaster(width, height);
+    java.util.Random random = new java.util.Random(5);
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        r.setGreyScale(x, y, (x * 255 / width + random.nextInt(40)) % 256);
+      }
+    }
+    return r;
+  }
+
+  /**
+   * every algorithm except random must give the same rows as dithering the
+   * whole image, whatever the order the rows are read in
+   */
+  @Test
+  public void testMatchesFullDithering() throws InterruptedException
+  {
+    GreyRaster src = gradient(45, 37);
+    List<Integer> shuffled = new ArrayList<>();
+    for (int y = 0; y < src.getHeight(); y++)
+    {
+      shuffled.add(y);
+    }
+    Collections.shuffle(shuffled, new java.util.Random(7));
+    for (BlackWhiteRaster.DitherAlgorithm a : BlackWhiteRaster.DitherAlgorithm.values())
+    {
+      if (a == BlackWhiteRaster.DitherAlgorithm.RANDOM)
+      {
+        continue;
+      }
+      DitheringAlgorithm alg = BlackWhiteRaster.getDitheringAlgorithm(a);
+      BlackWhiteRaster full = new BlackWhiteRaster(src, alg);
+      LazyBlackWhiteRaster lazy = new LazyBlackWhiteRaster(src, alg, 4);
+      for (int y = src.getHeight() - 1; y >= 0; y--)
+      {
+        assertArrayEquals(a + " row " + y, full.getRasterLine(y, null), lazy.getRasterLine(y, null));
+      }
+      for (int y : shuffled)
+      {
+        assertArrayEquals(a + " row " + y, full.getRasterLine(y, null), lazy.getRasterLine(y, null));
+        assertArrayEquals(full.readRow(y, (int[]) null), lazy.readRow(y, (int[]) null));
+      }
+    }
+  }
+
+  @Test
+  public void testRasterPart() throws InterruptedException
+  {
+    GreyRaster src = gradient(70, 20);
+    DitheringAlgorithm alg = BlackWhiteRaster.getDitheringAlgorithm(BlackWhiteRaster.DitherAlgorithm.FLOYD_STEINBERG);
+    RasterPart full = new RasterPart(new BlackWhiteRaster(src, alg), new PowerSpeedFocusProperty(), new Point(0, 0), 500);
+    RasterPart lazy = new RasterPart(new LazyBlackWhiteRaster(src, alg, 3), new PowerSpeedFocusProperty(), new Point(0, 0), 500);
+    for (int y = 0; y < src.getHeight(); y++)
+    {
+      assertEquals(full.getRasterLine(y), lazy.getRasterLine(y));
+      assertEquals(full.lineIsBlank(y), lazy.lineIsBlank(y));
+      assertEquals(full.firstNonWhitePixel(y), lazy.firstNonWhitePixel(y));
+      assertEquals(full.lastNonWhitePixel(y), lazy.lastNonWhitePixel(y));
+      for (int x = 0; x < src.getWidth(); x++)
+      {
+        assertEquals(full.isBlack(x, y), lazy.isBlack(x, y));
+        assertEquals(full.nextColorChange(x, y), lazy.nextColorChange(x, y));
+      }
+    }
+    assertArrayEquals(((BlackWhiteRaster) full.getImage()).getImageData(), ((LazyBlackWhiteRaster) lazy.getImage()).getRaster().getImageData());
+  }
+}
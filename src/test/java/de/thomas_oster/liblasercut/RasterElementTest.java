@@ -0,0 +1,247 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RasterElementTest
+{
+
+  private static final int[] WIDTHS = {1, 7, 8, 9, 63, 64, 65, 130};
+  private static final int[] DEPTHS = {1, 4, 8};
+
+  /**
+   * random rows with runs of varying length
+   */
+  private static RasterElement random(int width, int depth, long seed)
+  {
+    Random random = new Random(seed);
+    RasterElement r = new RasterElement(width, 3, depth);
+    for (int y = 0; y < r.getHeight(); y++)
+    {
+      int v = 0;
+      for (int x = 0; x < width; x++)
+      {
+        if (random.nextInt(y == 0 ? 40 : 3) == 0)
+        {
+          v = random.nextInt(1 << depth);
+        }
+        r.setPixel(x, y, v);
+      }
+    }
+    return r;
+  }
+
+  /**
+   * value of pixel x as stored in the packed row data
+   */
+  private static int packedPixel(RasterElement r, int x, int y)
+  {
+    int depth = r.getBitDepth();
+    int bit = x * depth;
+    int stride = r.getImageData().length / r.getHeight();
+    int b = r.getImageData()[y * stride + bit / 8] & 0xFF;
+    return (b >> (8 - depth - bit % 8)) & ((1 << depth) - 1);
+  }
+
+  @Test
+  public void testPixelAccess()
+  {
+    for (int depth : DEPTHS)
+    {
+      for (int width : WIDTHS)
+      {
+        RasterElement r = random(width, depth, width);
+        for (int y = 0; y < r.getHeight(); y++)
+        {
+          for (int x = 0; x < width; x++)
+          {
+            assertEquals(packedPixel(r, x, y), r.getPixel(x, y));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRuns()
+  {
+    for (int depth : DEPTHS)
+    {
+      for (int width : WIDTHS)
+      {
+        RasterElement r = random(width, depth, width);
+        for (int y = 0; y < r.getHeight(); y++)
+        {
+          for (int x = 0; x < width; x++)
+          {
+            int end = x + 1;
+            while (end < width && r.getPixel(end, y) == r.getPixel(x, y))
+            {
+              end++;
+            }
+            int start = x;
+            while (start > 0 && r.getPixel(start - 1, y) == r.getPixel(x, y))
+            {
+              start--;
+            }
+            assertEquals("runEnd " + depth + " bit, x=" + x, end, r.runEnd(x, y));
+            assertEquals("runStart " + depth + " bit, x=" + x, start, r.runStart(x, y));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFillAndCopy()
+  {
+    Random random = new Random(3);
+    for (int depth : DEPTHS)
+    {
+      for (int width : WIDTHS)
+      {
+        for (int i = 0; i < 50; i++)
+        {
+          RasterElement r = random(width, depth, i);
+          RasterElement expected = random(width, depth, i);
+          int from = random.nextInt(width);
+          int to = from + random.nextInt(width - from + 1);
+          int value = random.nextInt(1 << depth);
+          r.fill(1, from, to, value);
+          for (int x = from; x < to; x++)
+          {
+            expected.setPixel(x, 1, value);
+          }
+          assertArrayEquals(expected.getImageData(), r.getImageData());
+
+          // copy within the same row, possibly overlapping
+          int length = random.nextInt(width - from + 1);
+          int dst = random.nextInt(width - length + 1);
+          int[] pixels = new int[length];
+          for (int x = 0; x < length; x++)
+          {
+            pixels[x] = r.getPixel(from + x, 2);
+          }
+          r.copyPixels(2, from, from + length, r, 2, dst);
+          for (int x = 0; x < length; x++)
+          {
+            expected.setPixel(dst + x, 2, pixels[x]);
+          }
+          assertArrayEquals(expected.getImageData(), r.getImageData());
+
+          // copy into another raster
+          r.copyPixels(0, from, from + length, expected, 1, dst);
+          for (int x = 0; x < length; x++)
+          {
+            assertEquals(r.getPixel(from + x, 0), expected.getPixel(dst + x, 1));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReversedRasterLine()
+  {
+    for (int depth : DEPTHS)
+    {
+      for (int width : WIDTHS)
+      {
+        RasterElement r = random(width, depth, width);
+        RasterElement mirrored = new RasterElement(width, r.getHeight(), depth);
+        for (int y = 0; y < r.getHeight(); y++)
+        {
+          for (int x = 0; x < width; x++)
+          {
+            mirrored.setPixel(width - 1 - x, y, r.getPixel(x, y));
+          }
+          assertArrayEquals(mirrored.getRasterLine(y, null), r.getReversedRasterLine(y, null));
+        }
+      }
+    }
+  }
+
+  /**
+   * a memory-mapped raster must behave exactly like one on the heap
+   */
+  @Test
+  public void testMappedMatchesHeap()
+  {
+    long threshold = RasterElement.getMappedThreshold();
+    try
+    {
+      for (int depth : DEPTHS)
+      {
+        for (int width : WIDTHS)
+        {
+          RasterElement heap = random(width, depth, width);
+          RasterElement.setMappedThreshold(0);
+          RasterElement mapped = new RasterElement(width, heap.getHeight(), depth);
+          RasterElement.setMappedThreshold(threshold);
+          assertFalse(mapped.hasArray());
+          for (int y = 0; y < heap.getHeight(); y++)
+          {
+            mapped.setRasterLine(y, heap.getRasterLine(y, null));
+          }
+          heap.fill(1, width / 3, width - 1, 1);
+          mapped.fill(1, width / 3, width - 1, 1);
+          heap.copyPixels(0, 0, width / 2, heap, 2, width / 4);
+          mapped.copyPixels(0, 0, width / 2, mapped, 2, width / 4);
+          for (int y = 0; y < heap.getHeight(); y++)
+          {
+            assertArrayEquals(heap.getRasterLine(y, null), mapped.getRasterLine(y, null));
+            assertArrayEquals(heap.getReversedRasterLine(y, null), mapped.getReversedRasterLine(y, null));
+            assertArrayEquals(heap.readRow(y, (int[]) null), mapped.readRow(y, (int[]) null));
+            assertEquals(heap.isLineBlank(y), mapped.isLineBlank(y));
+            assertEquals(heap.firstNonZeroPixel(y), mapped.firstNonZeroPixel(y));
+            assertEquals(heap.lastNonZeroPixel(y), mapped.lastNonZeroPixel(y));
+            for (int x = 0; x < width; x++)
+            {
+              assertEquals(heap.runEnd(x, y), mapped.runEnd(x, y));
+              assertEquals(heap.runStart(x, y), mapped.runStart(x, y));
+            }
+          }
+        }
+      }
+    }
+    finally
+    {
+      RasterElement.setMappedThreshold(threshold);
+    }
+  }
+
+  @Test
+  public void testReverseBits()
+  {
+    ByteArrayList list = new ByteArrayList(3);
+    list.add((byte) 0b10000000);
+    list.add((byte) 0b01100000);
+    list.add((byte) 0b00000011);
+    list.reverseBits();
+    assertEquals((byte) 0b11000000, (byte) list.get(0));
+    assertEquals((byte) 0b00000110, (byte) list.get(1));
+    assertEquals((byte) 0b00000001, (byte) list.get(2));
+  }
+}
@@ -409,6 +409,81 @@ public class RasterizableJobPartTest
     assertEquals(propertyForPower(0), raster.getPowerSpeedFocusPropertyForColor(255));
   }
   
+  /**
+   * The scanline index must give the same answers as scanning the pixels
+   */
+  @Test
+  public void testScanlineIndexMatchesPixelScan()
+  {
+    java.util.Random r = new java.util.Random(5);
+    // 1 bit rasters are scanned in packed form, widths around multiples of 64
+    for (int width : new int[] { 1, 7, 63, 64, 65, 130, 200 })
+    {
+      BlackWhiteRaster bw = new BlackWhiteRaster(width, 20);
+      GreyRaster grey = new GreyRaster(width, 20);
+      for (int y = 0; y < 20; y++)
+      {
+        // sparse rows with a few short runs, some rows blank
+        for (int i = 0; i < y % 4; i++)
+        {
+          int x0 = r.nextInt(width);
+          int color = r.nextInt(255);
+          for (int x = x0; x < Math.min(width, x0 + r.nextInt(10)); x++)
+          {
+            bw.setBlack(x, y, true);
+            grey.setGreyScale(x, y, color);
+          }
+        }
+        for (int x = 0; x < width; x++)
+        {
+          if (grey.getGreyScale(x, y) == 0)
+          {
+            grey.setGreyScale(x, y, 255);
+          }
+        }
+      }
+      checkAgainstPixelScan(new RasterPart(bw, new PowerSpeedFocusProperty(), new Point(0, 0), 500));
+      checkAgainstPixelScan(new Raster3dPart(grey, new PowerSpeedFocusProperty(), new Point(0, 0), 500));
+    }
+  }
+
+  private static void checkAgainstPixelScan(RasterizableJobPart part)
+  {
+    GreyscaleRaster image = part.getImage();
+    int width = image.getWidth();
+    for (int y = 0; y < image.getHeight(); y++)
+    {
+      int left = width;
+      int right = 0;
+      for (int x = width - 1; x >= 0; x--)
+      {
+        if (image.getGreyScale(x, y) < 255)
+        {
+          left = x;
+          right = Math.max(right, x);
+        }
+      }
+      assertEquals(left == width, part.lineIsBlank(y));
+      assertEquals(left, part.leftMostNonWhitePixel(y));
+      assertEquals(right, part.rightMostNonWhitePixel(y));
+      for (int x = 0; x < width; x++)
+      {
+        int change = x;
+        while (change < width && image.getGreyScale(change, y) == image.getGreyScale(x, y))
+        {
+          change++;
+        }
+        assertEquals(change, part.nextColorChangeHeadingRight(x, y));
+        change = x;
+        while (change >= 0 && image.getGreyScale(change, y) == image.getGreyScale(x, y))
+        {
+          change--;
+        }
+        assertEquals(change, part.nextColorChangeHeadingLeft(x, y));
+      }
+    }
+  }
+
   /**
    * Test the tricky case of a pixel on the very right edge
    */
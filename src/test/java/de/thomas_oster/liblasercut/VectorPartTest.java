@@ -0,0 +1,138 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class VectorPartTest
+{
+
+  private static VectorPart createPart(int points)
+  {
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    VectorPart vp = new VectorPart(prop, 500);
+    for (int i = 0; i < points; i++)
+    {
+      if (i % 100 == 0)
+      {
+        PowerSpeedFocusProperty p = new PowerSpeedFocusProperty();
+        p.setPower(i % 101);
+        vp.setProperty(p);
+      }
+      vp.linetoOrMoveto(i * 0.5, 1000 - i, i % 3 != 0);
+    }
+    return vp;
+  }
+
+  @Test
+  public void testCommandListMatchesVisitor()
+  {
+    VectorPart vp = createPart(1234);
+    VectorCommand[] commands = vp.getCommandList();
+    assertEquals(1 + 13 + 1234, commands.length);
+    assertEquals(VectorCommand.CmdType.SETPROPERTY, commands[0].getType());
+    List<String> visited = new ArrayList<>();
+    vp.accept(new VectorPart.CommandVisitor<RuntimeException>()
+    {
+      @Override
+      public void setProperty(LaserProperty property)
+      {
+        visited.add("P" + property.getPower());
+      }
+
+      @Override
+      public void moveto(double x, double y)
+      {
+        visited.add("M" + x + "," + y);
+      }
+
+      @Override
+      public void lineto(double x, double y)
+      {
+        visited.add("L" + x + "," + y);
+      }
+    });
+    assertEquals(commands.length, visited.size());
+    for (int i = 0; i < commands.length; i++)
+    {
+      VectorCommand c = commands[i];
+      switch (c.getType())
+      {
+        case SETPROPERTY:
+          assertEquals("P" + c.getProperty().getPower(), visited.get(i));
+          break;
+        case MOVETO:
+          assertEquals("M" + c.getX() + "," + c.getY(), visited.get(i));
+          break;
+        case LINETO:
+          assertEquals("L" + c.getX() + "," + c.getY(), visited.get(i));
+          break;
+      }
+    }
+  }
+
+  @Test
+  public void testCursor()
+  {
+    VectorPart vp = createPart(345);
+    VectorCommand[] commands = vp.getCommandList();
+    assertEquals(commands.length, vp.getCommandCount());
+    VectorPart.Cursor cmd = vp.cursor();
+    for (int pass = 0; pass < 2; pass++)
+    {
+      for (VectorCommand c : commands)
+      {
+        assertTrue(cmd.next());
+        assertEquals(c.getType(), cmd.getType());
+        if (c.getType() == VectorCommand.CmdType.SETPROPERTY)
+        {
+          assertSame(c.getProperty(), cmd.getProperty());
+        }
+        else
+        {
+          assertEquals(c.getX(), cmd.getX(), 0);
+          assertEquals(c.getY(), cmd.getY(), 0);
+        }
+      }
+      assertFalse(cmd.next());
+      assertEquals(vp.getCommandCount(), cmd.getIndex());
+      cmd.reset();
+    }
+  }
+
+  @Test
+  public void testApplyStartPoint()
+  {
+    VectorPart vp = new VectorPart(new PowerSpeedFocusProperty(), 254);
+    vp.moveto(100.7, 200.5);
+    vp.lineto(300.5, 400.2);
+    LaserJob job = new LaserJob("", "", "");
+    job.addPart(vp);
+    job.setStartPoint(1, 2);
+    job.applyStartPoint();
+    VectorCommand[] commands = vp.getCommandList();
+    assertEquals(90, commands[1].getX(), 0);
+    assertEquals(180, commands[1].getY(), 0);
+    assertEquals(290, commands[2].getX(), 0);
+    assertEquals(380, commands[2].getY(), 0);
+  }
+}
@@ -0,0 +1,186 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DitheringAlgorithmTest
+{
+
+  private static GreyRaster photo(int width, int height)
+  {
+    GreyRaster result = new GreyRaster(width, height);
+    java.util.Random r = new java.util.Random(0);
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < width; x++)
+      {
+        int v = (x * 255) / width + r.nextInt(41) - 20;
+        result.setGreyScale(x, y, Math.max(0, Math.min(255, v)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The Ordered implementation before ditherPixelwise() existed
+   */
+  private static void referenceOrdered(GreyscaleRaster src, BlackWhiteRaster target, int[][] filter)
+  {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    int nPatWid = filter.length;
+    int x;
+    int y;
+    for (y = 0; y < (height - nPatWid); y = y + nPatWid)
+    {
+      for (x = 0; x < (width - nPatWid); x = x + nPatWid)
+      {
+        for (int xdelta = 0; xdelta < nPatWid; xdelta++)
+        {
+          for (int ydelta = 0; ydelta < nPatWid; ydelta++)
+          {
+            target.setBlack(x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
+          }
+        }
+      }
+      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
+      {
+        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
+        {
+          if (((x + xdelta) < width) && ((y + ydelta) < height))
+          {
+            target.setBlack(x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
+          }
+        }
+      }
+    }
+    for (x = 0; x < (width); x = x + nPatWid)
+    {
+      for (int xdelta = 0; xdelta < nPatWid; xdelta++)
+      {
+        for (int ydelta = 0; ydelta < nPatWid; ydelta++)
+        {
+          if (((x + xdelta) < width) && ((y + ydelta) < height))
+          {
+            target.setBlack(x + xdelta, y + ydelta, src.getGreyScale(x + xdelta, y + ydelta) < filter[xdelta][ydelta]);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void orderedMatchesReference() throws InterruptedException
+  {
+    // small sizes are dithered serially, the last one in parallel
+    int[][] sizes = { { 3, 2 }, { 17, 13 }, { 100, 7 }, { 1203, 900 } };
+    for (Ordered o : new Ordered[] { new Ordered(), new Halftone(), new BrightenedHalftone() })
+    {
+      for (int[] size : sizes)
+      {
+        GreyRaster photo = photo(size[0], size[1]);
+        BlackWhiteRaster expected = new BlackWhiteRaster(size[0], size[1]);
+        referenceOrdered(photo, expected, o.getThresholdMatrix());
+        assertArrayEquals(o + " " + size[0], expected.getImageData(), o.dither(photo).getImageData());
+      }
+    }
+  }
+
+  @Test
+  public void averageThreshold() throws InterruptedException
+  {
+    GreyRaster photo = photo(1203, 900);
+    long sum = 0;
+    for (int y = 0; y < photo.getHeight(); y++)
+    {
+      for (int x = 0; x < photo.getWidth(); x++)
+      {
+        sum += photo.getGreyScale(x, y);
+      }
+    }
+    int thresh = (int) (sum / photo.getHeight() / photo.getWidth());
+    BlackWhiteRaster result = new Average().dither(photo);
+    for (int y = 0; y < photo.getHeight(); y++)
+    {
+      for (int x = 0; x < photo.getWidth(); x++)
+      {
+        assertEquals(photo.getGreyScale(x, y) < thresh, result.isBlack(x, y));
+      }
+    }
+  }
+
+  @Test(expected = InterruptedException.class)
+  public void interruptible() throws InterruptedException
+  {
+    GreyRaster photo = photo(1203, 900);
+    Thread.currentThread().interrupt();
+    try
+    {
+      new Random().dither(photo);
+    }
+    finally
+    {
+      // don't leave the flag set for the next test
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void interruptWaitsForRunningBands()
+  {
+    Thread caller = Thread.currentThread();
+    AtomicInteger running = new AtomicInteger();
+    try
+    {
+      new Average().forEachBand(2048, 2048, 0, 100, (fromY, toY) -> {
+        running.incrementAndGet();
+        if (fromY == 0)
+        {
+          caller.interrupt();
+          try
+          {
+            // a slow band, still writing after the caller was interrupted
+            Thread.sleep(200);
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+          }
+        }
+        running.decrementAndGet();
+      });
+      fail("forEachBand() was not interrupted");
+    }
+    catch (InterruptedException e)
+    {
+      assertEquals(0, running.get());
+      assertTrue(Thread.interrupted());
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.dithering;
+
+import de.thomas_oster.liblasercut.BlackWhiteRaster;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.GreyscaleRaster;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ErrorDiffusionTest
+{
+
+  /**
+   * large enough to be dithered in parallel, odd width to test the last byte
+   */
+  private static GreyRaster photo()
+  {
+    GreyRaster result = new GreyRaster(1203, 900);
+    java.util.Random r = new java.util.Random(0);
+    for (int y = 0; y < result.getHeight(); y++)
+    {
+      for (int x = 0; x < result.getWidth(); x++)
+      {
+        int v = (x * 255) / result.getWidth() + r.nextInt(41) - 20;
+        result.setGreyScale(x, y, Math.max(0, Math.min(255, v)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The Floyd-Steinberg implementation before ErrorDiffusion existed
+   */
+  private static void referenceFloydSteinberg(GreyscaleRaster src, BlackWhiteRaster target)
+  {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    int[][] input = new int[width][2];
+    for (int x = 0; x < width; x++)
+    {
+      input[x][1] = src.getGreyScale(x, 0);
+    }
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < input.length; x++)
+      {
+        input[x][0] = input[x][1];
+        if (y + 1 < height)
+        {
+          input[x][1] = (src.getGreyScale(x, y + 1));
+        }
+      }
+      for (int x = 0; x < input.length; x++)
+      {
+        target.setBlack(x, y, input[x][0] <= 127);
+        int error = input[x][0] - ((input[x][0] <= 127) ? 0 : 255);
+        if (x + 1 < input.length)
+        {
+          input[x + 1][0] = (input[x + 1][0] + 7 * error / 16);
+          if (y + 1 < height)
+          {
+            input[x + 1][1] = (input[x + 1][1] + 1 * error / 16);
+          }
+        }
+        if (y + 1 < height)
+        {
+          input[x][1] = (input[x][1] + 5 * error / 16);
+          if (x > 0)
+          {
+            input[x - 1][1] = (input[x - 1][1] + 3 * error / 16);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void floydSteinbergMatchesReference() throws InterruptedException
+  {
+    GreyRaster photo = photo();
+    BlackWhiteRaster expected = new BlackWhiteRaster(photo.getWidth(), photo.getHeight());
+    referenceFloydSteinberg(photo, expected);
+    for (int threads : new int[] { 1, 4 })
+    {
+      FloydSteinberg fs = new FloydSteinberg();
+      fs.setThreads(threads);
+      assertArrayEquals(expected.getImageData(), fs.dither(photo).getImageData());
+    }
+  }
+
+  @Test
+  public void ditherDirectMatchesDither() throws InterruptedException
+  {
+    GreyRaster photo = photo();
+    byte[] expected = new Atkinson().dither(photo).getImageData();
+    Atkinson a = new Atkinson();
+    a.setThreads(3);
+    a.ditherDirect(photo);
+    BlackWhiteRaster direct = new BlackWhiteRaster(photo.getWidth(), photo.getHeight());
+    for (int y = 0; y < photo.getHeight(); y++)
+    {
+      for (int x = 0; x < photo.getWidth(); x++)
+      {
+        direct.setBlack(x, y, photo.getGreyScale(x, y) == 0);
+      }
+    }
+    assertArrayEquals(expected, direct.getImageData());
+  }
+
+  @Test
+  public void parallelMatchesSerial() throws InterruptedException
+  {
+    GreyRaster photo = photo();
+    for (ErrorDiffusion serial : new ErrorDiffusion[] { new JarvisJudiceNinke(), new Stucki(), new Atkinson() })
+    {
+      serial.setThreads(1);
+      ErrorDiffusion parallel = (ErrorDiffusion) serial.clone();
+      parallel.setThreads(5);
+      BlackWhiteRaster expected = serial.dither(photo);
+      assertArrayEquals(serial.toString(), expected.getImageData(), parallel.dither(photo).getImageData());
+    }
+  }
+
+  @Test
+  public void keepsAverageBrightness() throws InterruptedException
+  {
+    GreyRaster grey = new GreyRaster(100, 100);
+    for (int y = 0; y < 100; y++)
+    {
+      for (int x = 0; x < 100; x++)
+      {
+        grey.setGreyScale(x, y, 64);
+      }
+    }
+    BlackWhiteRaster result = new Stucki().dither(grey);
+    int black = 0;
+    for (int y = 0; y < 100; y++)
+    {
+      for (int x = 0; x < 100; x++)
+      {
+        black += result.isBlack(x, y) ? 1 : 0;
+      }
+    }
+    assertEquals(7500, black, 200);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.FloatPowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.GreyRaster;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.RasterPart;
+import de.thomas_oster.liblasercut.platform.Point;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class GenericGcodeDriverTest
+{
+
+  /**
+   * Two lines at 254 DPI (0.1 mm per pixel): black from 1 to 2 mm, dark grey
+   * (the same property for a RasterPart) from 2 to 3 mm, white up to 13 mm
+   * and black again from 13 to 14 mm
+   */
+  private LaserJob createRasterJob(GenericGcodeDriver driver)
+  {
+    GreyRaster raster = new GreyRaster(200, 2, 8);
+    for (int y = 0; y < 2; y++)
+    {
+      for (int x = 0; x < 200; x++)
+      {
+        raster.setGreyScale(x, y, x >= 10 && x < 20 || x >= 130 && x < 140 ? 0 : x >= 20 && x < 30 ? 50 : 255);
+      }
+    }
+    FloatPowerSpeedFocusProperty prop = (FloatPowerSpeedFocusProperty) driver.getLaserPropertyForRasterPart();
+    prop.setPower(50);
+    prop.setSpeed(100);
+    LaserJob job = new LaserJob("test", "test", "test");
+    job.addPart(new RasterPart(raster, prop, new Point(0, 0), 254));
+    return job;
+  }
+
+  private List<String> saveJob(GenericGcodeDriver driver, LaserJob job) throws Exception
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    driver.saveJob(out, job);
+    return Arrays.asList(out.toString(StandardCharsets.US_ASCII).split("\n"));
+  }
+
+  private GenericGcodeDriver createNativeRasterDriver()
+  {
+    GenericGcodeDriver driver = new GenericGcodeDriver();
+    driver.setSupportedResolutions("254");
+    driver.setNativeRaster(true);
+    driver.setUseBidirectionalRastering(true);
+    // 2 mm overscan, so white gaps longer than 9 mm are crossed with G0
+    driver.setRasterPadding(2);
+    return driver;
+  }
+
+  @Test
+  public void testNativeRaster() throws Exception
+  {
+    GenericGcodeDriver driver = createNativeRasterDriver();
+    driver.setPreJobGcode("G21,G90,M03 S0");
+    assertEquals(Arrays.asList(
+      "G21",
+      "G90",
+      "M03 S0",
+      "M4",
+      // left to right, the overscan before the line is clamped to the bed
+      "G0 X0 Y0 F3600",
+      "G1 X1 S0 F1200",
+      // black and dark grey are one run
+      "G1 X3 S0.5",
+      "G1 X5 S0",
+      "G0 X11 F3600",
+      "G1 X13 F1200",
+      "G1 X14 S0.5",
+      "G1 X16 S0",
+      // right to left
+      "G0 Y0.1 F3600",
+      "G1 X14 F1200",
+      "G1 X13 S0.5",
+      "G1 X11 S0",
+      "G0 X5 F3600",
+      "G1 X3 F1200",
+      "G1 X1 S0.5",
+      "G1 X0 S0",
+      // the mode of the pre-job code
+      "M3",
+      "G0 X0 Y0"), saveJob(driver, createRasterJob(driver)));
+  }
+
+  @Test
+  public void testNativeRasterRestoresLaserMode() throws Exception
+  {
+    GenericGcodeDriver driver = createNativeRasterDriver();
+    driver.setPreJobGcode("G21,G90,G0M4S0");
+    List<String> lines = saveJob(driver, createRasterJob(driver));
+    assertEquals("M4", lines.get(lines.size() - 2));
+    driver.setPreJobGcode(null);
+    lines = saveJob(driver, createRasterJob(driver));
+    assertEquals("M4", lines.get(0));
+    assertEquals("M5", lines.get(lines.size() - 2));
+  }
+}
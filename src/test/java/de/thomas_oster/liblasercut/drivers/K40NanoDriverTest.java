@@ -0,0 +1,263 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.VectorPart;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class K40NanoDriverTest
+{
+
+  /**
+   * MockUsb which records the packets and connects without delay
+   */
+  private static class RecordingUsb extends K40NanoDriver.MockUsb
+  {
+    final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+    RecordingUsb(int packetLatency)
+    {
+      super(0, packetLatency, 0);
+    }
+
+    @Override
+    public void open()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public void send_packet(byte[] packet)
+    {
+      super.send_packet(packet);
+      sent.add(new String(packet, StandardCharsets.US_ASCII));
+    }
+  }
+
+  private static K40NanoDriver.K40Queue queue(K40NanoDriver.BaseUsb mock)
+  {
+    return new K40NanoDriver().new K40Queue()
+    {
+      @Override
+      protected K40NanoDriver.BaseUsb createUsb()
+      {
+        return mock;
+      }
+    };
+  }
+
+  private static String payload(int i)
+  {
+    return String.format("I%028dS", i);
+  }
+
+  @Test
+  public void testExecuteDoesNotWaitForDevice() throws Exception
+  {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingUsb usb = new RecordingUsb(0)
+    {
+      @Override
+      public void send_packet(byte[] packet)
+      {
+        try
+        {
+          release.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+        super.send_packet(packet);
+      }
+    };
+    K40NanoDriver.K40Queue q = queue(usb);
+    q.open();
+    q.add(payload(0) + payload(1));
+    // incomplete packets are padded with F at line ends
+    q.add("IBS1P\n");
+    q.execute();
+    // the device has not accepted anything yet, but execute() returned
+    assertEquals(0, usb.sent.size());
+    release.countDown();
+    q.close();
+    assertEquals(3, usb.sent.size());
+    assertEquals(payload(0), usb.sent.get(0));
+    assertEquals(payload(1), usb.sent.get(1));
+    assertEquals("IBS1PFFFFFFFFFFFFFFFFFFFFFFFFF", usb.sent.get(2));
+  }
+
+  @Test
+  public void testEncodingOverlapsTransmission() throws Exception
+  {
+    int packets = 10;
+    Semaphore sending = new Semaphore(0);
+    Semaphore release = new Semaphore(0);
+    RecordingUsb usb = new RecordingUsb(0)
+    {
+      @Override
+      public void send_packet(byte[] packet)
+      {
+        sending.release();
+        release.acquireUninterruptibly();
+        super.send_packet(packet);
+      }
+    };
+    K40NanoDriver.K40Queue q = queue(usb);
+    q.open();
+    for (int i = 0; i < packets; i++)
+    {
+      q.add(payload(i));
+      q.execute();
+      if (i > 0)
+      {
+        // packet i was encoded while packet i - 1 is still being sent
+        assertEquals(i - 1, usb.sent.size());
+        release.release();
+      }
+      assertTrue(sending.tryAcquire(10, TimeUnit.SECONDS));
+    }
+    release.release();
+    q.close();
+    assertEquals(packets, usb.sent.size());
+    for (int i = 0; i < packets; i++)
+    {
+      assertEquals(payload(i), usb.sent.get(i));
+    }
+  }
+
+  @Test
+  public void testCloseStopsTransmitterAfterFailure() throws Exception
+  {
+    RuntimeException failure = new RuntimeException("USB error");
+    AtomicReference<Thread> transmitter = new AtomicReference<>();
+    RecordingUsb usb = new RecordingUsb(0)
+    {
+      @Override
+      public void send_packet(byte[] packet)
+      {
+        transmitter.set(Thread.currentThread());
+        throw failure;
+      }
+    };
+    K40NanoDriver.K40Queue q = queue(usb);
+    q.open();
+    q.add(payload(0));
+    q.execute();
+    // wait until the transmitter failed and waits for the next packet
+    long timeout = System.currentTimeMillis() + 10000;
+    while (transmitter.get() == null || transmitter.get().getState() != Thread.State.WAITING)
+    {
+      assertTrue(System.currentTimeMillis() < timeout);
+      Thread.sleep(1);
+    }
+    try
+    {
+      q.close();
+      fail("close() did not report the failure");
+    }
+    catch (RuntimeException e)
+    {
+      assertSame(failure, e);
+    }
+    transmitter.get().join(10000);
+    assertFalse(transmitter.get().isAlive());
+  }
+
+  @Test
+  public void testSendJobStopsTransmitterAfterFailure() throws Exception
+  {
+    RuntimeException failure = new RuntimeException("USB error");
+    AtomicReference<Thread> transmitter = new AtomicReference<>();
+    RecordingUsb usb = new RecordingUsb(0)
+    {
+      private int packets = 0;
+
+      @Override
+      public byte[] create_packet(CharSequence payload)
+      {
+        if (packets++ == 1)
+        {
+          // encode the second packet after the first one failed, so the
+          // error is reported while encoding instead of by close()
+          long timeout = System.currentTimeMillis() + 10000;
+          while (transmitter.get() == null || transmitter.get().getState() != Thread.State.WAITING)
+          {
+            assertTrue(System.currentTimeMillis() < timeout);
+            Thread.yield();
+          }
+        }
+        return super.create_packet(payload);
+      }
+
+      @Override
+      public void send_packet(byte[] packet)
+      {
+        transmitter.set(Thread.currentThread());
+        throw failure;
+      }
+    };
+    K40NanoDriver driver = new K40NanoDriver()
+    {
+      @Override
+      protected K40NanoDriver.BaseUsb createUsb()
+      {
+        return usb;
+      }
+    };
+    VectorPart vp = new VectorPart(driver.getLaserPropertyForVectorPart(), 500);
+    vp.moveto(0, 0);
+    for (int i = 1; i <= 200; i++)
+    {
+      vp.lineto(10 * i, 10 * (i % 2));
+    }
+    LaserJob job = new LaserJob("failure", "failure", "test");
+    job.addPart(vp);
+    try
+    {
+      driver.sendJob(job);
+      fail("sendJob() did not report the failure");
+    }
+    catch (RuntimeException e)
+    {
+      assertSame(failure, e);
+    }
+    transmitter.get().join(10000);
+    assertFalse(transmitter.get().isAlive());
+  }
+}
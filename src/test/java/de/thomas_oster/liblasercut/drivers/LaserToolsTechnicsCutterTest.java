@@ -0,0 +1,79 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.ByteArrayList;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LaserToolsTechnicsCutterTest
+{
+
+  /**
+   * compressLine() must give the same as transforming the line step by
+   * step, and decompress to it
+   */
+  @Test
+  public void testCompressLine()
+  {
+    Random r = new Random(7);
+    for (int i = 0; i < 3000; i++)
+    {
+      int n = 1 + r.nextInt(i % 10 == 0 ? 400 : 30);
+      ByteArrayList line = new ByteArrayList(n);
+      while (line.size() < n)
+      {
+        int run = r.nextInt(3) == 0 ? r.nextInt(150) : 1;
+        byte value = (byte) (r.nextBoolean() ? r.nextInt(256) : 0);
+        for (int k = 0; k < run && line.size() < n; k++)
+        {
+          line.add(value);
+        }
+      }
+      boolean reverse = r.nextBoolean();
+      boolean reverseBits = r.nextBoolean();
+      int shift = r.nextInt(41) - 20;
+
+      ByteArrayList expected = new ByteArrayList(n);
+      expected.addAll(line);
+      if (reverse && reverseBits)
+      {
+        expected.reverseBits();
+      }
+      else if (reverse)
+      {
+        Collections.reverse(expected);
+      }
+      expected.leftShiftBits(shift);
+
+      byte[] out = new byte[LaserToolsTechnicsCutter.maxCompressedLength(n)];
+      int length = LaserToolsTechnicsCutter.compressLine(line, reverse, reverseBits, shift, out);
+      ByteArrayList compressed = new ByteArrayList(length);
+      for (int k = 0; k < length; k++)
+      {
+        compressed.add(out[k]);
+      }
+      assertEquals(expected, LaserToolsTechnicsCutter.decompressData(compressed));
+      assertEquals(LaserToolsTechnicsCutter.compressData(expected), compressed);
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.drivers;
+
+import de.thomas_oster.liblasercut.FloatPowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.LaserCutter;
+import de.thomas_oster.liblasercut.LaserJob;
+import de.thomas_oster.liblasercut.ProgressListenerDummy;
+import de.thomas_oster.liblasercut.VectorPart;
+import de.thomas_oster.liblasercut.utils.LinefeedPrintStream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Saves the job of AllDriversTest with "encode parts in parallel" switched
+ * on and compares it to the known-good output in test-output/.
+ *
+ * Each part is encoded without knowing what the previous one has set, so
+ * the drivers may send power, speed, focus etc. again at the start of a
+ * part. Apart from that the output has to be the same.
+ */
+public class ParallelEncodingTest
+{
+
+  private static final String EPILOG_PARALLEL_ENCODING = "EncodePartsInParallel";
+  private static final String PARALLEL_ENCODING = "Encode job parts in parallel";
+
+  private static byte[] knownOutput(Class<? extends LaserCutter> c) throws IOException
+  {
+    return Files.readAllBytes(new File("./test-output/" + c.getName() + ".out").toPath());
+  }
+
+  private static byte[] saveJob(LaserCutter lc, LaserJob job) throws Exception
+  {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    lc.saveJob(result, job);
+    return result.toByteArray();
+  }
+
+  private static byte[] saveDummyJob(LaserCutter lc, String parallelSetting) throws Exception
+  {
+    lc.setProperty(parallelSetting, true);
+    return saveJob(lc, new AllDriversTest().generateDummyJob(lc));
+  }
+
+  private static List<String> lines(byte[] output)
+  {
+    return Arrays.asList(new String(output, StandardCharsets.US_ASCII).split("\n"));
+  }
+
+  /**
+   * Replaces the lines which only change a setting by the settings in effect
+   * for each of the other lines
+   * @param settingKey returns which setting a line changes, null for other lines
+   */
+  private static List<String> applySettings(List<String> lines, Function<String, String> settingKey)
+  {
+    Map<String, String> settings = new TreeMap<>();
+    List<String> result = new ArrayList<>();
+    for (String line : lines)
+    {
+      String key = settingKey.apply(line);
+      if (key != null)
+      {
+        settings.put(key, line);
+      }
+      else
+      {
+        result.add(line + " " + settings.values());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Replaces each G0/G1 line by all coordinates, power and feed in effect
+   * after it. Repeated moves to the same position are left out.
+   */
+  private static List<String> applyModalWords(List<String> lines)
+  {
+    Map<Character, String> words = new TreeMap<>();
+    List<String> result = new ArrayList<>();
+    for (String line : lines)
+    {
+      String[] parts = line.split(" ");
+      if (!"G0".equals(parts[0]) && !"G1".equals(parts[0]))
+      {
+        result.add(line);
+        continue;
+      }
+      for (int i = 1; i < parts.length; i++)
+      {
+        words.put(parts[i].charAt(0), parts[i].substring(1));
+      }
+      String state = parts[0] + " " + words;
+      if (result.isEmpty() || !state.equals(result.get(result.size() - 1)))
+      {
+        result.add(state);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testEpilog() throws Exception
+  {
+    for (EpilogCutter lc : new EpilogCutter[]{new EpilogZing(), new EpilogHelix()})
+    {
+      assertArrayEquals(lc.getClass().getSimpleName(), knownOutput(lc.getClass()), saveDummyJob(lc, EPILOG_PARALLEL_ENCODING));
+    }
+  }
+
+  @Test
+  public void testLaos() throws Exception
+  {
+    List<String> expected = lines(knownOutput(LaosCutter.class));
+    List<String> result = lines(saveDummyJob(new LaosCutter(), PARALLEL_ENCODING));
+    // 7 <setting> <value>: speed, power, frequency, ventilation, purge; 2 <z>: focus
+    Function<String, String> settingKey = line -> line.startsWith("7 ") ? line.substring(0, line.lastIndexOf(' '))
+      : line.startsWith("2 ") ? "2" : null;
+    assertEquals(applySettings(expected, settingKey), applySettings(result, settingKey));
+    assertTrue("power and speed are sent again", result.size() > expected.size());
+  }
+
+  /**
+   * length of the LTT command starting at the given position, if it only
+   * changes power, speed, frequency or job mode, otherwise 0
+   */
+  private static int lttSettingLength(byte[] data, int pos)
+  {
+    if (pos + 1 >= data.length || data[pos] != 0x1B)
+    {
+      return 0;
+    }
+    switch (data[pos + 1])
+    {
+      case 0x4A: // power
+      case 0x53: // speed
+      case 0x50: // frequency
+        return 4;
+      case 0x4D: // job mode
+        return 3;
+      default:
+        return 0;
+    }
+  }
+
+  @Test
+  public void testLaserToolsTechnics() throws Exception
+  {
+    byte[] expected = knownOutput(LaserToolsTechnicsCutter.class);
+    byte[] result = saveDummyJob(new LaserToolsTechnicsCutter(), PARALLEL_ENCODING);
+    assertTrue("settings are sent again", result.length > expected.length);
+    // leave out the trailer (checksum and length)
+    int expectedEnd = expected.length - 6;
+    int resultEnd = result.length - 6;
+    int e = 0;
+    int r = 0;
+    while (r < resultEnd)
+    {
+      int length = lttSettingLength(result, r);
+      if (e < expectedEnd && (length == 0 || Arrays.equals(result, r, r + length, expected, e, e + length)))
+      {
+        if (result[r] != expected[e])
+        {
+          fail("output differs at byte " + r + " (" + e + " of the known output)");
+        }
+        r++;
+        e++;
+      }
+      else if (length > 0)
+      {
+        // a setting which is sent again
+        r += length;
+      }
+      else
+      {
+        fail("output is longer than the known output");
+      }
+    }
+    assertEquals("output is shorter than the known output", expectedEnd, e);
+  }
+
+  @Test
+  public void testGcode() throws Exception
+  {
+    List<String> expected = lines(knownOutput(GenericGcodeDriver.class));
+    List<String> result = lines(saveDummyJob(new GenericGcodeDriver(), PARALLEL_ENCODING));
+    assertEquals(applyModalWords(expected), applyModalWords(result));
+    assertTrue("power is sent again", result.contains("G1 X2.2352 S0 F1200"));
+  }
+
+  /**
+   * job with the given focus for each part
+   */
+  private static LaserJob createFocusJob(float... focus)
+  {
+    LaserJob job = new LaserJob("focus", "focus", "test");
+    for (int i = 0; i < focus.length; i++)
+    {
+      FloatPowerSpeedFocusProperty prop = new FloatPowerSpeedFocusProperty();
+      prop.setPower(50);
+      prop.setSpeed(100);
+      prop.setFocus(focus[i]);
+      VectorPart vp = new VectorPart(prop, 254);
+      vp.moveto(10 * i, 0);
+      vp.lineto(10 * i + 5, 5);
+      job.addPart(vp);
+    }
+    return job;
+  }
+
+  @Test
+  public void testGcodeFocus() throws Exception
+  {
+    GenericGcodeDriver driver = new GenericGcodeDriver();
+    driver.setSupportedResolutions("254");
+    List<String> expected = lines(saveJob(driver, createFocusJob(0, 2, 2, 1)));
+    // the driver keeps the focus of the last job, so start with a new one
+    driver = new GenericGcodeDriver();
+    driver.setSupportedResolutions("254");
+    driver.setProperty(PARALLEL_ENCODING, true);
+    List<String> result = lines(saveJob(driver, createFocusJob(0, 2, 2, 1)));
+    assertEquals(applyModalWords(expected), applyModalWords(result));
+    assertEquals(Arrays.asList("G0 Z2.000000", "G0 Z1.000000"), result.stream().filter(l -> l.contains("Z")).collect(Collectors.toList()));
+  }
+
+  /**
+   * When waiting for "ok", the encoded parts have to be sent line by line
+   */
+  @Test
+  public void testGcodeWaitForOK() throws Exception
+  {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    int[] oks = {0};
+    GenericGcodeDriver driver = new GenericGcodeDriver()
+    {
+      @Override
+      protected String waitForLine()
+      {
+        String output = sent.toString(StandardCharsets.US_ASCII);
+        assertTrue(output.endsWith("\n"));
+        assertEquals("one ok per line", output.split("\n").length, oks[0] + 1);
+        oks[0]++;
+        return "ok";
+      }
+    };
+    driver.setProperty(PARALLEL_ENCODING, true);
+    byte[] saved = saveJob(driver, new AllDriversTest().generateDummyJob(driver));
+    driver.out = new LinefeedPrintStream(sent);
+    driver.setWaitForOKafterEachLine(true);
+    driver.writeJobCode(new AllDriversTest().generateDummyJob(driver), new ProgressListenerDummy());
+    assertArrayEquals(saved, sent.toByteArray());
+    assertEquals(lines(saved).size(), oks[0]);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CharacterCountingSenderTest
+{
+
+  /**
+   * Simulated GRBL controller: reads lines from its receive buffer,
+   * answers "ok" (or "error:20" for lines starting with "BAD") and
+   * records the highest fill level of the receive buffer.
+   */
+  private static class Controller extends Thread
+  {
+    final PipedInputStream rx = new PipedInputStream(4096);
+    final PipedOutputStream tx = new PipedOutputStream();
+    final List<String> received = new ArrayList<>();
+    final int expectedLines;
+    volatile int maxFill = 0;
+
+    Controller(int expectedLines)
+    {
+      this.expectedLines = expectedLines;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      try (PrintStream answer = new PrintStream(tx, true, StandardCharsets.US_ASCII))
+      {
+        while (received.size() < expectedLines)
+        {
+          StringBuilder line = new StringBuilder();
+          int c;
+          while ((c = rx.read()) != '\n')
+          {
+            line.append((char) c);
+            maxFill = Math.max(maxFill, line.length() + rx.available());
+          }
+          received.add(line.toString());
+          Thread.sleep(received.size() % 10 == 0 ? 1 : 0);
+          if (received.size() % 25 == 0)
+          {
+            answer.print("<Idle|MPos:0.000,0.000,0.000>\n");
+          }
+          answer.print(line.toString().startsWith("BAD") ? "error:20\n" : "ok\n");
+        }
+      }
+      catch (IOException | InterruptedException e)
+      {
+      }
+    }
+  }
+
+  private static CharacterCountingSender connect(Controller c) throws IOException
+  {
+    PipedOutputStream out = new PipedOutputStream(c.rx);
+    BufferedReader in = new BufferedReader(new InputStreamReader(new PipedInputStream(c.tx), StandardCharsets.US_ASCII));
+    c.start();
+    return new CharacterCountingSender(out, () -> {
+      String line = "";
+      while ("".equals(line))
+      {
+        line = in.readLine();
+      }
+      return line;
+    }, 127, 16);
+  }
+
+  @Test
+  public void testKeepsBufferFilledWithoutOverflow() throws IOException
+  {
+    int count = 500;
+    Controller c = new Controller(count);
+    try (CharacterCountingSender sender = connect(c))
+    {
+      for (int i = 0; i < count; i++)
+      {
+        sender.send(String.format("G1X%dY%d\n", i, 2 * i));
+      }
+      sender.finish();
+      assertEquals(0, sender.getUnacknowledgedBytes());
+    }
+    assertEquals(count, c.received.size());
+    for (int i = 0; i < count; i++)
+    {
+      assertEquals(String.format("G1X%dY%d", i, 2 * i), c.received.get(i));
+    }
+    assertTrue("buffer overflow: " + c.maxFill, c.maxFill <= 127);
+    // more than one line was in flight
+    assertTrue(c.maxFill > 20);
+  }
+
+  @Test
+  public void testReportsErrors() throws IOException
+  {
+    Controller c = new Controller(50);
+    try (CharacterCountingSender sender = connect(c))
+    {
+      for (int i = 0; i < 50; i++)
+      {
+        sender.send(i == 20 ? "BAD\n" : "G0X1\n");
+      }
+      sender.finish();
+      fail("the error response should be reported");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage().contains("error:20"));
+    }
+  }
+}
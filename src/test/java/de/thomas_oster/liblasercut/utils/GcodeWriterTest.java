@@ -0,0 +1,74 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GcodeWriterTest
+{
+
+  @Test
+  public void testNumbersMatchFormat()
+  {
+    GcodeWriter w = new GcodeWriter(6);
+    w.setStripTrailingZeros(false);
+    Random r = new Random(1);
+    for (int i = 0; i < 10000; i++)
+    {
+      // typical coordinates: pixels at some dpi converted to mm
+      double v = (r.nextInt(200000) - 100000) * 25.4 / (100 + r.nextInt(1100));
+      assertEquals(String.format(Locale.US, "%f", v), w.begin("").number(v).toString());
+    }
+    assertEquals("0.000000", w.begin("").number(0.0).toString());
+    assertEquals("-12", w.begin("").number(-12L).toString());
+  }
+
+  @Test
+  public void testStripTrailingZeros()
+  {
+    GcodeWriter w = new GcodeWriter(4);
+    assertEquals("1.5", w.begin("").number(1.5).toString());
+    assertEquals("2", w.begin("").number(2.0).toString());
+    assertEquals("0", w.begin("").number(-0.00001).toString());
+    assertEquals("-0.0254", w.begin("").number(-0.0254).toString());
+    assertEquals("0.0001", w.begin("").number(0.00012).toString());
+    assertEquals("10.2", w.begin("").number(10.19999).toString());
+  }
+
+  @Test
+  public void testModalWords()
+  {
+    GcodeWriter w = new GcodeWriter(3);
+    assertEquals("G1 X1 Y2 F1200", w.begin("G1").modalWord('X', 1.0).modalWord('Y', 2.0).modalWord('F', 1200).toString());
+    assertEquals("G1 X1.5", w.begin("G1").modalWord('X', 1.5).modalWord('Y', 2.0).modalWord('F', 1200).toString());
+    // equal after rounding to the written decimals
+    w.begin("G1").modalWord('X', 1.5001).modalWord('Y', 2.0);
+    assertFalse(w.hasWords());
+    assertEquals("G0 X1.5 Y2", w.begin("G0").word('X', 1.5).word('Y', 2.0).toString());
+    w.forgetModalState();
+    w.setWordSeparator("");
+    assertEquals("G1X1.5Y2F1200", w.begin("G1").modalWord('X', 1.5).modalWord('Y', 2.0).modalWord('F', 1200).toString());
+    assertEquals("S255", w.begin("").modalWord('S', 255).toString());
+  }
+}
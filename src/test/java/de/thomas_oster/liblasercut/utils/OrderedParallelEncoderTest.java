@@ -0,0 +1,104 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrderedParallelEncoderTest
+{
+
+  private static List<Integer> numbers(int count)
+  {
+    List<Integer> result = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+    {
+      result.add(i);
+    }
+    return result;
+  }
+
+  @Test
+  public void testOrderAndInFlightLimit() throws IOException
+  {
+    Random r = new Random(1);
+    int[] delays = new int[50];
+    for (int i = 0; i < delays.length; i++)
+    {
+      delays[i] = r.nextInt(5);
+    }
+    AtomicInteger started = new AtomicInteger();
+    AtomicInteger maxAhead = new AtomicInteger();
+    List<String> written = new ArrayList<>();
+    OrderedParallelEncoder.encode(numbers(delays.length), i ->
+    {
+      started.incrementAndGet();
+      try
+      {
+        Thread.sleep(delays[i]);
+      }
+      catch (InterruptedException e)
+      {
+        throw new IOException(e);
+      }
+      return "part " + i;
+    }, s ->
+    {
+      maxAhead.accumulateAndGet(started.get() - written.size(), Math::max);
+      written.add(s);
+    }, 4, 6);
+    assertEquals(delays.length, written.size());
+    for (int i = 0; i < delays.length; i++)
+    {
+      assertEquals("part " + i, written.get(i));
+    }
+    assertTrue("at most 6 parts in flight, but " + maxAhead.get(), maxAhead.get() <= 6);
+  }
+
+  @Test
+  public void testErrorIsThrown()
+  {
+    List<Integer> written = new ArrayList<>();
+    try
+    {
+      OrderedParallelEncoder.encode(numbers(20), i ->
+      {
+        if (i == 7)
+        {
+          throw new IOException("part 7 failed");
+        }
+        return i;
+      }, written::add, 3, 3);
+      fail("no exception");
+    }
+    catch (IOException e)
+    {
+      assertEquals("part 7 failed", e.getMessage());
+    }
+    assertEquals(numbers(7), written);
+  }
+}
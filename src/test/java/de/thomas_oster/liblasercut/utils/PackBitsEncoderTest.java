@@ -0,0 +1,85 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import de.thomas_oster.liblasercut.ByteArrayList;
+import de.thomas_oster.liblasercut.drivers.EpilogZing;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class PackBitsEncoderTest
+{
+
+  /**
+   * Compares with EpilogCutter.encode(), which the raster code used before
+   */
+  @Test
+  public void testSameAsListEncoder()
+  {
+    EpilogZing epilog = new EpilogZing();
+    PackBitsEncoder encoder = new PackBitsEncoder();
+    Random r = new Random(4);
+    for (int i = 0; i < 2000; i++)
+    {
+      int length = r.nextInt(i % 10 == 0 ? 1000 : 40);
+      byte[] line = new byte[length + 10];
+      // mix of runs (also longer than 128) and noise
+      int x = 0;
+      while (x < line.length)
+      {
+        int run = r.nextInt(4) == 0 ? r.nextInt(300) : 1 + r.nextInt(3);
+        byte value = (byte) r.nextInt(r.nextBoolean() ? 3 : 256);
+        for (int k = 0; k < run && x < line.length; k++)
+        {
+          line[x++] = value;
+        }
+      }
+      int from = r.nextInt(6);
+      int to = from + length;
+      for (boolean reversed : new boolean[]{false, true})
+      {
+        List<Byte> slice = new ArrayList<>();
+        for (int k = from; k < to; k++)
+        {
+          slice.add(line[k]);
+        }
+        if (reversed)
+        {
+          Collections.reverse(slice);
+        }
+        ByteArrayList expected = new ByteArrayList(length);
+        epilog.encode(slice, expected);
+        int len = encoder.encode(line, from, to, reversed);
+        byte[] actual = new byte[len];
+        System.arraycopy(encoder.getBuffer(), 0, actual, 0, len);
+        byte[] expectedBytes = new byte[expected.size()];
+        for (int k = 0; k < expectedBytes.length; k++)
+        {
+          expectedBytes[k] = expected.get(k);
+        }
+        assertArrayEquals(expectedBytes, actual);
+      }
+    }
+  }
+}
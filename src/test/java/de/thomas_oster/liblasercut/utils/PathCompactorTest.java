@@ -0,0 +1,131 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PathCompactorTest
+{
+
+  /**
+   * Records the commands, as {x, y} for lines and {x, y, i, j, ccw} for arcs
+   */
+  private static class Recorder implements PathCompactor.Sink
+  {
+    final List<double[]> commands = new ArrayList<>();
+
+    @Override
+    public void line(double x, double y)
+    {
+      commands.add(new double[]{x, y});
+    }
+
+    @Override
+    public void arc(double x, double y, double i, double j, boolean counterClockwise)
+    {
+      commands.add(new double[]{x, y, i, j, counterClockwise ? 1 : 0});
+    }
+  }
+
+  @Test
+  public void testCollinearSegmentsAreMerged() throws Exception
+  {
+    Recorder r = new Recorder();
+    PathCompactor c = new PathCompactor(r, 0.5, false);
+    c.start(0, 0);
+    for (int x = 1; x <= 100; x++)
+    {
+      c.add(x, x % 2 == 0 ? 0 : 0.2);
+    }
+    // corner
+    c.add(100, 50);
+    c.add(100, 100);
+    c.flush();
+    assertEquals(2, r.commands.size());
+    assertEquals(100, r.commands.get(0)[0], 0);
+    assertEquals(0, r.commands.get(0)[1], 0);
+    assertEquals(100, r.commands.get(1)[1], 0);
+    assertEquals(102, c.getSegmentsIn());
+    assertEquals(2, c.getCommandsOut());
+  }
+
+  @Test
+  public void testLinesGoingBackAreNotMerged() throws Exception
+  {
+    Recorder r = new Recorder();
+    PathCompactor c = new PathCompactor(r, 0.5, true);
+    c.start(0, 0);
+    c.add(10, 0);
+    c.add(5, 0);
+    c.add(20, 0);
+    c.flush();
+    assertEquals(3, r.commands.size());
+  }
+
+  @Test
+  public void testCircleBecomesArcs() throws Exception
+  {
+    Recorder r = new Recorder();
+    double tolerance = 0.05;
+    double radius = 50;
+    int n = 200;
+    PathCompactor c = new PathCompactor(r, tolerance, true);
+    c.start(100 + radius, 100);
+    for (int k = 1; k <= n; k++)
+    {
+      double a = 2 * Math.PI * k / n;
+      c.add(100 + radius * Math.cos(a), 100 + radius * Math.sin(a));
+    }
+    c.flush();
+    assertTrue(r.commands.size() <= 4);
+    double x = 100 + radius;
+    double y = 100;
+    for (double[] cmd : r.commands)
+    {
+      assertEquals(5, cmd.length);
+      assertEquals(1, cmd[4], 0);
+      // center and radius of each arc
+      assertEquals(100, x + cmd[2], tolerance);
+      assertEquals(100, y + cmd[3], tolerance);
+      assertEquals(radius, Math.hypot(cmd[2], cmd[3]), tolerance);
+      x = cmd[0];
+      y = cmd[1];
+    }
+    assertEquals(100 + radius, x, 1e-9);
+    assertEquals(100, y, 1e-9);
+  }
+
+  @Test
+  public void testWithoutStart() throws Exception
+  {
+    Recorder r = new Recorder();
+    PathCompactor c = new PathCompactor(r, 0.5, true);
+    c.add(1, 1);
+    c.add(2, 2);
+    c.add(3, 3);
+    c.flush();
+    assertEquals(2, r.commands.size());
+    assertEquals(3, r.commands.get(1)[0], 0);
+  }
+}
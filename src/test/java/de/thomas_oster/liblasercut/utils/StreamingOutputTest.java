@@ -0,0 +1,163 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class StreamingOutputTest
+{
+
+  private static byte[] randomBytes(int length)
+  {
+    byte[] result = new byte[length];
+    new Random(3).nextBytes(result);
+    return result;
+  }
+
+  private static void writeMixed(OutputStream out, byte[] data) throws IOException
+  {
+    int i = 0;
+    while (i < data.length)
+    {
+      if (i % 7 == 0)
+      {
+        out.write(data[i++]);
+      }
+      else
+      {
+        int n = Math.min(data.length - i, i % 1000);
+        out.write(data, i, n);
+        i += n;
+      }
+    }
+  }
+
+  @Test
+  public void testPipelined() throws IOException
+  {
+    byte[] data = randomBytes(100000);
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    try (OutputStream out = new PipelinedOutputStream(target, 128, 2))
+    {
+      writeMixed(out, data);
+    }
+    assertArrayEquals(data, target.toByteArray());
+  }
+
+  @Test
+  public void testPipelinedReportsErrors() throws IOException
+  {
+    OutputStream broken = new OutputStream()
+    {
+      @Override
+      public void write(int b) throws IOException
+      {
+        throw new IOException("broken");
+      }
+    };
+    try (OutputStream out = new PipelinedOutputStream(broken, 16, 2))
+    {
+      out.write(randomBytes(100));
+      out.flush();
+      fail("flush should report the error of the writer thread");
+    }
+    catch (IOException e)
+    {
+      assertEquals("broken", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testSpilling() throws IOException
+  {
+    byte[] data = randomBytes(50000);
+    for (int threshold : new int[]{1000000, 20000, 4096})
+    {
+      for (boolean bytewise : new boolean[]{false, true})
+      {
+        testSpilling(data, threshold, bytewise);
+      }
+    }
+  }
+
+  private static void testSpilling(byte[] data, int threshold, boolean bytewise) throws IOException
+  {
+    try (SpillingOutputStream out = new SpillingOutputStream(threshold))
+    {
+      if (bytewise)
+      {
+        for (byte b : data)
+        {
+          out.write(b);
+        }
+      }
+      else
+      {
+        writeMixed(out, data);
+      }
+      assertEquals(data.length, out.size());
+      assertEquals(threshold < data.length, out.isSpilled());
+      ByteArrayOutputStream copy = new ByteArrayOutputStream();
+      out.writeTo(copy);
+      assertArrayEquals(data, copy.toByteArray());
+      try (InputStream in = out.openInputStream())
+      {
+        assertArrayEquals(data, in.readAllBytes());
+      }
+    }
+  }
+
+  @Test
+  public void testSpillingClosed() throws IOException
+  {
+    for (int threshold : new int[]{1000000, 4})
+    {
+      SpillingOutputStream out = new SpillingOutputStream(threshold);
+      out.write(new byte[]{1, 2, 3, 4, 5});
+      out.close();
+      try
+      {
+        out.write(6);
+        fail("write after close");
+      }
+      catch (IOException e)
+      {
+        assertEquals("closed", e.getMessage());
+      }
+      try
+      {
+        out.openInputStream();
+        fail("read after close");
+      }
+      catch (IOException e)
+      {
+        assertEquals("closed", e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeleteDuplicatePathsOptimizerTest
+{
+
+  private static final PowerSpeedFocusProperty PROP = new PowerSpeedFocusProperty();
+
+  private static Element newElem(double... coordinates)
+  {
+    Element ret = new Element();
+    ret.prop = PROP;
+    ret.start = new Point(coordinates[0], coordinates[1]);
+    for (int i = 2; i < coordinates.length; i += 2)
+    {
+      ret.addPoint(new Point(coordinates[i], coordinates[i + 1]));
+    }
+    return ret;
+  }
+
+  private static int countSegments(List<Element> elements)
+  {
+    int result = 0;
+    for (Element e : elements)
+    {
+      result += e.getMoves().size();
+    }
+    return result;
+  }
+
+  @Test
+  public void removesIdenticalReversedAndRotatedDuplicates()
+  {
+    List<Element> elements = new ArrayList<>();
+    elements.add(newElem(0, 0, 10, 0, 10, 10));
+    elements.add(newElem(0, 0, 10, 0, 10, 10));
+    elements.add(newElem(0, 0, 10, 0, 10, 10));
+    elements.add(newElem(10, 10, 10, 0, 0, 0));
+    elements.add(newElem(100, 100, 110, 100, 110, 110, 100, 110, 100, 100));
+    // same square, other start point and direction
+    elements.add(newElem(110, 110, 110, 100, 100, 100, 100, 110, 110, 110));
+    // near-identical
+    elements.add(newElem(0.001, 0, 10, 0.001, 10, 10));
+    List<Element> result = new DeleteDuplicatePathsOptimizer(0.01, false).sort(elements);
+    assertEquals(2, result.size());
+  }
+
+  @Test
+  public void exactComparisonWithoutTolerance()
+  {
+    List<Element> elements = new ArrayList<>();
+    elements.add(newElem(0, 0, 10, 0, 10, 10));
+    elements.add(newElem(0.001, 0, 10, 0.001, 10, 10));
+    elements.add(newElem(10, 10, 10, 0, 0, 0));
+    List<Element> result = new DeleteDuplicatePathsOptimizer(0, false).sort(elements);
+    assertEquals(2, result.size());
+  }
+
+  @Test
+  public void removesCommonLineOfAdjacentShapes()
+  {
+    List<Element> elements = new ArrayList<>();
+    // two squares sharing the edge (10,0)-(10,10)
+    elements.add(newElem(0, 0, 10, 0, 10, 10, 0, 10, 0, 0));
+    elements.add(newElem(10, 10, 10, 0, 20, 0, 20, 10, 10, 10));
+    // a square whose shared edge is the closing segment of the path
+    elements.add(newElem(20, 0, 30, 0, 30, 10, 20, 10, 20, 0));
+    List<Element> result = new DeleteDuplicatePathsOptimizer(DeleteDuplicatePathsOptimizer.DEFAULT_TOLERANCE, true).sort(elements);
+    assertEquals(4 + 3 + 3, countSegments(result));
+    // the pieces of the third square are joined again to one path
+    assertEquals(3, result.size());
+    for (Element e : result)
+    {
+      if (e.getMoves().contains(new Point(30, 10)))
+      {
+        assertEquals(3, e.getMoves().size());
+      }
+    }
+  }
+
+  @Test
+  public void keepsSegmentsAndPathsWithOtherProperties()
+  {
+    PowerSpeedFocusProperty mark = new PowerSpeedFocusProperty();
+    mark.setPower(10);
+    List<Element> elements = new ArrayList<>();
+    Element marked = newElem(0, 0, 10, 0, 10, 10, 0, 10, 0, 0);
+    marked.prop = mark;
+    elements.add(marked);
+    // cut along the marked square, and once more along one of its edges
+    elements.add(newElem(0, 0, 10, 0, 10, 10, 0, 10, 0, 0));
+    elements.add(newElem(10, 0, 10, 10));
+    List<Element> result = new DeleteDuplicatePathsOptimizer(DeleteDuplicatePathsOptimizer.DEFAULT_TOLERANCE, true).sort(elements);
+    assertEquals(4 + 4, countSegments(result));
+  }
+
+  @Test
+  public void segmentRemovalIsOffByDefault()
+  {
+    List<Element> elements = new ArrayList<>();
+    elements.add(newElem(0, 0, 10, 0, 10, 10, 0, 10, 0, 0));
+    elements.add(newElem(10, 10, 10, 0, 20, 0, 20, 10, 10, 10));
+    List<Element> result = new DeleteDuplicatePathsOptimizer().sort(elements);
+    assertEquals(4 + 4, countSegments(result));
+  }
+}
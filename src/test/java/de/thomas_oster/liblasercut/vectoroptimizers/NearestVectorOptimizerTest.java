@@ -0,0 +1,84 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NearestVectorOptimizerTest
+{
+
+  /**
+   * Random paths on a coarse grid, so that there are many ties, shared
+   * points and closed paths.
+   */
+  private static List<Element> randomElements(long seed, int count, int gridSize)
+  {
+    Random random = new Random(seed);
+    PowerSpeedFocusProperty prop = new PowerSpeedFocusProperty();
+    List<Element> result = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+    {
+      Element e = new Element();
+      e.prop = prop;
+      e.start = new Point(random.nextInt(gridSize), random.nextInt(gridSize));
+      int moves = 1 + random.nextInt(3);
+      for (int j = 0; j < moves; j++)
+      {
+        e.addPoint(new Point(random.nextInt(gridSize), random.nextInt(gridSize)));
+      }
+      if (random.nextInt(4) == 0)
+      {
+        e.addPoint(new Point(e.start.x, e.start.y));
+      }
+      result.add(e);
+    }
+    return result;
+  }
+
+  @Test
+  public void spatialIndexGivesSameOrderAsLinearSearch()
+  {
+    for (int seed = 0; seed < 20; seed++)
+    {
+      int count = 1 + seed * 37;
+      int gridSize = seed % 2 == 0 ? 10 : 1000;
+      List<Element> expected = new NearestVectorOptimizer().sortByLinearSearch(randomElements(seed, count, gridSize));
+      List<Element> actual = new NearestVectorOptimizer().sortWithSpatialIndex(randomElements(seed, count, gridSize));
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++)
+      {
+        assertEquals("seed " + seed + ", element " + i, expected.get(i), actual.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void emptyInput()
+  {
+    assertEquals(0, new NearestVectorOptimizer().sort(new ArrayList<>()).size());
+  }
+}
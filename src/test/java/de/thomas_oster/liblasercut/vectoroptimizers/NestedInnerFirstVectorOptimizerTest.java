@@ -0,0 +1,137 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NestedInnerFirstVectorOptimizerTest
+{
+
+  private static final PowerSpeedFocusProperty PROP = new PowerSpeedFocusProperty();
+
+  private static Element rectangle(double x, double y, double w, double h)
+  {
+    Element ret = new Element();
+    ret.prop = PROP;
+    ret.start = new Point(x, y);
+    ret.addPoint(new Point(x + w, y));
+    ret.addPoint(new Point(x + w, y + h));
+    ret.addPoint(new Point(x, y + h));
+    ret.addPoint(new Point(x, y));
+    return ret;
+  }
+
+  private static Element circle(double cx, double cy, double r)
+  {
+    Element ret = new Element();
+    ret.prop = PROP;
+    ret.start = new Point(cx + r, cy);
+    for (int i = 1; i <= 32; i++)
+    {
+      double a = 2 * Math.PI * i / 32;
+      ret.addPoint(i == 32 ? ret.start : new Point(cx + r * Math.cos(a), cy + r * Math.sin(a)));
+    }
+    return ret;
+  }
+
+  @Test
+  public void circleInscribedInSquare()
+  {
+    // same bounding box, which the bounding box based InnerFirstVectorOptimizer cannot sort
+    Element square = rectangle(0, 0, 100, 100);
+    Element circle = circle(50, 50, 50);
+    List<Element> elements = new ArrayList<>();
+    elements.add(square);
+    elements.add(circle);
+    List<Element> sorted = new NestedInnerFirstVectorOptimizer().sort(elements);
+    assertEquals(2, sorted.size());
+    assertEquals(circle, sorted.get(0));
+    assertEquals(square, sorted.get(1));
+  }
+
+  @Test
+  public void holeSlightlyOverlappingOutline()
+  {
+    Element outline = rectangle(0, 0, 100, 100);
+    Element hole = rectangle(-1, 40, 20, 20);
+    Element other = rectangle(200, 0, 10, 10);
+    List<Element> elements = new ArrayList<>();
+    elements.add(outline);
+    elements.add(other);
+    elements.add(hole);
+    List<Element> sorted = new NestedInnerFirstVectorOptimizer().sort(elements);
+    assertEquals(3, sorted.size());
+    assertEquals(outline, sorted.get(2));
+  }
+
+  @Test
+  public void everyPathBeforeItsContainer()
+  {
+    // sheet border around many parts, each with a hole containing a small part
+    List<Element> elements = new ArrayList<>();
+    List<Element[]> nesting = new ArrayList<>();
+    Element border = rectangle(0, 0, 6000, 6000);
+    elements.add(border);
+    for (int i = 0; i < 50; i++)
+    {
+      for (int j = 0; j < 50; j++)
+      {
+        Element part = rectangle(10 + 100 * i, 10 + 100 * j, 80, 80);
+        Element hole = circle(50 + 100 * i, 50 + 100 * j, 30);
+        Element inner = rectangle(40 + 100 * i, 40 + 100 * j, 20, 20);
+        elements.add(part);
+        elements.add(hole);
+        elements.add(inner);
+        nesting.add(new Element[] { inner, hole });
+        nesting.add(new Element[] { hole, part });
+        nesting.add(new Element[] { part, border });
+      }
+    }
+    Collections.shuffle(elements, new Random(1));
+    List<Element> sorted = new NestedInnerFirstVectorOptimizer().sort(elements);
+    assertEquals(elements.size(), sorted.size());
+    assertEquals(border, sorted.get(sorted.size() - 1));
+    for (Element[] pair : nesting)
+    {
+      assertTrue(indexOf(sorted, pair[0]) < indexOf(sorted, pair[1]));
+    }
+  }
+
+  private static int indexOf(List<Element> list, Element e)
+  {
+    for (int i = 0; i < list.size(); i++)
+    {
+      if (list.get(i) == e)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
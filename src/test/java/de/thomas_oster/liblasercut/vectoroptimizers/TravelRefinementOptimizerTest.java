@@ -0,0 +1,173 @@
+/*
+  This file is part of LibLaserCut.
+  Copyright (C) 2011 - 2014 Thomas Oster <mail@thomas-oster.de>
+
+  LibLaserCut is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  LibLaserCut is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with LibLaserCut. If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package de.thomas_oster.liblasercut.vectoroptimizers;
+
+import de.thomas_oster.liblasercut.PowerSpeedFocusProperty;
+import de.thomas_oster.liblasercut.platform.Point;
+import de.thomas_oster.liblasercut.vectoroptimizers.VectorOptimizer.Element;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TravelRefinementOptimizerTest
+{
+
+  private static final PowerSpeedFocusProperty PROP = new PowerSpeedFocusProperty();
+
+  private static Element line(double x1, double y1, double x2, double y2)
+  {
+    Element ret = new Element();
+    ret.prop = PROP;
+    ret.start = new Point(x1, y1);
+    ret.addPoint(new Point(x2, y2));
+    return ret;
+  }
+
+  private static Element rectangle(double x, double y, double w, double h)
+  {
+    Element ret = line(x, y, x + w, y);
+    ret.addPoint(new Point(x + w, y + h));
+    ret.addPoint(new Point(x, y + h));
+    ret.addPoint(new Point(x, y));
+    return ret;
+  }
+
+  private static double travel(List<Element> elements)
+  {
+    double result = 0;
+    for (int i = 1; i < elements.size(); i++)
+    {
+      result += elements.get(i - 1).getEnd().hypotTo(elements.get(i).start);
+    }
+    return result;
+  }
+
+  @Test
+  public void shortensTravel()
+  {
+    Random r = new Random(3);
+    List<Element> elements = new ArrayList<>();
+    for (int i = 0; i < 2000; i++)
+    {
+      double x = r.nextDouble() * 1000;
+      double y = r.nextDouble() * 1000;
+      elements.add(line(x, y, x + r.nextDouble() * 20, y + r.nextDouble() * 20));
+    }
+    double fileOrder = travel(elements);
+    TravelRefinementOptimizer vo = new TravelRefinementOptimizer(new FileVectorOptimizer(), false, 10000);
+    List<Element> sorted = vo.sort(new ArrayList<>(elements));
+
+    assertEquals(elements.size(), sorted.size());
+    assertTrue(Collections.newSetFromMap(new IdentityHashMap<>()).addAll(sorted));
+    assertEquals(fileOrder, vo.getLastReport().getTravelBefore(), 1e-6);
+    assertEquals(travel(sorted), vo.getLastReport().getTravelAfter(), 1e-6);
+    assertTrue(vo.getLastReport().getTravelAfter() < fileOrder / 2);
+  }
+
+  @Test
+  public void zeroBudgetKeepsOrder()
+  {
+    List<Element> elements = new ArrayList<>();
+    elements.add(line(0, 0, 1, 0));
+    elements.add(line(100, 0, 101, 0));
+    elements.add(line(2, 0, 3, 0));
+    TravelRefinementOptimizer vo = new TravelRefinementOptimizer(new FileVectorOptimizer(), false, 0);
+    List<Element> sorted = vo.sort(new ArrayList<>(elements));
+    assertEquals(elements, sorted);
+    assertEquals(0, vo.getLastReport().getMoves());
+  }
+
+  @Test
+  public void budgetExcludesBaseOptimizer()
+  {
+    List<Element> elements = new ArrayList<>();
+    elements.add(line(0, 0, 1, 0));
+    elements.add(line(100, 0, 101, 0));
+    elements.add(line(2, 0, 3, 0));
+    VectorOptimizer slowBase = new FileVectorOptimizer()
+    {
+      @Override
+      protected List<Element> sort(List<Element> e)
+      {
+        try
+        {
+          Thread.sleep(300);
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+        }
+        return super.sort(e);
+      }
+    };
+    TravelRefinementOptimizer vo = new TravelRefinementOptimizer(slowBase, false, 200);
+    List<Element> sorted = vo.sort(new ArrayList<>(elements));
+    assertTrue(vo.getLastReport().getMoves() > 0);
+    assertEquals(travel(sorted), vo.getLastReport().getTravelAfter(), 1e-6);
+    assertTrue(vo.getLastReport().getTravelAfter() < travel(elements));
+  }
+
+  @Test
+  public void keepsInnerFirstOrder()
+  {
+    List<Element> elements = new ArrayList<>();
+    Map<Element, Element> parents = new IdentityHashMap<>();
+    for (int i = 0; i < 20; i++)
+    {
+      for (int j = 0; j < 20; j++)
+      {
+        Element part = rectangle(100 * i, 100 * j, 80, 80);
+        for (int k = 0; k < 3; k++)
+        {
+          Element hole = rectangle(100 * i + 10 + 20 * k, 100 * j + 10 + 25 * k, 10, 10);
+          elements.add(hole);
+          parents.put(hole, part);
+        }
+        elements.add(part);
+      }
+    }
+    TravelRefinementOptimizer vo = new TravelRefinementOptimizer(new NestedInnerFirstVectorOptimizer(), true, 10000);
+    List<Element> sorted = vo.sort(elements);
+    assertEquals(elements.size(), sorted.size());
+    assertTrue(vo.getLastReport().getTravelAfter() <= vo.getLastReport().getTravelBefore());
+    for (Map.Entry<Element, Element> e : parents.entrySet())
+    {
+      assertTrue(indexOf(sorted, e.getKey()) < indexOf(sorted, e.getValue()));
+    }
+  }
+
+  private static int indexOf(List<Element> list, Element e)
+  {
+    for (int i = 0; i < list.size(); i++)
+    {
+      if (list.get(i) == e)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+}